@@ -0,0 +1,113 @@
+import java.awt.Canvas;
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+// ActiveRenderer class draws the game itself instead of waiting for Swing to repaint: frames are drawn on a
+// dedicated render thread into a page-flipped BufferStrategy, while the simulation runs on its own thread at
+// the fixed tick rate. Frames fall between ticks, so moving objects are drawn interpolated between the last two
+class ActiveRenderer {
+    private static final long FORCED_FRAME_NANOS = 1_000_000_000L;
+
+    private final Game game;
+    private final Canvas canvas;
+    private final long framePeriodNanos; // 0 when uncapped
+    private volatile boolean running;
+    private Thread renderThread;
+    private Thread simulationThread;
+
+    // A target of 0 frames per second means uncapped: frames are drawn as fast as possible
+    public ActiveRenderer(Game game, int targetFps) {
+        this.game = game;
+        this.framePeriodNanos = targetFps > 0 ? 1_000_000_000L / targetFps : 0;
+        this.canvas = new Canvas();
+        canvas.setIgnoreRepaint(true); // All drawing happens on the render thread
+        canvas.setFocusable(true);
+        canvas.addKeyListener(game.getKeyAdapter());
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+    // Start both threads. The canvas must already be showing on screen
+    public void start() {
+        game.stopTimer(); // The simulation thread takes over from the Swing timer
+        canvas.createBufferStrategy(2);
+        canvas.requestFocus();
+        running = true;
+
+        simulationThread = new Thread(this::simulationLoop, "simulation");
+        simulationThread.setDaemon(true);
+        simulationThread.start();
+
+        renderThread = new Thread(this::renderLoop, "render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // Wake up once per tick; the game's Simulation works out from the clock how many ticks are due,
+    // so oversleeping never makes the game run slow
+    private void simulationLoop() {
+        long tickNanos = World.TICK_MILLIS * 1_000_000L;
+        long next = System.nanoTime();
+        while (running) {
+            game.update();
+            next += tickNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                next = System.nanoTime(); // Fell behind, do not try to catch up with a burst of wakeups
+            }
+        }
+    }
+
+    private void renderLoop() {
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        Metrics metrics = game.getMetrics();
+        long nextFrame = System.nanoTime();
+        long lastShown = nextFrame;
+        while (running) {
+            // A menu that did not change is not drawn again, only about once a second in case the window
+            // system threw the buffers away. Page flipping swaps whole buffers, so a changed frame is drawn whole
+            if (game.findChanges().isEmpty() && System.nanoTime() - lastShown < FORCED_FRAME_NANOS) {
+                LockSupport.parkNanos(World.TICK_MILLIS * 1_000_000L);
+                nextFrame = System.nanoTime();
+                continue;
+            }
+            // Draw until the frame made it to the screen without the buffers being lost on the way
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    long start = System.nanoTime();
+                    try {
+                        game.renderFrame(g, game.getInterpolation());
+                    } finally {
+                        g.dispose();
+                    }
+                    metrics.record(Metrics.Phase.PAINT, System.nanoTime() - start);
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync(); // Push the frame out now on systems that buffer drawing
+            metrics.frameShown();
+            lastShown = System.nanoTime();
+
+            if (framePeriodNanos > 0) {
+                nextFrame += framePeriodNanos;
+                long wait = nextFrame - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else {
+                    nextFrame = System.nanoTime();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+// AllocationCounter class reads how many bytes the current thread has allocated, using the JVM's
+// per-thread allocation counters. It is used to keep the tick and paint path free of allocations
+class AllocationCounter {
+    private static final int MAX_JAVA2D_BYTES_PER_FRAME = 1024;
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    // Whether this JVM can count allocated bytes at all
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    // Bytes allocated by the calling thread so far, or -1 if the JVM cannot tell
+    public static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    // Check that ticking and collision allocate nothing once warmed up, and that painting a running
+    // game stays within what Java2D's software loops allocate internally. Exits with status 1 if not
+    public static void main(String[] args) throws Exception {
+        if (!isSupported()) {
+            System.out.println("Thread allocation counters are not supported by this JVM");
+            return;
+        }
+        boolean ok = checkTicks();
+        final boolean[] paintOk = new boolean[1];
+        java.awt.EventQueue.invokeAndWait(() -> paintOk[0] = checkPaint()); // Same thread as the Swing timer
+        System.exit(ok && paintOk[0] ? 0 : 1); // The game's Swing timer would keep the JVM alive
+    }
+
+    // Tick and collide a world with a bot that never crashes
+    private static boolean checkTicks() {
+        World world = new World(1920, 1080, 1);
+        long ticks = 100_000;
+        long allocated = 0;
+        for (int i = 0; i < 3 * ticks; i++) { // First two thirds warm up so the JIT has compiled the whole path
+            if (world.isGameOver()) { // Starting a new game allocates its bird and tubes, so it is not measured
+                world.reset(world.getSeed() + 1);
+            }
+            Bird bird = world.getBird();
+            boolean jump = bird.getY() + bird.getHeight() > world.getGapBottom() - 20 && bird.getDy() >= 0;
+            long before = allocatedBytes();
+            world.step(jump);
+            if (i >= 2 * ticks) {
+                allocated += allocatedBytes() - before;
+            }
+        }
+        return report("tick", allocated, ticks) == 0;
+    }
+
+    // Run the game's timer handler and paint a full frame offscreen
+    private static boolean checkPaint() {
+        Window.WIDTH = 1920;
+        Window.HEIGHT = 1080;
+        Game game = new Game();
+        game.restartGame();
+        BufferedImage frame = new BufferedImage(Window.WIDTH, Window.HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        int frames = 500;
+        long allocated = 0;
+        for (int i = 0; i < 2 * frames; i++) { // First half warms up, second half is measured
+            Graphics2D g = frame.createGraphics(); // Game.paint disposes the graphics it is given
+            long before = allocatedBytes();
+            game.actionPerformed(null);
+            game.paint(g);
+            if (i >= frames) {
+                allocated += allocatedBytes() - before;
+            }
+        }
+        // Java2D's software loops allocate a few hundred bytes inside every scaled drawImage and drawString,
+        // which the game cannot avoid. A new Font or String.format per frame costs well over the limit
+        return report("frame", allocated, frames) <= MAX_JAVA2D_BYTES_PER_FRAME;
+    }
+
+    private static double report(String what, long bytes, long count) {
+        double perItem = (double) bytes / count;
+        System.out.printf("%d bytes allocated over %d %ss (%.2f bytes per %s)%n", bytes, count, what, perItem, what);
+        return perItem;
+    }
+}
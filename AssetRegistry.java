@@ -0,0 +1,171 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.swing.ImageIcon;
+
+// SoundData class holds a sound fully decoded to PCM, ready to be played as often as needed without touching the disk
+class SoundData {
+    private final AudioFormat format;
+    private final byte[] data;
+
+    public SoundData(AudioFormat format, byte[] data) {
+        this.format = format;
+        this.data = data;
+    }
+
+    // Read and decode a sound file, converting it to signed PCM if it is stored in another encoding
+    public static SoundData load(String fileName) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(new File(fileName))) {
+            AudioFormat source = in.getFormat();
+            AudioInputStream pcm = in;
+            if (source.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+                AudioFormat target = new AudioFormat(source.getSampleRate(), 16, source.getChannels(), true, false);
+                pcm = AudioSystem.getAudioInputStream(target, in);
+            }
+            return new SoundData(pcm.getFormat(), readAll(pcm));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16384];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
+
+// AssetRegistry class loads every image and sound of the game exactly once, however many objects ask for it
+// and from whichever thread. Assets can be preloaded in the background at startup, so the first frame does
+// not wait for the disk
+class AssetRegistry {
+    private static final ConcurrentHashMap<String, CompletableFuture<ImageIcon>> IMAGES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, CompletableFuture<SoundData>> SOUNDS = new ConcurrentHashMap<>();
+    private static final AtomicLong HITS = new AtomicLong(); // Requests served by an already loaded (or loading) asset
+    private static final AtomicLong MISSES = new AtomicLong(); // Requests that had to load the asset
+    private static final AtomicLong BYTES_RESIDENT = new AtomicLong(); // Decoded size of all loaded assets
+
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), runnable -> {
+                Thread thread = new Thread(runnable, "asset-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private AssetRegistry() {
+    }
+
+    // The image with the given file name, loading it on this thread if nobody has yet
+    public static ImageIcon image(String name) {
+        return lookup(IMAGES, name, () -> loadImage(name), false).join();
+    }
+
+    // The sound with the given file name, decoding it on this thread if nobody has yet
+    public static SoundData sound(String name) {
+        return lookup(SOUNDS, name, () -> loadSound(name), false).join();
+    }
+
+    // Start loading the given assets on background threads. Names ending in .wav are sounds, the rest images.
+    // The returned future completes once all of them are loaded
+    public static CompletableFuture<Void> preloadAsync(String... names) {
+        List<CompletableFuture<?>> loads = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(".wav")) {
+                loads.add(lookup(SOUNDS, name, () -> loadSound(name), true));
+            } else {
+                loads.add(lookup(IMAGES, name, () -> loadImage(name), true));
+            }
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Once the image is loaded, scale it into the shared sprite cache on a background thread as well, so the
+    // first frame that draws it at this size finds it ready
+    public static CompletableFuture<BufferedImage> prescaleAsync(String name, int width, int height,
+                                                                 int transparency) {
+        return lookup(IMAGES, name, () -> loadImage(name), true).thenApplyAsync(
+                icon -> SpriteCache.getShared().get(icon.getImage(), width, height, transparency), LOADER);
+    }
+
+    // Return the future for an asset, starting its load if this is the first request for it
+    private static <T> CompletableFuture<T> lookup(ConcurrentHashMap<String, CompletableFuture<T>> assets,
+                                                   String name, Supplier<T> loader, boolean async) {
+        CompletableFuture<T> existing = assets.get(name);
+        if (existing != null) {
+            HITS.incrementAndGet();
+            return existing;
+        }
+        CompletableFuture<T> created = new CompletableFuture<>();
+        existing = assets.putIfAbsent(name, created);
+        if (existing != null) { // Another thread asked for it at the same time
+            HITS.incrementAndGet();
+            return existing;
+        }
+        MISSES.incrementAndGet();
+        Runnable load = () -> {
+            try {
+                created.complete(loader.get());
+            } catch (RuntimeException e) {
+                created.completeExceptionally(e);
+            }
+        };
+        if (async) {
+            LOADER.execute(load);
+        } else {
+            load.run();
+        }
+        return created;
+    }
+
+    private static ImageIcon loadImage(String name) {
+        ImageIcon icon = new RealImage(name).loadImage();
+        BYTES_RESIDENT.addAndGet(4L * Math.max(0, icon.getIconWidth()) * Math.max(0, icon.getIconHeight()));
+        return icon;
+    }
+
+    private static SoundData loadSound(String name) {
+        try {
+            SoundData sound = SoundData.load(name);
+            BYTES_RESIDENT.addAndGet(sound.getData().length);
+            return sound;
+        } catch (IOException | UnsupportedAudioFileException e) {
+            throw new IllegalStateException("Could not load sound " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static long getBytesResident() {
+        return BYTES_RESIDENT.get();
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+// AudioMixer class plays every sound of the game through one SourceDataLine that stays open for the whole session.
+// Sounds are decoded once into 16 bit stereo samples; play() only puts the sound's id on a lock-free queue, and a
+// dedicated audio thread mixes all playing voices into small blocks and writes them to the line. Sounds can
+// overlap freely and the game threads never wait for the sound system.
+// Latency from play() to the sound leaving the line's buffer is recorded, and so are buffer underruns
+class AudioMixer {
+    static final float SAMPLE_RATE = 44100;
+    static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = 256; // Frames mixed per block, about 5.8 ms
+    private static final int BUFFER_BLOCKS = 4; // Line buffer size in blocks, which bounds the latency
+    private static final int MAX_VOICES = 32; // Oldest voice is cut when more sounds play at once
+    private static final int QUEUE_SIZE = 256; // Power of two
+
+    private final List<short[]> sounds = new ArrayList<>(); // Decoded sounds, interleaved stereo
+    private final SourceDataLine line; // Null when there is no audio device
+    private Thread thread;
+    private volatile boolean running;
+
+    // Bounded multi-producer queue of play commands (sound id and time of the call), after D. Vyukov:
+    // a slot is free for the producer holding ticket n while its sequence is n, and full while it is n + 1
+    private final AtomicLongArray sequences = new AtomicLongArray(QUEUE_SIZE);
+    private final int[] queuedSounds = new int[QUEUE_SIZE];
+    private final long[] queuedTimes = new long[QUEUE_SIZE];
+    private final AtomicLong tail = new AtomicLong(); // Next ticket for producers
+    private long head; // Next ticket to consume, only touched by the audio thread
+
+    // Voices being played, only touched by the audio thread
+    private final short[][] voiceSamples = new short[MAX_VOICES][];
+    private final int[] voicePositions = new int[MAX_VOICES];
+    private final long[] voiceStarts = new long[MAX_VOICES]; // Block the voice started in, to find the oldest
+    private long blocks;
+
+    private final int[] mix = new int[BLOCK_FRAMES * CHANNELS];
+    private final byte[] out = new byte[BLOCK_FRAMES * CHANNELS * 2];
+
+    private final LatencyHistogram latency = new LatencyHistogram(); // play() until the sound is heard, written by the audio thread
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong(); // Commands lost because the queue was full
+
+    private AudioMixer(SourceDataLine line) {
+        this.line = line;
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Open the default audio device. Without one the mixer still loads sounds but plays nothing
+    public static AudioMixer open() {
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+        try {
+            SourceDataLine line = AudioSystem.getSourceDataLine(format);
+            line.open(format, BLOCK_FRAMES * BUFFER_BLOCKS * format.getFrameSize());
+            return new AudioMixer(line);
+        } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+            System.out.println("No audio device, playing without sound: " + e.getMessage());
+            return new AudioMixer(null);
+        }
+    }
+
+    // Decode the sound with the given file name (through the asset registry) and return its id for play()
+    public synchronized int load(String fileName) {
+        short[] samples;
+        try {
+            samples = convert(AssetRegistry.sound(fileName));
+        } catch (RuntimeException e) {
+            System.out.println("Error loading sound " + fileName + ": " + e.getMessage());
+            samples = new short[0];
+        }
+        sounds.add(samples);
+        return sounds.size() - 1;
+    }
+
+    // Start the audio thread
+    public void start() {
+        if (line == null || running) {
+            return;
+        }
+        running = true;
+        line.start();
+        thread = new Thread(this::mixLoop, "audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // Play the sound with the given id on top of whatever is playing. Never blocks, any thread may call it
+    public void play(int sound) {
+        if (line == null || sound < 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long ticket = tail.get();
+            int slot = (int) (ticket & (QUEUE_SIZE - 1));
+            long sequence = sequences.get(slot);
+            if (sequence == ticket) {
+                if (tail.compareAndSet(ticket, ticket + 1)) {
+                    queuedSounds[slot] = sound;
+                    queuedTimes[slot] = now;
+                    sequences.set(slot, ticket + 1); // Publish the command to the audio thread
+                    return;
+                }
+            } else if (sequence < ticket) { // Full, the audio thread is far behind
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void mixLoop() {
+        int bufferBytes = line.getBufferSize();
+        int frameBytes = CHANNELS * 2;
+        while (running) {
+            // The line running dry before this block arrives is an underrun, the listener hears a gap
+            if (blocks > 0 && line.available() >= bufferBytes) {
+                underruns.incrementAndGet();
+            }
+            long queuedNanos = (long) ((bufferBytes - line.available()) / frameBytes * 1e9 / SAMPLE_RATE);
+            startQueuedVoices(queuedNanos);
+            mixBlock();
+            line.write(out, 0, out.length); // Blocks while the line is full, which paces the thread
+            blocks++;
+        }
+        line.drain();
+        line.stop();
+        line.close();
+    }
+
+    // Take every waiting command off the queue and start its voice
+    private void startQueuedVoices(long queuedNanos) {
+        long now = System.nanoTime();
+        while (true) {
+            int slot = (int) (head & (QUEUE_SIZE - 1));
+            if (sequences.get(slot) != head + 1) {
+                return;
+            }
+            int sound = queuedSounds[slot];
+            long time = queuedTimes[slot];
+            sequences.set(slot, head + QUEUE_SIZE); // Hand the slot back to the producers
+            head++;
+
+            // The voice is heard once the audio already in the line has played
+            latency.record(now - time + queuedNanos);
+            startVoice(sound);
+        }
+    }
+
+    private void startVoice(int sound) {
+        short[] samples;
+        synchronized (this) {
+            samples = sound < sounds.size() ? sounds.get(sound) : null;
+        }
+        if (samples == null || samples.length == 0) {
+            return;
+        }
+        int voice = 0;
+        for (int i = 0; i < MAX_VOICES; i++) {
+            if (voiceSamples[i] == null) {
+                voice = i;
+                break;
+            }
+            if (voiceStarts[i] < voiceStarts[voice]) { // All busy, take the oldest
+                voice = i;
+            }
+        }
+        voiceSamples[voice] = samples;
+        voicePositions[voice] = 0;
+        voiceStarts[voice] = blocks;
+    }
+
+    // Add up all voices for one block, clip the sum to 16 bits and write it little-endian into out
+    private void mixBlock() {
+        Arrays.fill(mix, 0);
+        for (int v = 0; v < MAX_VOICES; v++) {
+            short[] samples = voiceSamples[v];
+            if (samples == null) {
+                continue;
+            }
+            int position = voicePositions[v];
+            int count = Math.min(mix.length, samples.length - position);
+            for (int i = 0; i < count; i++) {
+                mix[i] += samples[position + i];
+            }
+            position += count;
+            if (position >= samples.length) {
+                voiceSamples[v] = null;
+            } else {
+                voicePositions[v] = position;
+            }
+        }
+        for (int i = 0; i < mix.length; i++) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            out[2 * i] = (byte) sample;
+            out[2 * i + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    // Convert decoded PCM of any rate, channel count and 8 or 16 bit size to interleaved stereo at the mixer's rate
+    static short[] convert(SoundData sound) {
+        AudioFormat format = sound.getFormat();
+        byte[] data = sound.getData();
+        int channels = format.getChannels();
+        int bytesPerSample = format.getSampleSizeInBits() / 8;
+        if (channels < 1 || (bytesPerSample != 1 && bytesPerSample != 2)) {
+            throw new IllegalArgumentException("Unsupported sound format " + format);
+        }
+        int frameBytes = channels * bytesPerSample;
+        int frames = data.length / frameBytes;
+        float rate = format.getSampleRate() > 0 ? format.getSampleRate() : SAMPLE_RATE;
+        double step = rate / SAMPLE_RATE; // Source frames per output frame
+        int outFrames = (int) (frames / step);
+        short[] samples = new short[outFrames * CHANNELS];
+        for (int f = 0; f < outFrames; f++) {
+            double position = f * step;
+            int first = (int) position;
+            int second = Math.min(first + 1, frames - 1);
+            double weight = position - first;
+            for (int c = 0; c < CHANNELS; c++) {
+                int source = Math.min(c, channels - 1); // Mono goes to both sides
+                double a = sampleAt(data, first * frameBytes + source * bytesPerSample, bytesPerSample, format.isBigEndian());
+                double b = sampleAt(data, second * frameBytes + source * bytesPerSample, bytesPerSample, format.isBigEndian());
+                samples[f * CHANNELS + c] = (short) Math.round(a + (b - a) * weight);
+            }
+        }
+        return samples;
+    }
+
+    private static int sampleAt(byte[] data, int offset, int bytesPerSample, boolean bigEndian) {
+        if (bytesPerSample == 1) {
+            return data[offset] << 8;
+        }
+        return bigEndian
+                ? (data[offset] << 8) | (data[offset + 1] & 0xFF)
+                : (data[offset + 1] << 8) | (data[offset] & 0xFF);
+    }
+
+    // True when sounds actually reach an audio device
+    public boolean isAvailable() {
+        return line != null;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // Longest time a sound can wait before it is heard, if the audio thread keeps up: a full line buffer plus one block
+    public long getLatencyBoundNanos() {
+        return (long) ((BUFFER_BLOCKS + 1) * BLOCK_FRAMES * 1e9 / SAMPLE_RATE);
+    }
+
+    // Play a few overlapping sounds and print the latency, e.g. to check an audio setup
+    public static void main(String[] args) {
+        AudioMixer mixer = open();
+        int chirp = mixer.load("chirp.wav");
+        int dang = mixer.load("dang.wav");
+        mixer.start();
+        for (int i = 0; i < 20; i++) {
+            mixer.play(i % 5 == 4 ? dang : chirp);
+            LockSupport.parkNanos(150_000_000L);
+        }
+        LockSupport.parkNanos(500_000_000L);
+        System.out.println("Audio device: " + (mixer.isAvailable() ? "yes" : "no"));
+        System.out.println("Latency: " + mixer.getLatency().summary()
+                + String.format(" (bound %.1fms)", mixer.getLatencyBoundNanos() / 1e6));
+        System.out.println("Underruns: " + mixer.getUnderruns() + ", dropped: " + mixer.getDropped());
+    }
+}
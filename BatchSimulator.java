@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
+
+// InputPolicy interface decides every tick whether the bird should jump, looking only at the world
+interface InputPolicy {
+    public boolean shouldJump(World world);
+}
+
+// BatchResult class holds the outcome of a batch of games and builds the reports from it
+class BatchResult {
+    private final int[] scores; // Points scored in each game
+    private final long[] survivalTicks; // Ticks each game lasted
+    private final long elapsedNanos; // Wall time the whole batch took
+
+    public BatchResult(int[] scores, long[] survivalTicks, long elapsedNanos) {
+        this.scores = scores;
+        this.survivalTicks = survivalTicks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getGames() {
+        return scores.length;
+    }
+
+    public int[] getScores() {
+        return scores;
+    }
+
+    public long[] getSurvivalTicks() {
+        return survivalTicks;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getTotalTicks() {
+        long total = 0;
+        for (long ticks : survivalTicks) {
+            total += ticks;
+        }
+        return total;
+    }
+
+    // Simulated ticks per second of wall time, over all threads
+    public double getTicksPerSecond() {
+        return getTotalTicks() * 1e9 / Math.max(1, elapsedNanos);
+    }
+
+    public double getMeanScore() {
+        long total = 0;
+        for (int score : scores) {
+            total += score;
+        }
+        return (double) total / Math.max(1, scores.length);
+    }
+
+    // Score below which the given fraction of games fall, e.g. 0.5 for the median
+    public int getScorePercentile(double fraction) {
+        if (scores.length == 0) {
+            return 0;
+        }
+        int[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    // Number of games that ended with each score, index = score
+    public int[] getScoreDistribution() {
+        int max = 0;
+        for (int score : scores) {
+            max = Math.max(max, score);
+        }
+        int[] counts = new int[max + 1];
+        for (int score : scores) {
+            counts[score]++;
+        }
+        return counts;
+    }
+
+    // Number of games that survived for each whole-seconds bucket of the given size
+    public int[] getSurvivalHistogram(int bucketSeconds) {
+        long bucketTicks = Math.max(1, bucketSeconds * 1000L / World.TICK_MILLIS);
+        long max = 0;
+        for (long ticks : survivalTicks) {
+            max = Math.max(max, ticks);
+        }
+        int[] counts = new int[(int) (max / bucketTicks) + 1];
+        for (long ticks : survivalTicks) {
+            counts[(int) (ticks / bucketTicks)]++;
+        }
+        return counts;
+    }
+
+    // Human readable report with the score distribution, survival histogram and throughput
+    public String report(int bucketSeconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("games: %d  mean score: %.2f  p50: %d  p90: %d  p99: %d  max: %d%n",
+                getGames(), getMeanScore(), getScorePercentile(0.5), getScorePercentile(0.9),
+                getScorePercentile(0.99), getScorePercentile(1.0)));
+        sb.append(String.format("ticks: %d  wall time: %.3f s  throughput: %.0f ticks/s%n",
+                getTotalTicks(), elapsedNanos / 1e9, getTicksPerSecond()));
+
+        sb.append("score distribution:").append(System.lineSeparator());
+        int[] distribution = getScoreDistribution();
+        for (int score = 0; score < distribution.length; score++) {
+            if (distribution[score] > 0) {
+                sb.append(String.format("  %5d  %d%n", score, distribution[score]));
+            }
+        }
+
+        sb.append("survival time (s):").append(System.lineSeparator());
+        int[] histogram = getSurvivalHistogram(bucketSeconds);
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] > 0) {
+                sb.append(String.format("  %5d-%-5d  %d%n", i * bucketSeconds, (i + 1) * bucketSeconds, histogram[i]));
+            }
+        }
+        return sb.toString();
+    }
+}
+
+// BatchSimulator class plays many independent, seeded games in parallel to measure how a difficulty curve plays out.
+// Every game has its own World and its own policy instance, so no state is shared between threads
+class BatchSimulator {
+    private final int width; // Size of every simulated world
+    private final int height;
+    private final int threads;
+    private final long maxTicks; // Games still running after this many ticks are stopped, so perfect policies end
+
+    public BatchSimulator(int width, int height, int threads, long maxTicks) {
+        this.width = width;
+        this.height = height;
+        this.threads = threads;
+        this.maxTicks = maxTicks;
+    }
+
+    // Play the given number of games, game i on the course seeded with baseSeed + i.
+    // A new policy is made for every game from that game's seed, so random policies stay reproducible
+    public BatchResult run(int games, long baseSeed, LongFunction<? extends InputPolicy> policies) {
+        int[] scores = new int[games];
+        long[] survivalTicks = new long[games];
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            pool.submit(() -> IntStream.range(0, games).parallel().forEach(i -> {
+                World world = new World(width, height, baseSeed + i);
+                playGame(world, policies.apply(baseSeed + i));
+                scores[i] = world.getTubeColumn().getPoints();
+                survivalTicks[i] = world.getTicks();
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return new BatchResult(scores, survivalTicks, System.nanoTime() - start);
+    }
+
+    private void playGame(World world, InputPolicy policy) {
+        while (!world.isGameOver() && world.getTicks() < maxTicks) {
+            world.step(policy.shouldJump(world));
+        }
+    }
+
+    // Log every game of the batch as a run of the given skin, game i on the course seeded with baseSeed + i
+    public static void saveScores(BatchResult result, long baseSeed, int skin, ScoreStore store)
+            throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < result.getGames(); i++) {
+            store.submitWaiting(new ScoreRecord(baseSeed + i, skin, result.getScores()[i],
+                    result.getSurvivalTicks()[i], now));
+        }
+    }
+
+    // Run a batch from the command line: games, threads, seed, and a score store directory to log the games to
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        String scoreDirectory = args.length > 3 ? args[3] : null;
+
+        // Simple example policy: jump when the bird drops below the middle of the next gap,
+        // but react late now and then like a human player would
+        LongFunction<InputPolicy> policy = gameSeed -> {
+            Random random = new Random(gameSeed);
+            return world -> {
+                Bird bird = world.getBird();
+                int gapMiddle = (world.getGapTop() + world.getGapBottom()) / 2;
+                return bird.getY() + bird.getHeight() > gapMiddle && bird.getDy() >= 0
+                        && random.nextInt(100) < 60;
+            };
+        };
+
+        BatchSimulator simulator = new BatchSimulator(1920, 1080, threads, 40_000);
+        BatchResult result = simulator.run(games, seed, policy);
+        System.out.print(result.report(10));
+        if (scoreDirectory != null) {
+            try (ScoreStore store = ScoreStore.open(Paths.get(scoreDirectory), false)) {
+                saveScores(result, seed, -1, store); // -1: no bird skin, a simulated run
+                store.awaitWritten();
+                System.out.println("Best simulated runs: " + store.topForSkin(-1, 3));
+            }
+        }
+    }
+}
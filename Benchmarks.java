@@ -0,0 +1,384 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// BenchmarkResult class holds the timings of one benchmark run with one set of parameters
+class BenchmarkResult {
+    private final String name;
+    private final Map<String, String> params;
+    private final double[] nsPerOp; // Average time per operation of every measured iteration
+    private final double bytesPerOp; // Bytes allocated per operation over all measured iterations
+
+    public BenchmarkResult(String name, Map<String, String> params, double[] nsPerOp, double bytesPerOp) {
+        this.name = name;
+        this.params = params;
+        this.nsPerOp = nsPerOp;
+        this.bytesPerOp = bytesPerOp;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public double getBytesPerOp() {
+        return bytesPerOp;
+    }
+
+    public double getMean() {
+        double sum = 0;
+        for (double value : nsPerOp) {
+            sum += value;
+        }
+        return sum / nsPerOp.length;
+    }
+
+    // Half width of a ~99% confidence interval around the mean
+    public double getError() {
+        if (nsPerOp.length < 2) {
+            return Double.NaN;
+        }
+        double mean = getMean();
+        double squares = 0;
+        for (double value : nsPerOp) {
+            squares += (value - mean) * (value - mean);
+        }
+        double stddev = Math.sqrt(squares / (nsPerOp.length - 1));
+        return 2.58 * stddev / Math.sqrt(nsPerOp.length);
+    }
+
+    // Same layout as JMH's JSON output, so the usual JMH tooling can read the numbers
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("  {\n");
+        sb.append("    \"benchmark\": \"").append(name).append("\",\n");
+        sb.append("    \"mode\": \"avgt\",\n");
+        sb.append("    \"params\": {");
+        String separator = "";
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            sb.append(separator).append('"').append(param.getKey()).append("\": \"").append(param.getValue()).append('"');
+            separator = ", ";
+        }
+        sb.append("},\n");
+        sb.append("    \"primaryMetric\": {\n");
+        sb.append(String.format(Locale.ROOT, "      \"score\": %.3f,%n", getMean()));
+        sb.append(String.format(Locale.ROOT, "      \"scoreError\": %s,%n",
+                Double.isNaN(getError()) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", getError())));
+        sb.append("      \"scoreUnit\": \"ns/op\",\n");
+        sb.append("      \"rawData\": [[");
+        for (int i = 0; i < nsPerOp.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.3f", nsPerOp[i]));
+        }
+        sb.append("]]\n");
+        sb.append("    },\n");
+        sb.append("    \"secondaryMetrics\": {\n");
+        sb.append("      \"gc.alloc.rate.norm\": {");
+        sb.append(String.format(Locale.ROOT, "\"score\": %.3f, \"scoreUnit\": \"B/op\"}%n", bytesPerOp));
+        sb.append("    }\n");
+        sb.append("  }");
+        return sb.toString();
+    }
+}
+
+// Benchmarks class is a small JMH-style harness for the hot paths of the game: every benchmark is calibrated,
+// warmed up and then timed over several iterations, and the results can be written as JMH-compatible JSON.
+// Usage: java Benchmarks [--quick] [--json=results.json] [name filter]
+class Benchmarks {
+    private static final String[] RESOLUTIONS = {"1280x720", "1920x1080", "3840x2160"};
+    private static final int[] TUBE_COUNTS = {2, 16, 128, 1024};
+    private static volatile long sink; // Benchmarks write their results here so the JIT cannot drop the work
+
+    // Body interface is one benchmark: run the operation the given number of times and return any value
+    interface Body {
+        public long run(long ops);
+    }
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationNanos; // Target length of one iteration
+    private final String filter;
+    private final List<BenchmarkResult> results = new ArrayList<>();
+
+    public Benchmarks(int warmupIterations, int measureIterations, long iterationNanos, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationNanos = iterationNanos;
+        this.filter = filter;
+    }
+
+    // Calibrate, warm up and time one benchmark
+    public void bench(String name, Map<String, String> params, Body body) {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        // Double the operation count until one call takes a noticeable time, then scale it to the iteration length
+        long ops = 1;
+        while (true) {
+            long start = System.nanoTime();
+            sink += body.run(ops);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > iterationNanos / 10 || ops > (1L << 40)) {
+                ops = Math.max(1, (long) ((double) ops * iterationNanos / Math.max(1, elapsed)));
+                break;
+            }
+            ops *= 2;
+        }
+
+        for (int i = 0; i < warmupIterations; i++) {
+            sink += body.run(ops);
+        }
+
+        double[] nsPerOp = new double[measureIterations];
+        long allocated = 0;
+        for (int i = 0; i < measureIterations; i++) {
+            long bytesBefore = AllocationCounter.allocatedBytes();
+            long start = System.nanoTime();
+            sink += body.run(ops);
+            nsPerOp[i] = (double) (System.nanoTime() - start) / ops;
+            allocated += AllocationCounter.allocatedBytes() - bytesBefore;
+        }
+
+        BenchmarkResult result = new BenchmarkResult(name, params, nsPerOp,
+                (double) allocated / ((double) ops * measureIterations));
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-24s %-32s %14.3f +- %10.3f ns/op %10.1f B/op%n",
+                name, params, result.getMean(), result.getError(), result.getBytesPerOp());
+    }
+
+    public List<BenchmarkResult> getResults() {
+        return results;
+    }
+
+    // Write all results as a JSON array
+    public void writeJson(String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                out.print(results.get(i).toJson());
+                out.println(i < results.size() - 1 ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    private static Map<String, String> params(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static int widthOf(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    private static int heightOf(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    // A list of tubes spread evenly over the width of the world
+    private static List<Tube> spreadTubes(int count, int width, int height) {
+        List<Tube> tubes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int x = (int) ((long) width * i / count);
+            boolean top = i % 2 == 0;
+            tubes.add(new Tube(x, top ? 0 : height * 2 / 3, width / 12, height / 3));
+        }
+        return tubes;
+    }
+
+    public void runAll() {
+        bench("Bird.tick", params(), ops -> {
+            Bird bird = new Bird(960, 540, World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, 1920, 1080);
+            long sum = 0;
+            for (long i = 0; i < ops; i++) {
+                if ((i & 31) == 0) {
+                    bird.jump();
+                }
+                bird.tick();
+                sum += bird.getY();
+            }
+            return sum;
+        });
+
+        for (String resolution : RESOLUTIONS) {
+            int width = widthOf(resolution);
+            int height = heightOf(resolution);
+            TubeColumn tubeColumn = new TubeColumn(width, height, new java.util.Random(1));
+
+            bench("TubeColumn.tick", params("resolution", resolution), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    tubeColumn.tick();
+                }
+                return tubeColumn.getPoints();
+            });
+
+            bench("TubeColumn.initTubes", params("resolution", resolution), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    tubeColumn.initTubes();
+                }
+                return tubeColumn.getTubes().get(0).getHeight();
+            });
+
+            // Making a chunk of the course on the spot, what a world does when it outruns the prefetching
+            CourseGenerator course = CourseGenerator.forWorld(width, height,
+                    World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, 1);
+            int[] gaps = new int[CourseGenerator.CHUNK_COLUMNS];
+            CourseRandom courseRandom = new CourseRandom(0);
+            bench("CourseGenerator.generate", params("resolution", resolution), ops -> {
+                long sum = 0;
+                for (long i = 0; i < ops; i++) {
+                    course.generate(1, i, gaps, courseRandom);
+                    sum += gaps[0];
+                }
+                return sum;
+            });
+
+            World world = new World(width, height, 1);
+            bench("World.step", params("resolution", resolution), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    if (world.isGameOver()) {
+                        world.reset(world.getSeed() + 1);
+                    }
+                    Bird bird = world.getBird();
+                    world.step(bird.getY() + bird.getHeight() > world.getGapBottom() - 20 && bird.getDy() >= 0);
+                }
+                return world.getTicks();
+            });
+
+            // What a search ahead costs: copying a running world and stepping the copy
+            World copy = new World(width, height, 0);
+            bench("World.copyFrom", params("resolution", resolution), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    copy.copyFrom(world);
+                }
+                return copy.getTicks();
+            });
+
+            World planned = new World(width, height, 1);
+            PlannerBot planner = new PlannerBot();
+            bench("PlannerBot.shouldJump", params("resolution", resolution), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    if (planned.isGameOver()) {
+                        planned.reset(planned.getSeed() + 1);
+                    }
+                    planned.step(planner.shouldJump(planned));
+                }
+                return planned.getTicks();
+            });
+        }
+
+        for (int tubes : TUBE_COUNTS) {
+            World world = new World(1920, 1080, 1);
+            world.getTubeColumn().setTubes(spreadTubes(tubes, 1920, 1080));
+            bench("World.checkCollision", params("tubes", String.valueOf(tubes)), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    world.checkCollision();
+                }
+                return world.isGameOver() ? 1 : 0;
+            });
+        }
+
+        Image tubeImage = new ProxyImage("TubeBody.png").loadImage().getImage();
+        for (String resolution : RESOLUTIONS) {
+            int width = widthOf(resolution);
+            int height = heightOf(resolution);
+            BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+            for (int tubes : TUBE_COUNTS) {
+                TubeColumn tubeColumn = new TubeColumn(width, height, new java.util.Random(1));
+                tubeColumn.setTubes(spreadTubes(tubes, width, height));
+                tubeColumn.setTubeImage(tubeImage);
+                bench("TubeColumn.render", params("resolution", resolution, "tubes", String.valueOf(tubes)), ops -> {
+                    Graphics2D g = frame.createGraphics();
+                    for (long i = 0; i < ops; i++) {
+                        tubeColumn.render(g, null);
+                    }
+                    g.dispose();
+                    return frame.getRGB(0, 0);
+                });
+            }
+
+            // Game reads the screen size from Window, so set it before creating the game
+            Window.WIDTH = width;
+            Window.HEIGHT = height;
+            Game game = new Game();
+            game.stopTimer(); // The benchmark paints a frozen running game
+            game.restartGame();
+            for (RenderQuality quality : RenderQuality.values()) {
+                game.setRenderQuality(quality); // Fixed, so the governor does not change it while it is timed
+                bench("Game.paint", quality == RenderQuality.NATIVE ? params("resolution", resolution)
+                        : params("resolution", resolution, "quality", quality.name().toLowerCase(Locale.ROOT)), ops -> {
+                    for (long i = 0; i < ops; i++) {
+                        game.paint(frame.createGraphics()); // paint disposes the graphics it is given
+                    }
+                    return frame.getRGB(0, 0);
+                });
+            }
+
+            // Moving the selection on the bird selection screen, painted whole and then only where it changed
+            Game menu = new Game();
+            menu.stopTimer();
+            menu.showBirdSelection();
+            bench("Game.paintMenu", params("resolution", resolution, "clip", "full"), ops -> {
+                for (long i = 0; i < ops; i++) {
+                    menu.selectNextBird();
+                    menu.paint(frame.createGraphics());
+                }
+                return frame.getRGB(0, 0);
+            });
+            bench("Game.paintMenu", params("resolution", resolution, "clip", "dirty"), ops -> {
+                long area = 0;
+                for (long i = 0; i < ops; i++) {
+                    menu.selectNextBird();
+                    DirtyRegion changed = menu.findChanges();
+                    area += changed.getArea();
+                    Graphics2D g = frame.createGraphics();
+                    g.clipRect(changed.getX(), changed.getY(), changed.getWidth(), changed.getHeight());
+                    menu.paint(g); // Like Swing painting the rectangle given to repaint
+                }
+                return area;
+            });
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String json = null;
+        String filter = null;
+        boolean quick = false;
+        for (String arg : args) {
+            if (arg.startsWith("--json=")) {
+                json = arg.substring("--json=".length());
+            } else if (arg.equals("--quick")) {
+                quick = true;
+            } else {
+                filter = arg;
+            }
+        }
+
+        Benchmarks benchmarks = quick
+                ? new Benchmarks(1, 3, 100_000_000L, filter)
+                : new Benchmarks(5, 10, 500_000_000L, filter);
+        benchmarks.runAll();
+        if (json != null) {
+            benchmarks.writeJson(json);
+            System.out.println("Results written to " + json);
+        }
+        System.exit(0); // The games created for the paint benchmarks keep the event thread alive
+    }
+}
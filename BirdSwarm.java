@@ -0,0 +1,312 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// BirdSwarm class simulates a huge number of birds flying the same tube course, e.g. for population training
+// or battle royale modes. Instead of one Bird object per bird the state lives in three int arrays, so one tick
+// is a tight loop over plain arrays that the JIT can unroll and vectorize.
+// The physics are those of Bird.tick and Bird.jump in 16.16 fixed point instead of double: integer arithmetic
+// written with masks instead of branches is what C2 turns into vector instructions. A swarm bird given the same
+// jumps as a World bird flies the same path until the rounding of gravity moves one of them a pixel before the
+// other; main measures how often that happens, about once in a million ticks
+class BirdSwarm {
+    private static final int CHUNK_SIZE = 16384; // Birds per task when ticking in parallel
+    static final int DY_SHIFT = 16; // dy holds falling speeds in 1/65536 pixels per tick
+    private static final int JUMP = 1; // state of a live bird that jumps on the next tick
+
+    private final int count; // Number of birds in the swarm
+    private final int worldHeight;
+    private final int birdX; // All birds fly at the same x position, like Bird
+    private final int birdWidth;
+    private final int birdHeight;
+    private final TubeColumn tubeColumn; // The course all birds share
+
+    private final int[] y; // Top edge of every bird
+    private final int[] dy; // Falling speed of every bird in fixed point
+    // 0 or JUMP while a bird is alive, after it crashed the complement of its score shifted left one bit, so a dead
+    // bird's state is negative and never has the JUMP bit
+    private final int[] state;
+
+    private long ticks;
+    private double difficultyFactor = 1.0;
+    private int aliveCount;
+
+    // Worked out once per tick by prepareTick, the same for every bird
+    private int jumpPower;
+    private int gravity;
+    private int maxFallSpeed;
+    private int safeTop; // A bird whose whole path this tick stays in [safeTop, safeBottom] hit no tube
+    private int safeBottom;
+    private boolean swept; // The tubes only overlap the birds' column for part of the tick, test every bird fully
+
+    public BirdSwarm(int count, int worldWidth, int worldHeight, int birdWidth, int birdHeight, long seed) {
+        this.count = count;
+        this.worldHeight = worldHeight;
+        this.birdWidth = birdWidth;
+        this.birdHeight = birdHeight;
+        this.birdX = worldWidth / 2 - birdWidth; // Same start position as Bird
+        this.tubeColumn = new TubeColumn(worldWidth, worldHeight,
+                CourseGenerator.forWorld(worldWidth, worldHeight, birdWidth, birdHeight, 1), seed, 1);
+        this.y = new int[count];
+        this.dy = new int[count];
+        this.state = new int[count];
+
+        int startY = worldHeight / 2 - birdHeight;
+        for (int i = 0; i < count; i++) {
+            y[i] = startY;
+            dy[i] = 1 << DY_SHIFT; // Start with slow falling speed
+        }
+        this.aliveCount = count;
+    }
+
+    // Ask the bird with the given index to jump on the next tick
+    public void jump(int index) {
+        if (state[index] >= 0) {
+            state[index] = JUMP;
+        }
+    }
+
+    // Take the bird with the given index out of the game, as if it crashed now, e.g. when its player leaves
+    public void kill(int index) {
+        if (state[index] >= 0) {
+            state[index] = deadState(tubeColumn.getPoints());
+            aliveCount--;
+        }
+    }
+
+    private static int deadState(int score) {
+        return ~score << 1;
+    }
+
+    // Advance every bird and the shared course by one tick on the calling thread
+    public void tick() {
+        prepareTick();
+        aliveCount = swept ? sweptRange(0, count) : tickRange(0, count);
+    }
+
+    // Advance every bird and the shared course by one tick, splitting the birds over the pool
+    public void tick(ForkJoinPool pool) {
+        prepareTick();
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        try {
+            aliveCount = pool.submit(() -> IntStream.range(0, chunks).parallel()
+                    .map(chunk -> {
+                        int from = chunk * CHUNK_SIZE;
+                        int to = Math.min(count, from + CHUNK_SIZE);
+                        return swept ? sweptRange(from, to) : tickRange(from, to);
+                    })
+                    .sum()).get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Swarm tick failed", e);
+        }
+    }
+
+    // Work shared by all birds: difficulty, the course and where in it a bird is safe this tick.
+    // Like World the jump power is based on the difficulty before it is updated
+    private void prepareTick() {
+        jumpPower = toFixed(Bird.jumpPower(difficultyFactor));
+        difficultyFactor = World.difficultyAt(ticks);
+        tubeColumn.setDifficultyFactor(difficultyFactor);
+        tubeColumn.tick(); // Birds do not affect the course, so it can move before them
+        ticks++;
+        gravity = toFixed(Bird.gravity(difficultyFactor));
+        maxFallSpeed = toFixed(4 * difficultyFactor);
+
+        // The tubes of the one column move sideways only. If they overlap the birds' column for none of the tick
+        // nobody can hit them; if they overlap it for all of it, CollisionSystem.sweptHit comes down to whether
+        // the bird's path leaves the gap at any height. The top tube starts at the top of the world and the bottom
+        // one reaches below the floor, so there is nowhere else a bird is safe. Only in the tick or two a column
+        // enters or leaves the birds' column does every bird need the full swept test
+        Tube topTube = tubeColumn.getTubes().get(0);
+        Tube bottomTube = tubeColumn.getTubes().get(1);
+        int left = Math.min(topTube.getPrevX(), topTube.getX());
+        int right = Math.max(topTube.getPrevX(), topTube.getX()) + topTube.getWidth();
+        int floor = worldHeight - 50;
+        swept = false;
+        if (right <= birdX || left >= birdX + birdWidth) {
+            safeTop = 0;
+            safeBottom = floor;
+        } else if (birdX < left + topTube.getWidth() && right - topTube.getWidth() < birdX + birdWidth
+                && topTube.getY() <= 0 && bottomTube.getY() + bottomTube.getHeight() >= worldHeight) {
+            safeTop = topTube.getHeight() > 0 ? topTube.getY() + topTube.getHeight() : 0;
+            safeBottom = bottomTube.getHeight() > 0 ? bottomTube.getY() - birdHeight : floor;
+        } else {
+            swept = true;
+        }
+    }
+
+    private static int toFixed(double value) {
+        return (int) Math.round(value * (1 << DY_SHIFT));
+    }
+
+    // Move the birds in [from, to) and check them against the safe heights, return how many are still alive.
+    // Every choice is a mask, so the loop has no branch and C2 vectorizes it, as long as the body stays about this
+    // short: a longer one is unrolled too little for that (LoopUnrollLimit) and runs ten times slower. A dead bird
+    // gets no gravity and keeps the speed it crashed with but does not move by it, and is never counted again
+    private int tickRange(int from, int to) {
+        int jumpPower = this.jumpPower;
+        int gravity = this.gravity;
+        int maxFallSpeed = this.maxFallSpeed;
+        int safeTop = this.safeTop;
+        int safeBottom = this.safeBottom;
+        int floor = worldHeight - 50;
+        int dead = deadState(tubeColumn.getPoints());
+
+        int stillAlive = 0;
+        for (int i = from; i < to; i++) {
+            int s = state[i];
+            int aliveMask = ~(s >> 31);
+            int speed = dy[i];
+            int jumped = (speed & (speed >> 31)) - jumpPower; // Math.min(speed, 0) - jumpPower
+            speed ^= (speed ^ jumped) & -(s & JUMP);
+            speed += gravity & aliveMask & ((speed - maxFallSpeed) >> 31); // Only below the top fall speed
+            int oldY = y[i];
+            int newY = ((oldY << DY_SHIFT) + (speed & aliveMask)) >> DY_SHIFT;
+            newY &= ~(newY >> 31); // Not above 0
+            newY -= (newY - floor) & ~((newY - floor) >> 31); // Not below the floor
+            int crashed = ((oldY - safeTop) | (safeBottom - oldY) | (newY - safeTop) | (safeBottom - newY)) >> 31
+                    & aliveMask;
+            dy[i] = speed;
+            y[i] = newY;
+            state[i] = (s & ~JUMP) | (crashed & dead);
+            stillAlive += aliveMask & ~crashed & 1;
+        }
+        return stillAlive;
+    }
+
+    // Same as tickRange, with every bird tested along its whole path like in World
+    private int sweptRange(int from, int to) {
+        int floor = worldHeight - 50;
+        int dead = deadState(tubeColumn.getPoints());
+        Tube topTube = tubeColumn.getTubes().get(0);
+        Tube bottomTube = tubeColumn.getTubes().get(1);
+        int stillAlive = 0;
+        for (int i = from; i < to; i++) {
+            int s = state[i];
+            if (s < 0) { // Dead birds are frozen where they crashed
+                continue;
+            }
+            int speed = dy[i];
+            speed = s == JUMP ? Math.min(speed, 0) - jumpPower : speed;
+            speed = speed < maxFallSpeed ? speed + gravity : speed;
+            int oldY = y[i];
+            int newY = Math.max(0, Math.min(floor, ((oldY << DY_SHIFT) + speed) >> DY_SHIFT));
+            y[i] = newY;
+            dy[i] = speed;
+            if (!hits(topTube, oldY, newY) && !hits(bottomTube, oldY, newY)) {
+                state[i] = 0;
+                stillAlive++;
+            } else {
+                state[i] = dead;
+            }
+        }
+        return stillAlive;
+    }
+
+    // Swept test of one bird against a tube, the same as World does it
+    private boolean hits(Tube tube, int oldY, int newY) {
+        return CollisionSystem.sweptHit(birdX, oldY, birdX, newY, birdWidth, birdHeight,
+                tube.getPrevX(), tube.getPrevY(), tube.getX(), tube.getY(), tube.getWidth(), tube.getHeight());
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getAliveCount() {
+        return aliveCount;
+    }
+
+    public int getY(int index) {
+        return y[index];
+    }
+
+    public double getDy(int index) {
+        return (double) dy[index] / (1 << DY_SHIFT);
+    }
+
+    public boolean isAlive(int index) {
+        return state[index] >= 0;
+    }
+
+    public int getScore(int index) {
+        int s = state[index];
+        return s >= 0 ? tubeColumn.getPoints() : ~(s >> 1);
+    }
+
+    public int getBirdX() {
+        return birdX;
+    }
+
+    public TubeColumn getTubeColumn() {
+        return tubeColumn;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    // Time swarm ticks from the command line: birds, ticks, threads. Then fly a few birds next to World birds
+    // given the same jumps and report how far the fixed point speeds let them drift apart
+    public static void main(String[] args) {
+        int birds = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        BirdSwarm swarm = new BirdSwarm(birds, 1920, 1080, World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, 0);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        LatencyHistogram tickTimes = new LatencyHistogram();
+        for (int t = 0; t < ticks; t++) {
+            // Every bird flaps when it drops below its own target height inside the gap
+            Tube bottomTube = swarm.getTubeColumn().getTubes().get(1);
+            int gapBottom = bottomTube.getY() - World.DEFAULT_BIRD_SIZE;
+            for (int i = 0; i < birds; i++) {
+                if (swarm.getY(i) > gapBottom - (i & 63) && swarm.dy[i] >= 0) {
+                    swarm.jump(i);
+                }
+            }
+            long start = System.nanoTime();
+            if (threads > 1) {
+                swarm.tick(pool);
+            } else {
+                swarm.tick();
+            }
+            if (t >= ticks / 10) { // The first ticks run before C2 compiled the loop
+                tickTimes.record(System.nanoTime() - start);
+            }
+        }
+        pool.shutdown();
+        // The median, the few ticks a column enters or leaves the birds' column take the scalar swept test
+        double msPerCore = tickTimes.getValueAtPercentile(50) / 1e6 * threads;
+        System.out.printf("%d birds, %d threads: %.3f ms per tick after warming up, %d alive after %d ticks%n",
+                birds, threads, tickTimes.getMean() / 1e6, swarm.getAliveCount(), ticks);
+        System.out.println("Tick time: " + tickTimes.summary());
+        System.out.printf("%.3f ms of one core per million birds in a median tick, the target of 1 ms is %s%n",
+                msPerCore * 1e6 / birds, msPerCore * 1e6 / birds < 1 ? "met" : "missed");
+
+        // Same jumps for a swarm bird and a World bird, until either crashes or they are a pixel apart
+        int pairs = 64;
+        long pairTicks = 0;
+        int drifted = 0;
+        for (int p = 0; p < pairs; p++) {
+            BirdSwarm one = new BirdSwarm(1, 1920, 1080, World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, p);
+            World world = new World(1920, 1080, p);
+            while (!world.isGameOver() && one.isAlive(0) && world.getTicks() < 40_000) {
+                Bird bird = world.getBird();
+                boolean jump = bird.getY() + bird.getHeight() > world.getGapBottom() - 10 - p % 40
+                        && bird.getDy() >= 0;
+                if (jump) {
+                    one.jump(0);
+                }
+                world.step(jump);
+                one.tick();
+                pairTicks++;
+                if (one.getY(0) != world.getBird().getY()) {
+                    drifted++;
+                    break;
+                }
+            }
+        }
+        System.out.printf("%d of %d swarm birds drifted a pixel from their World bird, %.0f ticks flown per drift%n",
+                drifted, pairs, (double) pairTicks / Math.max(1, drifted));
+    }
+}
@@ -0,0 +1,112 @@
+// GapFollowerBot class jumps whenever the bird falls below the middle of the next gap. Cheap and surprisingly good
+class GapFollowerBot implements IStrategy {
+    @Override
+    public boolean shouldJump(World world) {
+        Bird bird = world.getBird();
+        int gapMiddle = (world.getGapTop() + world.getGapBottom()) / 2;
+        return bird.getY() + bird.getHeight() > gapMiddle && bird.getDy() >= 0;
+    }
+}
+
+// LookaheadBot class plays both choices forward with the bird's own physics, each followed by gap following,
+// and jumps only when that does better than waiting. It sees the next column only
+class LookaheadBot implements IStrategy {
+    private static final int HORIZON = 45; // Ticks played forward for each choice
+
+    @Override
+    public boolean shouldJump(World world) {
+        return rollout(world, true) > rollout(world, false);
+    }
+
+    // How well the bird does over the horizon: ticks survived, then closeness to the middle of the gap
+    private static double rollout(World world, boolean jumpFirst) {
+        Bird bird = world.getBird();
+        double difficulty = world.getDifficultyFactor();
+        double gravity = Bird.gravity(difficulty);
+        double jumpPower = Bird.jumpPower(difficulty);
+        int birdX = bird.getX();
+        int width = bird.getWidth();
+        int height = bird.getHeight();
+        int gapTop = world.getGapTop();
+        int gapBottom = world.getGapBottom();
+        Tube tube = world.getNextTube();
+        int tubeX = tube.getX();
+        int tubeWidth = tube.getWidth();
+        // Once past the column, the next gap is still unknown, so head for the middle of the screen
+        int gapMiddle = tubeX + tubeWidth < birdX ? world.getHeight() / 2 : (gapTop + gapBottom) / 2;
+        int tubeDx = (int) tube.getDx();
+        int floor = world.getHeight() - 50;
+
+        int y = bird.getY();
+        double dy = bird.getDy();
+        for (int t = 0; t < HORIZON; t++) {
+            boolean jump = t == 0 ? jumpFirst : y + height > gapMiddle && dy >= 0;
+            if (jump) { // Same as Bird.jump
+                if (dy > 0) {
+                    dy = 0;
+                }
+                dy -= jumpPower;
+            }
+            if (dy < 4 * difficulty) { // Same as Bird.tick
+                dy += gravity;
+            }
+            y += dy;
+            y = Math.max(0, Math.min(floor, y));
+            tubeX -= tubeDx;
+
+            boolean overlapsColumn = birdX < tubeX + tubeWidth && tubeX < birdX + width;
+            if (overlapsColumn && (y < gapTop || y + height > gapBottom)) {
+                return t;
+            }
+        }
+        return HORIZON + 1.0 - Math.abs(y + height - gapMiddle) / (double) world.getHeight();
+    }
+}
+
+// LearnedBot class plays with a Q table trained on the vectorized environment
+class LearnedBot implements IStrategy {
+    private final QLearner learner; // Shared between bots, only read here
+    private final float[] obs = new float[VectorEnv.OBS_SIZE];
+
+    public LearnedBot(QLearner learner) {
+        this.learner = learner;
+    }
+
+    @Override
+    public boolean shouldJump(World world) {
+        VectorEnv.observe(world, obs, 0);
+        return learner.greedy(QLearner.state(obs, 0)) == VectorEnv.JUMP;
+    }
+
+    // Train a learner on 256 games for the given number of steps
+    public static QLearner train(long steps, long seed) {
+        VectorEnv env = new VectorEnv(256, 1920, 1080, 20_000, 1);
+        QLearner learner = new QLearner(0.1f, 0.99f, seed);
+        learner.train(env, steps, seed);
+        env.close();
+        return learner;
+    }
+}
+
+// Bots class makes the bots by name, for the command line
+class Bots {
+    static final String[] NAMES = {"gap", "lookahead", "planner", "learned"};
+
+    private Bots() {
+    }
+
+    public static IStrategy create(String name) {
+        switch (name) {
+            case "gap":
+                return new GapFollowerBot();
+            case "lookahead":
+                return new LookaheadBot();
+            case "planner":
+                return new PlannerBot();
+            case "learned":
+                return new LearnedBot(LearnedBot.train(20_000, 0));
+            default:
+                throw new IllegalArgumentException("Unknown bot " + name + ", expected one of gap, lookahead, planner, learned");
+        }
+    }
+}
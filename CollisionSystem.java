@@ -0,0 +1,227 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// CollisionSystem class finds out whether a moving object hit any tube during the last tick.
+// Every object is tested along the whole path it moved since its last savePosition(), not just where it ended up,
+// so nothing tunnels through a thin tube however far it moves in one tick (swept AABB test).
+// To stay fast with hundreds of tubes, the tubes are kept sorted by the left edge of the area they swept
+// (sort and sweep): a query only looks at the few tubes whose swept area can reach the object's
+class CollisionSystem {
+    private List<Tube> tubes; // The tubes indexed by the last update
+    private int size;
+    private int[] order = new int[16]; // Tube indices, sorted by the left edge of their swept area
+    private int[] left = new int[16]; // Left edge of the swept area, in sorted order
+    private int maxSweptWidth; // Widest swept area, bounds how far left of a query a candidate can start
+
+    // Index the tubes' movement of the last tick. Tubes keep their order from tick to tick, so the insertion
+    // sort is a single linear pass unless tubes were added or moved around
+    public void update(List<Tube> tubes) {
+        int n = tubes.size();
+        if (tubes != this.tubes || n != size) {
+            if (order.length < n) {
+                order = new int[Math.max(n, order.length * 2)];
+                left = new int[order.length];
+            }
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            this.tubes = tubes;
+            this.size = n;
+        }
+        maxSweptWidth = 0;
+        for (int k = 0; k < n; k++) {
+            Tube tube = tubes.get(order[k]);
+            int minX = Math.min(tube.getPrevX(), tube.getX());
+            int maxX = Math.max(tube.getPrevX(), tube.getX()) + tube.getWidth();
+            left[k] = minX;
+            if (maxX - minX > maxSweptWidth) {
+                maxSweptWidth = maxX - minX;
+            }
+        }
+        for (int k = 1; k < n; k++) {
+            int key = left[k];
+            int index = order[k];
+            int j = k - 1;
+            while (j >= 0 && left[j] > key) {
+                left[j + 1] = left[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            left[j + 1] = key;
+            order[j + 1] = index;
+        }
+    }
+
+    // True if the object hit any of the indexed tubes while moving during the last tick
+    public boolean collides(GameObject mover) {
+        int minX = Math.min(mover.getPrevX(), mover.getX());
+        int maxX = Math.max(mover.getPrevX(), mover.getX()) + mover.getWidth();
+        // First candidate that could reach right of minX, every later one starts further right
+        int k = firstLeftAbove(minX - maxSweptWidth);
+        for (; k < size && left[k] < maxX; k++) {
+            if (sweptHit(mover, tubes.get(order[k]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Index of the first sorted tube whose swept area starts right of x
+    private int firstLeftAbove(int x) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (left[middle] > x) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    // Swept test of two objects moving from their saved to their current positions
+    public static boolean sweptHit(GameObject a, GameObject b) {
+        return sweptHit(a.getPrevX(), a.getPrevY(), a.getX(), a.getY(), a.getWidth(), a.getHeight(),
+                b.getPrevX(), b.getPrevY(), b.getX(), b.getY(), b.getWidth(), b.getHeight());
+    }
+
+    // True if box a, moving in a straight line from (ax0, ay0) to (ax1, ay1), overlaps box b, moving from
+    // (bx0, by0) to (bx1, by1), at any moment of the tick. Touching edges do not count, like Rectangle.intersects,
+    // so at the end of the tick this is the same test as GameObject.intersects
+    public static boolean sweptHit(int ax0, int ay0, int ax1, int ay1, int aWidth, int aHeight,
+                                   int bx0, int by0, int bx1, int by1, int bWidth, int bHeight) {
+        if (aWidth <= 0 || aHeight <= 0 || bWidth <= 0 || bHeight <= 0) {
+            return false;
+        }
+        // Move in b's frame: a's offset from b goes from r0 to r0 + d, overlapping while -aSize < offset < bSize
+        double enterX = enterTime(ax0 - bx0, (ax1 - ax0) - (bx1 - bx0), aWidth, bWidth);
+        double exitX = exitTime(ax0 - bx0, (ax1 - ax0) - (bx1 - bx0), aWidth, bWidth);
+        double enterY = enterTime(ay0 - by0, (ay1 - ay0) - (by1 - by0), aHeight, bHeight);
+        double exitY = exitTime(ay0 - by0, (ay1 - ay0) - (by1 - by0), aHeight, bHeight);
+        double enter = Math.max(enterX, enterY);
+        double exit = Math.min(exitX, exitY);
+        return enter < exit && enter < 1 && exit > 0;
+    }
+
+    // Start of the open time interval in which the offset is inside (-aSize, bSize)
+    private static double enterTime(int offset, int delta, int aSize, int bSize) {
+        if (delta == 0) {
+            return offset > -aSize && offset < bSize ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        return delta > 0 ? (double) (-aSize - offset) / delta : (double) (bSize - offset) / delta;
+    }
+
+    // End of the open time interval in which the offset is inside (-aSize, bSize)
+    private static double exitTime(int offset, int delta, int aSize, int bSize) {
+        if (delta == 0) {
+            return offset > -aSize && offset < bSize ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        }
+        return delta > 0 ? (double) (bSize - offset) / delta : (double) (-aSize - offset) / delta;
+    }
+
+    // The repository has no test suite, so this checks the collision system from the command line and exits
+    // with status 1 on any failure: no tunnelling at extreme speeds, and the broadphase finds exactly what
+    // testing every tube finds
+    public static void main(String[] args) {
+        int failures = 0;
+
+        // A 2 px wide tube crossing a still bird at up to 1,000,000 px per tick must always hit,
+        // even though neither end position overlaps
+        Bird bird = new Bird(500, 500, 51, 51, 1920, 1080);
+        for (int speed = 128; speed <= 1_000_000; speed *= 2) {
+            Tube tube = new Tube(bird.getX() + bird.getWidth() + speed / 2, 0, 2, 1080);
+            tube.savePosition();
+            tube.setX(tube.getX() - speed);
+            if (tube.intersects(bird) || !sweptHit(bird, tube)) {
+                System.out.println("Tunnelled through a moving tube at " + speed + " px/tick");
+                failures++;
+            }
+            // The same tube passing over the bird's head must not hit
+            Tube above = new Tube(tube.getPrevX(), 0, 2, bird.getY());
+            above.savePosition();
+            above.setX(above.getX() - speed);
+            if (sweptHit(bird, above)) {
+                System.out.println("False hit above the bird at " + speed + " px/tick");
+                failures++;
+            }
+        }
+
+        // A bird falling through a 1 px thick tube at up to 1,000,000 px per tick must always hit
+        for (int speed = 128; speed <= 1_000_000; speed *= 2) {
+            Tube floor = new Tube(0, 100 + speed / 2, 1920, 1);
+            Bird falling = new Bird(500, 100, 51, 51, 1920, Integer.MAX_VALUE);
+            falling.savePosition();
+            falling.setY(falling.getY() + speed);
+            if (falling.intersects(floor) || !sweptHit(falling, floor)) {
+                System.out.println("Tunnelled through a thin tube falling at " + speed + " px/tick");
+                failures++;
+            }
+        }
+
+        // Random tubes and movers: the broadphase must agree with testing every tube
+        Random random = new Random(1);
+        CollisionSystem system = new CollisionSystem();
+        for (int round = 0; round < 2000; round++) {
+            List<Tube> tubes = new ArrayList<>();
+            int count = 1 + random.nextInt(300);
+            for (int i = 0; i < count; i++) {
+                Tube tube = new Tube(random.nextInt(20000), random.nextInt(1080), 1 + random.nextInt(200),
+                        1 + random.nextInt(400));
+                tube.savePosition();
+                tube.setX(tube.getX() - random.nextInt(round % 2 == 0 ? 20 : 5000)); // Normal and extreme speeds
+                tubes.add(tube);
+            }
+            system.update(tubes);
+            for (int m = 0; m < 50; m++) {
+                Bird mover = new Bird(random.nextInt(20000), random.nextInt(1080), 51, 51, 100000, 100000);
+                mover.savePosition();
+                mover.setY(mover.getY() + random.nextInt(2001) - 1000);
+                boolean expected = false;
+                for (Tube tube : tubes) {
+                    expected |= sweptHit(mover, tube);
+                }
+                if (system.collides(mover) != expected) {
+                    System.out.println("Broadphase disagrees with testing every tube in round " + round);
+                    failures++;
+                }
+            }
+        }
+
+        // Hundreds of columns: the query only tests the tubes near the bird, what grows with the number of tubes
+        // is the linear pass of update(), which is far cheaper than a swept test of every tube
+        for (int columns : new int[] {10, 100, 1000}) {
+            List<Tube> tubes = new ArrayList<>();
+            for (int i = 0; i < columns; i++) {
+                tubes.add(new Tube(i * 200, 0, 100, 400));
+                tubes.add(new Tube(i * 200, 700, 100, 380));
+            }
+            Bird query = new Bird(columns * 100, 540, 51, 51, Integer.MAX_VALUE, 1080);
+            long hits = 0;
+            int ticks = 20000;
+            long start = System.nanoTime();
+            for (int t = 0; t < ticks; t++) {
+                system.update(tubes);
+                hits += system.collides(query) ? 1 : 0;
+            }
+            double indexed = (System.nanoTime() - start) / (double) ticks;
+            start = System.nanoTime();
+            for (int t = 0; t < ticks; t++) {
+                for (int i = 0; i < tubes.size(); i++) {
+                    if (sweptHit(query, tubes.get(i))) {
+                        hits++;
+                        break;
+                    }
+                }
+            }
+            double everyTube = (System.nanoTime() - start) / (double) ticks;
+            System.out.printf("%4d columns: %.0f ns per tick indexed, %.0f ns testing every tube (%d hits)%n",
+                    columns, indexed, everyTube, hits);
+        }
+
+        System.out.println(failures == 0 ? "All collision checks passed" : failures + " collision checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
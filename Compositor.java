@@ -0,0 +1,203 @@
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+// Compositor class draws the layers of a frame that hardly ever change from cached images. The background is kept in
+// a VolatileImage, which the graphics card holds, so drawing it is a copy on the card instead of 33 MB pushed
+// through the CPU on a 4K screen. Video memory can be taken away at any time (mode switch, another full screen
+// program), so the image is checked before every frame and filled again from the sprite when it was lost.
+// Frames drawn into a plain image (benchmarks, recording) use the sprite: reading a VolatileImage back is slow
+class Compositor {
+    private VolatileImage background;
+    private BufferedImage backgroundSprite; // The background scaled to the screen, the source of the volatile copy
+    private long backgroundRestores; // Times the volatile background had to be filled again
+
+    // Draw the background scaled to the given size at the top left corner
+    public void drawBackground(Graphics2D g, Image source, int width, int height) {
+        if (backgroundSprite == null || backgroundSprite.getWidth() != width || backgroundSprite.getHeight() != height) {
+            backgroundSprite = SpriteCache.getShared().get(source, width, height, Transparency.OPAQUE);
+        }
+        GraphicsConfiguration config = g.getDeviceConfiguration();
+        if (config == null || config.getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN
+                || GraphicsEnvironment.isHeadless()) {
+            g.drawImage(backgroundSprite, 0, 0, null);
+            return;
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (background == null || background.getWidth() != width || background.getHeight() != height) {
+                background = config.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+                restoreBackground();
+            }
+            int state = background.validate(config);
+            if (state == VolatileImage.IMAGE_INCOMPATIBLE) { // Moved to another screen
+                background = config.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+                restoreBackground();
+            } else if (state == VolatileImage.IMAGE_RESTORED) {
+                restoreBackground();
+            }
+            g.drawImage(background, 0, 0, null);
+            if (!background.contentsLost()) {
+                return;
+            }
+        }
+        g.drawImage(backgroundSprite, 0, 0, null); // Lost twice in a row, video memory is short right now
+    }
+
+    private void restoreBackground() {
+        Graphics2D g = background.createGraphics();
+        g.drawImage(backgroundSprite, 0, 0, null);
+        g.dispose();
+        backgroundRestores++;
+    }
+
+    public long getBackgroundRestores() {
+        return backgroundRestores;
+    }
+}
+
+// TextLayer class is one line of text drawn once into a translucent image and then copied onto every frame, so the
+// glyphs are only rasterized again when the text changes, e.g. once per tube for the score
+class TextLayer {
+    private final Font font;
+    private final Color color;
+    private String text;
+    private double scale = 1.0; // Scale the text was last drawn at, the font is that much smaller
+    private BufferedImage image;
+    private int ascent; // Distance from the top of the image to the baseline
+    private long renders;
+
+    public TextLayer(Font font, Color color) {
+        this.font = font;
+        this.color = color;
+    }
+
+    // Draw the text with its baseline at y, like Graphics.drawString
+    public void draw(Graphics2D g, String text, int x, int y) {
+        draw(g, text, x, y, 1.0);
+    }
+
+    // Same, into a frame drawn at the given fraction of the screen resolution: the text is rasterized with a font
+    // that much smaller and drawn at the scaled position, only again when the text or the scale change
+    public void draw(Graphics2D g, String text, int x, int y, double scale) {
+        if (scale != this.scale) {
+            this.scale = scale;
+            this.text = null;
+        }
+        setText(text);
+        g.drawImage(image, (int) Math.round(x * scale), (int) Math.round(y * scale) - ascent, null);
+    }
+
+    // Make the image for the given text now, e.g. to know its size before drawing it
+    public void setText(String text) {
+        if (!text.equals(this.text)) {
+            render(text);
+        }
+    }
+
+    private void render(String text) {
+        Font font = scale == 1.0 ? this.font : this.font.deriveFont((float) (this.font.getSize2D() * scale));
+        FontMetrics metrics = measure(font);
+        int width = Math.max(1, metrics.stringWidth(text));
+        int height = Math.max(1, metrics.getAscent() + metrics.getDescent());
+        if (image == null || image.getWidth() < width || image.getHeight() < height) {
+            // Some room to grow, so a score going from 9 to 10 does not need a new image
+            image = new BufferedImage(width + width / 4, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setComposite(AlphaComposite.SrcOver); // Same rendering hints as the screen, so it looks like drawString
+        g.setFont(font);
+        g.setColor(color);
+        g.drawString(text, 0, metrics.getAscent());
+        g.dispose();
+        this.ascent = metrics.getAscent();
+        this.text = text;
+        renders++;
+    }
+
+    private FontMetrics measure(Font font) {
+        BufferedImage scratch = image != null ? image : new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = scratch.createGraphics();
+        FontMetrics metrics = g.getFontMetrics(font);
+        g.dispose();
+        return metrics;
+    }
+
+    // Bounds of the text drawn with its baseline at y, as of the last draw; empty before the first
+    public int getWidth() {
+        return image == null ? 0 : image.getWidth();
+    }
+
+    public int getHeight() {
+        return image == null ? 0 : image.getHeight();
+    }
+
+    public int getAscent() {
+        return ascent;
+    }
+
+    public long getRenders() {
+        return renders;
+    }
+}
+
+// DirtyRegion class collects the parts of the screen that changed since the last frame as one bounding rectangle,
+// which is what Swing repaints anyway when given several
+class DirtyRegion {
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxY = Integer.MIN_VALUE;
+
+    public void add(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x + width);
+        maxY = Math.max(maxY, y + height);
+    }
+
+    public boolean isEmpty() {
+        return maxX < minX;
+    }
+
+    public void clear() {
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+    }
+
+    public int getX() {
+        return minX;
+    }
+
+    public int getY() {
+        return minY;
+    }
+
+    public int getWidth() {
+        return maxX - minX;
+    }
+
+    public int getHeight() {
+        return maxY - minY;
+    }
+
+    // Pixels inside the region
+    public long getArea() {
+        return isEmpty() ? 0 : (long) getWidth() * getHeight();
+    }
+}
@@ -0,0 +1,413 @@
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// CourseChunk class is a stretch of CHUNK_COLUMNS gaps of one course. It never changes once made,
+// so any number of worlds and threads can read it at the same time
+class CourseChunk {
+    final long seed;
+    final long index; // Position of the chunk in the course, chunk 0 holds columns 0 to CHUNK_COLUMNS - 1
+    final int[] gapTops; // Top edge of every gap, i.e. the height of every top tube. Never written once made
+
+    CourseChunk(long seed, long index, int[] gapTops) {
+        this.seed = seed;
+        this.index = index;
+        this.gapTops = gapTops;
+    }
+
+    public int gapTop(int column) {
+        return gapTops[column];
+    }
+
+    public int size() {
+        return gapTops.length;
+    }
+}
+
+// CourseGenerator class makes the gaps of seeded courses for one world size, bird size and column count.
+// A course is cut into chunks that are generated independently from (seed, chunk index), so any chunk can be
+// made on its own, ahead of time on a background thread, and kept in an LRU cache that every world on the
+// same course shares: a daily challenge seed is generated once and then served to every run at once.
+//
+// Every gap can be reached from the one before it with the bird's real physics (Bird.tick and Bird.jump),
+// whatever the difficulty: the distances are worked out once for every difficulty level at top tube speed,
+// widest tubes and narrowest gap, and the smallest ones are used. Chunks are joined at a centred gap, the
+// gaps before it are kept close enough to get back there in time.
+//
+// Looking up a cached chunk and asking for a prefetch allocate nothing, so a world crossing into a new chunk
+// stays off the garbage collector: lookups go through a reused probe key, and prefetch requests are copied
+// into a fixed ring that one background thread works through
+class CourseGenerator {
+    static final int CHUNK_COLUMNS = 64;
+    private static final int CACHE_CHUNKS = 256; // Chunks kept per generator, about 64 KB
+    private static final int JUMP_INTERVAL = 10; // Fastest tapping the climb is worked out for, in ticks
+    private static final double MAX_TUBE_SPEED = 6.5; // Speed cap of TubeColumn
+
+    private static final int QUEUE_SIZE = 64; // Prefetch requests waiting at most, later ones are dropped
+
+    private static final Map<String, CourseGenerator> SHARED = new ConcurrentHashMap<>();
+
+    // Prefetch requests shared by all generators, guarded by the QUEUE lock
+    private static final Object QUEUE = new Object();
+    private static final CourseGenerator[] queuedGenerators = new CourseGenerator[QUEUE_SIZE];
+    private static final long[] queuedSeeds = new long[QUEUE_SIZE];
+    private static final long[] queuedIndices = new long[QUEUE_SIZE];
+    private static int queueHead; // Slot of the oldest request
+    private static int queueSize;
+    private static long queueDone; // Requests taken off the ring and finished
+    private static long queueAdded;
+    private static Thread worker; // Started with the first request
+
+    // ChunkKey class is the cache key of a chunk: the course seed and the chunk index.
+    // Only the generator's probe key is ever changed, keys in the cache never are
+    private static final class ChunkKey {
+        long seed;
+        long index;
+
+        ChunkKey(long seed, long index) {
+            this.seed = seed;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ChunkKey && ((ChunkKey) o).seed == seed && ((ChunkKey) o).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(seed * 31 + index);
+        }
+    }
+
+    private final int minTop; // Range TubeColumn has always drawn gap tops from
+    private final int maxTop;
+    private final int centre; // Gap every chunk starts from and ends with
+    private final int maxDrop; // How much lower a gap may be than the one before it
+    private final int maxRise; // How much higher a gap may be than the one before it
+
+    private final LinkedHashMap<ChunkKey, CourseChunk> cache = new LinkedHashMap<>(CACHE_CHUNKS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ChunkKey, CourseChunk> eldest) {
+            return size() > CACHE_CHUNKS;
+        }
+    };
+    private final ChunkKey probe = new ChunkKey(0, 0); // Reused for lookups, guarded by the cache lock
+    private long hits;
+    private long misses; // Lookups of chunks that were not cached
+    private long prefetched; // Chunks made on the background thread
+
+    public CourseGenerator(int worldWidth, int worldHeight, int birdWidth, int birdHeight, int columns) {
+        int baseGap = TubeColumn.baseGapSize(worldHeight);
+        this.minTop = 50;
+        this.maxTop = worldHeight - baseGap - 51;
+        this.centre = (minTop + maxTop) / 2;
+
+        int drop = Integer.MAX_VALUE;
+        int rise = Integer.MAX_VALUE;
+        for (int level = 0; level <= 7; level++) { // Every difficulty factor World can reach, 1.0 to 1.7
+            double difficulty = 1.0 + level * 0.1;
+            int gap = TubeColumn.gapSizeAt(worldHeight, difficulty);
+            int tubeWidth = TubeColumn.tubeWidthAt(worldWidth, difficulty);
+            int tubeSpeed = (int) (MAX_TUBE_SPEED * difficulty);
+            // Ticks from the bird leaving one column until it enters the next. With one column the next
+            // one appears at the right edge once the last has scrolled off, further than worldWidth / columns
+            int distance = worldWidth / columns - tubeWidth - birdWidth;
+            int ticks = Math.max(0, distance / tubeSpeed);
+            // The bird can leave a gap anywhere in it and enter the next one anywhere in it
+            int slack = gap - birdHeight;
+            drop = Math.min(drop, slack + fall(ticks, difficulty, birdWidth, birdHeight));
+            rise = Math.min(rise, slack + climb(ticks, difficulty, birdWidth, birdHeight));
+        }
+        this.maxDrop = Math.max(1, drop);
+        this.maxRise = Math.max(1, rise);
+    }
+
+    // The generator shared by every world of the given sizes
+    public static CourseGenerator forWorld(int worldWidth, int worldHeight, int birdWidth, int birdHeight, int columns) {
+        String key = worldWidth + "x" + worldHeight + "/" + birdWidth + "x" + birdHeight + "/" + columns;
+        return SHARED.computeIfAbsent(key, k -> new CourseGenerator(worldWidth, worldHeight, birdWidth, birdHeight, columns));
+    }
+
+    // Seed of the daily challenge, the same for every player on the same (UTC) day
+    public static long dailySeed(LocalDate date) {
+        return mix(date.toEpochDay() ^ 0x4461696C79L); // "Daily"
+    }
+
+    // How far a bird at rest falls in the given number of ticks without jumping
+    private static int fall(int ticks, double difficulty, int birdWidth, int birdHeight) {
+        Bird bird = new Bird(0, 1 << 20, birdWidth, birdHeight, 1, 1 << 30);
+        bird.setDifficultyFactor(difficulty);
+        bird.setDy(0);
+        int start = bird.getY();
+        for (int t = 0; t < ticks; t++) {
+            bird.tick();
+        }
+        return bird.getY() - start;
+    }
+
+    // How far a bird at rest climbs in the given number of ticks, jumping every JUMP_INTERVAL ticks
+    private static int climb(int ticks, double difficulty, int birdWidth, int birdHeight) {
+        Bird bird = new Bird(0, 1 << 20, birdWidth, birdHeight, 1, 1 << 30);
+        bird.setDifficultyFactor(difficulty);
+        bird.setDy(0);
+        int start = bird.getY();
+        for (int t = 0; t < ticks; t++) {
+            if (t % JUMP_INTERVAL == 0) {
+                bird.jump();
+            }
+            bird.tick();
+        }
+        return Math.max(0, start - bird.getY());
+    }
+
+    // The chunk with the given index of the course with the given seed, made on the calling thread
+    // if it is neither cached nor prefetched yet
+    public CourseChunk chunk(long seed, long index) {
+        CourseChunk chunk = cached(seed, index);
+        if (chunk != null) {
+            return chunk;
+        }
+        chunk = generate(seed, index);
+        synchronized (cache) {
+            cache.put(new ChunkKey(seed, index), chunk);
+        }
+        return chunk;
+    }
+
+    // The chunk if it is cached or null, without making it
+    public CourseChunk cached(long seed, long index) {
+        synchronized (cache) {
+            CourseChunk chunk = find(seed, index);
+            if (chunk != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return chunk;
+        }
+    }
+
+    // The cached chunk or null, the caller holds the cache lock
+    private CourseChunk find(long seed, long index) {
+        probe.seed = seed;
+        probe.index = index;
+        return cache.get(probe);
+    }
+
+    // Make the chunk on the background thread if it is not cached yet, so it is ready when a world gets there
+    public void prefetch(long seed, long index) {
+        synchronized (cache) {
+            if (find(seed, index) != null) {
+                return;
+            }
+        }
+        synchronized (QUEUE) {
+            if (queueSize == QUEUE_SIZE) { // Far behind, the world makes the chunk itself if it gets there
+                return;
+            }
+            int slot = (queueHead + queueSize) % QUEUE_SIZE;
+            queuedGenerators[slot] = this;
+            queuedSeeds[slot] = seed;
+            queuedIndices[slot] = index;
+            queueSize++;
+            queueAdded++;
+            if (worker == null) {
+                worker = new Thread(CourseGenerator::work, "Course generator");
+                worker.setDaemon(true);
+                worker.start();
+            }
+            QUEUE.notifyAll();
+        }
+    }
+
+    // Loop of the background thread: make every requested chunk that is not cached by then
+    private static void work() {
+        while (true) {
+            CourseGenerator generator;
+            long seed;
+            long index;
+            synchronized (QUEUE) {
+                while (queueSize == 0) {
+                    try {
+                        QUEUE.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                generator = queuedGenerators[queueHead];
+                seed = queuedSeeds[queueHead];
+                index = queuedIndices[queueHead];
+                queuedGenerators[queueHead] = null;
+                queueHead = (queueHead + 1) % QUEUE_SIZE;
+                queueSize--;
+            }
+            generator.prefetchNow(seed, index);
+            synchronized (QUEUE) {
+                queueDone++;
+                QUEUE.notifyAll();
+            }
+        }
+    }
+
+    private void prefetchNow(long seed, long index) {
+        synchronized (cache) {
+            if (find(seed, index) != null) {
+                return;
+            }
+        }
+        CourseChunk chunk = generate(seed, index);
+        synchronized (cache) {
+            cache.put(new ChunkKey(seed, index), chunk);
+            prefetched++;
+        }
+    }
+
+    // Wait until the background thread has finished every prefetch asked for so far
+    static void awaitPrefetches() throws InterruptedException {
+        synchronized (QUEUE) {
+            long target = queueAdded;
+            while (queueDone < target) {
+                QUEUE.wait();
+            }
+        }
+    }
+
+    // Make the gaps of one chunk from its own random sequence. The chunk starts after a centred gap and its
+    // last gap is centred again, every gap in between stays reachable from the one before it and close enough
+    // to the centre to get back there by the end of the chunk
+    CourseChunk generate(long seed, long index) {
+        int[] gapTops = new int[CHUNK_COLUMNS];
+        generate(seed, index, gapTops, new CourseRandom(0));
+        return new CourseChunk(seed, index, gapTops);
+    }
+
+    // Make the gaps of one chunk into the given array with the given random generator, allocating nothing
+    public void generate(long seed, long index, int[] gapTops, CourseRandom random) {
+        random.setSeed(mix(seed ^ mix(index))); // Not thread safe like Random, so no atomic update per number
+        int previous = centre;
+        for (int i = 0; i < CHUNK_COLUMNS - 1; i++) {
+            long remaining = CHUNK_COLUMNS - 1 - i; // Steps left to the centred gap that ends the chunk
+            int low = (int) Math.max(Math.max(minTop, previous - maxRise), centre - remaining * maxDrop);
+            int high = (int) Math.min(Math.min(maxTop, previous + maxDrop), centre + remaining * maxRise);
+            gapTops[i] = low + random.nextInt(high - low + 1);
+            previous = gapTops[i];
+        }
+        gapTops[CHUNK_COLUMNS - 1] = centre;
+    }
+
+    // Spread the bits of a number over the whole long (the finalizer of SplitMix64)
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // True if a bird can fly from a gap with the first top edge to one with the second
+    public boolean reachable(int fromTop, int toTop) {
+        return toTop - fromTop <= maxDrop && fromTop - toTop <= maxRise;
+    }
+
+    public int getMaxDrop() {
+        return maxDrop;
+    }
+
+    public int getMaxRise() {
+        return maxRise;
+    }
+
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public long getPrefetched() {
+        synchronized (cache) {
+            return prefetched;
+        }
+    }
+
+    // Checks 200 chunks of a seed on four screen and column setups: every gap in range and reachable from the one
+    // before, across chunk borders too, and the same gaps from a fresh generator. Then one daily seed per day,
+    // prefetched chunks served from the cache, and the cost of a generated against a cached chunk. Exits with 1
+    // when any check fails
+    public static void main(String[] args) throws InterruptedException {
+        int failures = 0;
+        int[][] setups = {{1920, 1080, 51, 51, 1}, {1920, 1080, 51, 51, 3}, {1280, 720, 51, 51, 5}, {800, 600, 40, 40, 8}};
+        for (int[] setup : setups) {
+            CourseGenerator generator = new CourseGenerator(setup[0], setup[1], setup[2], setup[3], setup[4]);
+            int previous = generator.centre;
+            for (long index = 0; index < 200; index++) {
+                CourseChunk chunk = generator.chunk(42, index);
+                for (int i = 0; i < chunk.size(); i++) {
+                    int top = chunk.gapTop(i);
+                    if (top < generator.minTop || top > generator.maxTop || !generator.reachable(previous, top)) {
+                        System.out.println("Unreachable or out of range gap " + top + " after " + previous
+                                + " in chunk " + index + " of " + java.util.Arrays.toString(setup));
+                        failures++;
+                    }
+                    previous = top;
+                }
+            }
+            CourseChunk again = new CourseGenerator(setup[0], setup[1], setup[2], setup[3], setup[4]).generate(42, 7);
+            for (int i = 0; i < again.size(); i++) {
+                if (again.gapTop(i) != generator.chunk(42, 7).gapTop(i)) {
+                    System.out.println("Same seed gave a different course for " + java.util.Arrays.toString(setup));
+                    failures++;
+                    break;
+                }
+            }
+            System.out.printf("%dx%d, %d columns: gaps may drop %d px and rise %d px from one column to the next%n",
+                    setup[0], setup[1], setup[4], generator.getMaxDrop(), generator.getMaxRise());
+        }
+
+        if (dailySeed(LocalDate.of(2026, 1, 1)) != dailySeed(LocalDate.of(2026, 1, 1))
+                || dailySeed(LocalDate.of(2026, 1, 1)) == dailySeed(LocalDate.of(2026, 1, 2))) {
+            System.out.println("Daily seeds are not one per day");
+            failures++;
+        }
+
+        // Generating a chunk against serving it from the cache
+        CourseGenerator generator = new CourseGenerator(1920, 1080, 51, 51, 3);
+        int rounds = 20000;
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink += generator.generate(i, i).gapTop(0);
+        }
+        double generateNanos = (System.nanoTime() - start) / (double) rounds;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink += generator.chunk(7, i % 64).gapTop(0);
+        }
+        double cachedNanos = (System.nanoTime() - start) / (double) rounds;
+        System.out.printf("Generating a chunk takes %.0f ns, a cached one %.0f ns (%d)%n",
+                generateNanos, cachedNanos, sink & 1);
+
+        // A prefetched chunk is ready before it is asked for
+        long daily = dailySeed(LocalDate.now());
+        generator.prefetch(daily, 0);
+        generator.prefetch(daily, 1);
+        awaitPrefetches();
+        long misses = generator.getMisses();
+        generator.chunk(daily, 0);
+        generator.chunk(daily, 1);
+        if (generator.getMisses() != misses) {
+            System.out.println("Prefetched chunks were not served from the cache");
+            failures++;
+        }
+        System.out.printf("%d cache hits, %d misses, %d chunks prefetched%n",
+                generator.getHits(), generator.getMisses(), generator.getPrefetched());
+
+        System.out.println(failures == 0 ? "All course checks passed" : failures + " course checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -3,67 +3,65 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.JPanel;
 import javax.swing.Timer;
+import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import javax.swing.ImageIcon;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import javax.sound.sampled.*;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 // Bird class is used to create a bird object in the game and to move it around the screen
 class Bird extends GameObject {
-    private ProxyImage proxyImage; // ProxyImage object used to load the image of the bird
-    private Tube[] tube; // Array of Tube objects used to create the walls in the game
-    private Clip chirpSound; // Sound for bird chirping
+    private AudioMixer audio; // Plays the chirp, null when running headless
+    private int chirpSound = -1; // Id of the chirp sound in the mixer
     private double difficultyFactor; // Factor to increase difficulty over time
-    private String birdImage; // Added variable to store bird image filename
+    private final int worldWidth; // Width of the world the bird is kept inside
+    private final int worldHeight; // Height of the world the bird is kept inside
+    private final int startX; // Where the bird starts, to put it back there for the next game
+    private final int startY;
 
-    // Modified constructor to accept bird image filename
-    public Bird(int x, int y, String birdImage){
+    // The bird's size is given explicitly so no image or sound has to be loaded to simulate it
+    public Bird(int x, int y, int width, int height, int worldWidth, int worldHeight) {
         super(x, y);
-        this.birdImage = birdImage; // Store the bird image filename
-        if(proxyImage == null) {
-            proxyImage = new ProxyImage(birdImage); // Use the provided image
-        }
-        this.image = proxyImage.loadImage().getImage();
-        this.width = image.getWidth(null); //Set the width and height of the bird
-        this.height = image.getHeight(null);
+        this.width = width; // Set the width and height of the bird
+        this.height = height;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
         this.x -= width; // Adjust the x position of the bird
         this.y -= height; // Adjust the y position of the bird
-        tube = new Tube[1]; // Create a new array of Tube objects
-        tube[0] = new Tube(Window.WIDTH, Window.HEIGHT - 60); // Create the first wall
+        this.startX = this.x;
+        this.startY = this.y;
         this.dy = 1; // Start with slow falling speed
         this.difficultyFactor = 1.0; // Start with normal difficulty
+    }
 
-        // Load chirp sound - direct file access
-        try {
-            File soundFile = new File("chirp.wav");
-            AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(soundFile);
-            chirpSound = AudioSystem.getClip();
-            chirpSound.open(audioInputStream);
-        } catch (Exception e) {
-            System.out.println("Error loading chirp sound: " + e.getMessage());
-            createSilentClip(chirpSound);
-        }
+    // Put the bird back where it started, as a new bird would be, keeping its image and sound
+    public void reset() {
+        this.x = startX;
+        this.y = startY;
+        this.dx = 0;
+        this.dy = 1;
+        this.difficultyFactor = 1.0;
+        savePosition();
     }
 
-    // Method to create a silent clip if sound loading fails
-    private void createSilentClip(Clip clip) {
-        try {
-            // Create a 0.1-second silent audio format
-            AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
-            byte[] silentData = new byte[4410]; // 0.1 second of silence
-            AudioInputStream ais = new AudioInputStream(
-                    new java.io.ByteArrayInputStream(silentData),
-                    format, silentData.length);
+    // Take over the position, speed and difficulty of another bird, e.g. to search ahead on a copy of the world
+    public void copyFrom(Bird other) {
+        super.copyFrom(other);
+        this.difficultyFactor = other.difficultyFactor;
+    }
 
-            clip = AudioSystem.getClip();
-            clip.open(ais);
-        } catch (Exception e) {
-            System.out.println("Failed to create silent clip: " + e.getMessage());
-        }
+    // Set the sound played when the bird jumps
+    public void setChirpSound(AudioMixer audio, int chirpSound) {
+        this.audio = audio;
+        this.chirpSound = chirpSound;
     }
 
     // Set the difficulty factor
@@ -71,17 +69,33 @@ class Bird extends GameObject {
         this.difficultyFactor = factor;
     }
 
+    // Gravity acceleration for a difficulty factor
+    public static double gravity(double difficultyFactor) {
+        double gravityEffect = 1.0 * difficultyFactor;
+        if(gravityEffect > 1.8) gravityEffect = 1.8; // Cap gravity effect
+        return gravityEffect;
+    }
+
+    // Jump power for a difficulty factor - harder modes need stronger jumps
+    public static double jumpPower(double difficultyFactor) {
+        double jumpPower = 12.0 * (0.9 + difficultyFactor * 0.1);
+
+        // Keeping jump power in reasonable range
+        if(jumpPower < 11) jumpPower = 11;
+        if(jumpPower > 14) jumpPower = 14;
+        return jumpPower;
+    }
+
     // Method used to move the bird
     public void tick() {
+        savePosition(); // Remember where the bird was, to draw it between ticks
         // Calculate gravity effect based on difficulty factor
-        double gravityEffect = 1.0 * difficultyFactor;
-        if(gravityEffect > 1.8) gravityEffect = 1.8; // Cap gravity effect
+        double gravityEffect = gravity(difficultyFactor);
 
         if(dy < 4 * difficultyFactor) { // Max fall speed increases with difficulty
             dy += gravityEffect; // Gravity acceleration increases with difficulty
         }
         this.y += dy; // Move the bird down the screen
-        tube[0].tick(); // Move the wall down the screen
         checkWindowBorder(); // Check if the bird has hit the top or bottom of the screen
     }
 
@@ -89,136 +103,306 @@ class Bird extends GameObject {
         if(dy > 0) { // If the speed of the bird is greater than 0
             dy = 0; // Set the speed of the bird to 0
         }
-        // Jump power adjusts slightly with difficulty - harder modes need stronger jumps
-        double jumpPower = 12.0 * (0.9 + difficultyFactor * 0.1);
-
-        // Keeping jump power in reasonable range
-        if(jumpPower < 11) jumpPower = 11;
-        if(jumpPower > 14) jumpPower = 14;
-
-        dy -= jumpPower;
+        // Jump power adjusts slightly with difficulty
+        dy -= jumpPower(difficultyFactor);
 
         // Play chirp sound when bird jumps
         playChirpSound();
     }
 
-    // Method to play the chirping sound
+    // Method to play the chirping sound, on top of any chirp still playing
     private void playChirpSound() {
-        if (chirpSound != null) {
-            if (chirpSound.isRunning()) {
-                chirpSound.stop();
-            }
-            chirpSound.setFramePosition(0);
-            chirpSound.start();
+        if (audio != null) {
+            audio.play(chirpSound);
         }
     }
 
     // Method used to check if the bird has hit the top or bottom of the screen
     private void checkWindowBorder() {
-        if(this.x > Window.WIDTH) { // If the bird has moved off the right side of the screen
-            this.x = Window.WIDTH; // Set the x position of the bird to the right side of the screen
+        if(this.x > worldWidth) { // If the bird has moved off the right side of the screen
+            this.x = worldWidth; // Set the x position of the bird to the right side of the screen
         }
         if(this.x < 0) { // If the bird has moved off the left side of the screen
             this.x = 0; // Set the x position of the bird to the left side of the screen
         }
-        if(this.y > Window.HEIGHT - 50) { // If the bird has moved off the bottom of the screen
-            this.y = Window.HEIGHT - 50; // Set the y position of the bird to the bottom of the screen
+        if(this.y > worldHeight - 50) { // If the bird has moved off the bottom of the screen
+            this.y = worldHeight - 50; // Set the y position of the bird to the bottom of the screen
         }
         if(this.y < 0) { // If the bird has moved off the top of the screen
             this.y = 0; // Set the y position of the bird to the top of the screen
         }
     }
 
-    // Method used to check if the bird has hit the wall
+    // Method used to draw the bird where it is after the last tick
     public void render(Graphics2D g, ImageObserver obs) {
-        g.drawImage(image, x, y, obs); // Draw the bird
-        tube[0].render(g, obs); // Draw the wall
-    }
-
-
-    public Rectangle getBounds() {
-        return new Rectangle(x, y, width, height);
+        g.drawImage(getSprite(), x, y, obs); // Draw the bird
     }
 }
 
-// Tube class is used to create a wall object in the game and to move it around the screen
+// Tube class is used to create a wall object in the game and to move it around the screen.
+// It streams the course: up to a configurable number of columns are on screen at a fixed spacing, a new column
+// (and its gap) is only made once there is room for it at the right edge, and the tubes of columns that scrolled
+// off are kept in a pool for the next ones, so a run of any length uses the same few Tube objects.
+// The gaps come from a CourseGenerator, which makes them a chunk at a time ahead of the bird, or from a plain
+// random generator, one gap per column
 class TubeColumn {
-    private int base = Window.HEIGHT - 60;
+    private final int worldWidth; // Width of the world the tubes scroll through
+    private final int worldHeight; // Height of the world the tubes scroll through
+    private int columns; // Columns on screen at most
+    private int spacing; // Distance between the left edges of two columns
     private int gapSize;  // Size of the gap between tubes
     private int gapPosition;  // Position of the gap (y-coordinate)
 
-    private List<Tube> tubes;
-    private Random random;
+    private List<Tube> tubes; // Top and bottom tube of every column, from left to right
+    private final List<Tube> pool; // Tubes of columns that scrolled off, ready for reuse
+    private Random random; // Draws the gaps when there is no course
+    private CourseGenerator course; // Makes the gaps of the course with courseSeed, null to use random
+    private long courseSeed;
+    private long nextColumn; // Index of the next column in the course
+    private long chunkIndex = -1; // Chunk of the course the next column is in
+    private int[] chunkGaps; // Its gaps, from the generator's cache or ownGaps
+    private int[] ownGaps; // Chunk made by this column when it was not cached, so no chunk is allocated
+    private CourseRandom ownRandom; // Random generator used for ownGaps
     private int points = 0; // Variable used to keep track of the score
     private double speed = 3.0; // Initial tube speed
     private double difficultyFactor = 1.0; // Factor to scale difficulty
+    private Image tubeImage; // Image given to new tubes, null when running headless
 
-    public TubeColumn() {
-        tubes = new ArrayList<>();
-        random = new Random();
-        gapSize = Window.HEIGHT / 3;  // Gap is 1/3 of screen height
+    // The random generator decides every gap, so a seeded one makes the whole course reproducible
+    public TubeColumn(int worldWidth, int worldHeight, Random random) {
+        this(worldWidth, worldHeight, random, 1);
+    }
+
+    // A course with the given number of columns on screen, spread evenly over the width of the world.
+    // One column is the original game: the next column appears once the last one has scrolled off
+    public TubeColumn(int worldWidth, int worldHeight, Random random, int columns) {
+        this(worldWidth, worldHeight, random, null, 0, columns);
+    }
+
+    // A course whose gaps come from the generator's chunks for the given seed
+    public TubeColumn(int worldWidth, int worldHeight, CourseGenerator course, long seed, int columns) {
+        this(worldWidth, worldHeight, null, course, seed, columns);
+    }
+
+    private TubeColumn(int worldWidth, int worldHeight, Random random, CourseGenerator course, long seed,
+                       int columns) {
+        if (columns < 1) {
+            throw new IllegalArgumentException("A course needs at least one column, got " + columns);
+        }
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.columns = columns;
+        this.spacing = worldWidth / columns;
+        this.tubes = new ArrayList<>();
+        this.pool = new ArrayList<>(2 * columns); // Sized up front, so the first column to scroll off allocates nothing
+        this.random = random;
+        this.course = course;
+        this.courseSeed = seed;
+        if (course != null) {
+            this.ownGaps = new int[CourseGenerator.CHUNK_COLUMNS];
+            this.ownRandom = new CourseRandom(0); // Seeded again for every chunk it makes
+        }
+        gapSize = baseGapSize(worldHeight);
+        initTubes();
+    }
+
+    // Take over the tubes, score, speed and course position of another column. The next gaps only match
+    // when the other column has a course, which is what World uses, or both draw them from a CourseRandom
+    public void copyFrom(TubeColumn other) {
+        if (other.course == null) {
+            if (!(random instanceof CourseRandom) || !(other.random instanceof CourseRandom)) {
+                throw new IllegalStateException("Only columns with a course or built on a CourseRandom can be copied");
+            }
+            ((CourseRandom) random).copyFrom((CourseRandom) other.random);
+        }
+        this.course = other.course;
+        this.courseSeed = other.courseSeed;
+        this.nextColumn = other.nextColumn;
+        this.chunkIndex = other.chunkIndex;
+        this.chunkGaps = other.chunkGaps;
+        if (other.chunkGaps != null && other.chunkGaps == other.ownGaps) { // Can change under us, take a copy
+            if (ownGaps == null) {
+                ownGaps = new int[CourseGenerator.CHUNK_COLUMNS];
+                ownRandom = new CourseRandom(0);
+            }
+            System.arraycopy(other.ownGaps, 0, ownGaps, 0, ownGaps.length);
+            this.chunkGaps = ownGaps;
+        }
+        this.columns = other.columns;
+        this.spacing = other.spacing;
+        this.gapSize = other.gapSize;
+        this.gapPosition = other.gapPosition;
+        this.points = other.points;
+        this.speed = other.speed;
+        this.difficultyFactor = other.difficultyFactor;
+        this.tubeImage = other.tubeImage;
+        while (tubes.size() > other.tubes.size()) {
+            pool.add(tubes.remove(tubes.size() - 1));
+        }
+        for (int i = 0; i < other.tubes.size(); i++) {
+            if (i == tubes.size()) {
+                tubes.add(obtainTube());
+            }
+            tubes.get(i).copyFrom(other.tubes.get(i));
+        }
+    }
+
+    // Start the course of the given seed over from its first column, as a new column would, reusing the tubes.
+    // Without a course the gaps keep coming from the same random generator, the seed is not used
+    public void reset(long seed) {
+        this.courseSeed = seed;
+        this.chunkIndex = -1;
+        this.chunkGaps = null;
+        this.points = 0;
+        this.speed = 3.0;
+        this.difficultyFactor = 1.0;
+        this.gapSize = baseGapSize(worldHeight);
         initTubes();
     }
 
+    // Set the image used to draw the tubes
+    public void setTubeImage(Image tubeImage) {
+        this.tubeImage = tubeImage;
+        for (int i = 0; i < tubes.size(); i++) {
+            tubes.get(i).setImage(tubeImage);
+        }
+    }
+
     // Set the difficulty factor
     public void setDifficultyFactor(double factor) {
         this.difficultyFactor = factor;
 
-        // Update speed for all existing tubes
-        for (Tube tube : tubes) {
-            tube.setDx((int)(speed * difficultyFactor));
+        // Update speed for all existing tubes, indexed so no iterator is allocated every tick
+        for (int i = 0; i < tubes.size(); i++) {
+            tubes.get(i).setDx((int)(speed * difficultyFactor));
         }
     }
 
-    // Method used to create the wall
-    private void initTubes() {
-        tubes.clear();  // Clear existing tubes
-
-        // Calculate a random position for the gap
-        gapPosition = random.nextInt(Window.HEIGHT - gapSize - 100) + 50;
+    // Method used to create the wall: start the course over with one new column at the right edge.
+    // Package-private so the benchmarks can time it on its own
+    void initTubes() {
+        for (int i = tubes.size() - 1; i >= 0; i--) {
+            pool.add(tubes.remove(i));
+        }
+        nextColumn = 0;
+        spawnColumns();
+    }
 
-        // Calculate the gap size - decreases slightly as difficulty increases
-        int currentGapSize = (int)(gapSize * (1.1 - difficultyFactor * 0.05));
-        if (currentGapSize < Window.HEIGHT / 4) {
-            currentGapSize = Window.HEIGHT / 4; // Minimum gap size is 1/4 of screen height
+    // Add columns while there is room for them, each one spacing to the right of the last
+    private void spawnColumns() {
+        while (tubes.size() < 2 * columns) {
+            int x = worldWidth;
+            if (!tubes.isEmpty()) {
+                x = tubes.get(tubes.size() - 2).getX() + spacing;
+                if (x > worldWidth) { // No room yet, the next column comes in a later tick
+                    return;
+                }
+            }
+            spawnColumn(x);
         }
+    }
 
-        // Create top tube (tube above the gap)
-        Tube topTube = new Tube(Window.WIDTH, 0);
-        // Make tubes thinner at start, gradually increase width with difficulty
-        int tubeWidth = (int)(Window.WIDTH / (12 - difficultyFactor * 0.5));
-        if (tubeWidth > Window.WIDTH / 8) tubeWidth = Window.WIDTH / 8; // Maximum width cap
+    // Make one column at the given x position with the next gap of the course
+    private void spawnColumn(int x) {
+        gapPosition = nextGapPosition();
+        int currentGapSize = gapSizeAt(worldHeight, difficultyFactor);
+        int tubeWidth = tubeWidthAt(worldWidth, difficultyFactor);
 
-        topTube.scaleWidth(tubeWidth);
-        topTube.setHeight(gapPosition);  // The height is the gap position
-        topTube.setDx((int)(speed * difficultyFactor));
+        // Place top tube (tube above the gap), the height is the gap position
+        Tube topTube = obtainTube();
+        placeTube(topTube, x, 0, tubeWidth, gapPosition);
         tubes.add(topTube);
 
-        // Create bottom tube (tube below the gap)
-        Tube bottomTube = new Tube(Window.WIDTH, gapPosition + currentGapSize);
-        bottomTube.scaleWidth(tubeWidth);
-        bottomTube.setHeight(Window.HEIGHT - gapPosition - currentGapSize);
-        bottomTube.setDx((int)(speed * difficultyFactor));
+        // Place bottom tube (tube below the gap)
+        Tube bottomTube = obtainTube();
+        placeTube(bottomTube, x, gapPosition + currentGapSize, tubeWidth,
+                worldHeight - gapPosition - currentGapSize);
         tubes.add(bottomTube);
     }
 
+    // Top edge of the next gap. A course only looks up its chunk when it gets to a new one. Halfway through
+    // a chunk the next one is asked for in the background; if it is still not cached when the course gets there
+    // (a short run never asks, a fast headless one can outrun the background thread) the column makes the same
+    // gaps into its own array, so the tick never waits for or allocates a chunk
+    private int nextGapPosition() {
+        if (course == null) {
+            // Calculate a random position for the gap
+            return random.nextInt(worldHeight - gapSize - 100) + 50;
+        }
+        long index = nextColumn / CourseGenerator.CHUNK_COLUMNS;
+        int column = (int) (nextColumn % CourseGenerator.CHUNK_COLUMNS);
+        if (index != chunkIndex) {
+            CourseChunk chunk = course.cached(courseSeed, index);
+            if (chunk != null) {
+                chunkGaps = chunk.gapTops;
+            } else {
+                course.generate(courseSeed, index, ownGaps, ownRandom);
+                chunkGaps = ownGaps;
+            }
+            chunkIndex = index;
+        }
+        if (column == CourseGenerator.CHUNK_COLUMNS / 2) {
+            course.prefetch(courseSeed, index + 1);
+        }
+        nextColumn++;
+        return chunkGaps[column];
+    }
+
+    // Gap size of a course before difficulty, 1/3 of screen height
+    static int baseGapSize(int worldHeight) {
+        return worldHeight / 3;
+    }
+
+    // Calculate the gap size - decreases slightly as difficulty increases
+    static int gapSizeAt(int worldHeight, double difficultyFactor) {
+        int gapSize = (int)(baseGapSize(worldHeight) * (1.1 - difficultyFactor * 0.05));
+        if (gapSize < worldHeight / 4) {
+            gapSize = worldHeight / 4; // Minimum gap size is 1/4 of screen height
+        }
+        return gapSize;
+    }
+
+    // Make tubes thinner at start, gradually increase width with difficulty
+    static int tubeWidthAt(int worldWidth, double difficultyFactor) {
+        int tubeWidth = (int)(worldWidth / (12 - difficultyFactor * 0.5));
+        if (tubeWidth > worldWidth / 8) tubeWidth = worldWidth / 8; // Maximum width cap
+        return tubeWidth;
+    }
+
+    // A tube from the pool, only allocated while the pool is still filling up
+    private Tube obtainTube() {
+        return pool.isEmpty() ? new Tube(0, 0, 0, 0) : pool.remove(pool.size() - 1);
+    }
+
+    // Move a tube to its column at the right of the world with a new size
+    private void placeTube(Tube tube, int x, int y, int width, int height) {
+        tube.setX(x);
+        tube.setY(y);
+        tube.setWidth(width);
+        tube.setHeight(height);
+        tube.setDx((int)(speed * difficultyFactor));
+        tube.setImage(tubeImage);
+        tube.savePosition(); // A new column appears at the edge, it does not slide there
+    }
+
     // Method used to check the position of the walls and to create new walls
     public void tick() {
         for (int i = 0; i < tubes.size(); i++) { // Loop through the array of Tube objects
             tubes.get(i).tick(); // Update the position of the wall
         }
 
-        // Check if tubes have moved off screen
-        if (!tubes.isEmpty() && tubes.get(0).getX() + tubes.get(0).getWidth() < 0) {
-            tubes.clear();  // Remove offscreen tubes
+        // Check if the first column has moved off screen
+        while (!tubes.isEmpty() && tubes.get(0).getX() + tubes.get(0).getWidth() < 0) {
             this.points += 1; // Increase the score by 1
 
             // Gradually increase difficulty based on points
             speed = 3.0 + (points / 10.0);
             if (speed > 6.5) speed = 6.5; // Cap max speed
 
-            initTubes(); // Create new tubes
+            pool.add(tubes.remove(1)); // Its tubes wait in the pool for a new column
+            pool.add(tubes.remove(0));
         }
+        spawnColumns();
     }
 
     // Method used to draw the walls
@@ -228,6 +412,22 @@ class TubeColumn {
         }
     }
 
+    // Method used to draw the walls between the last two ticks
+    public void render(Graphics2D g, ImageObserver obs, double alpha) {
+        render(g, obs, alpha, 1.0);
+    }
+
+    // Same, into a frame drawn at the given fraction of the screen resolution
+    public void render(Graphics2D g, ImageObserver obs, double alpha, double scale) {
+        for (int i = 0; i < tubes.size(); i++) {
+            tubes.get(i).render(g, obs, alpha, scale);
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
     public List<Tube> getTubes() {
         return tubes;
     }
@@ -249,41 +449,72 @@ class TubeColumn {
     }
 }
 
-interface IStrategy {
-    public void controller(Bird bird, KeyEvent kevent);
-    public void controllerReleased(Bird bird, KeyEvent kevent);
+// Strategies steer the bird through the world, so every jump goes through World.jump and can be recorded.
+// A strategy is the keyboard (the Controller) or decides every tick from the state of the world (a bot)
+interface IStrategy extends InputPolicy {
+    // Asked before every tick, the default leaves the jumping to the keyboard
+    @Override
+    public default boolean shouldJump(World world) {
+        return false;
+    }
 }
 
-// Controller class is used to control the movement of the bird
+// Controller class is used to control the movement of the bird with the space bar. The key events only queue
+// the time of the jump, on the event thread and without waiting for the game; the simulation takes the jumps
+// from the queue right before the ticks they fall into
 class Controller implements IStrategy {
-    public void controller(Bird bird, KeyEvent kevent) {
+    private final InputQueue jumps = new InputQueue(64);
+    private volatile JumpTrigger trigger = JumpTrigger.PRESS;
+    private boolean spaceDown; // A held key repeats its presses, only the first one counts
+
+    // Call for every space bar press, with the time it happened
+    public void keyPressed(long nanos) {
+        if (spaceDown) {
+            return;
+        }
+        spaceDown = true;
+        if (trigger == JumpTrigger.PRESS) {
+            jumps.offer(nanos);
+        }
     }
 
-    public void controllerReleased(Bird bird, KeyEvent kevent) {
-        if(kevent.getKeyCode() == KeyEvent.VK_SPACE) { // If the space bar is pressed bird jumps
-            bird.jump();
+    // Call for every space bar release, with the time it happened
+    public void keyReleased(long nanos) {
+        spaceDown = false;
+        if (trigger == JumpTrigger.RELEASE) {
+            jumps.offer(nanos);
         }
     }
+
+    public void setTrigger(JumpTrigger trigger) {
+        this.trigger = trigger;
+    }
+
+    // Times of the jumps not taken yet
+    public InputQueue getJumps() {
+        return jumps;
+    }
 }
 
 interface IImage {
     public ImageIcon loadImage();
 }
 
-// ProxyImage class is used to load the image of all the objects
+// ProxyImage class is used to load the image of all the objects.
+// The real image comes from the asset registry, so every proxy for the same file shares one loaded image
 class ProxyImage implements IImage {
     private final String src;
-    private RealImage realImage;
+    private ImageIcon imageIcon;
 
     public ProxyImage(String src) {
         this.src = src;
     }
 
     public ImageIcon loadImage() {
-        if(realImage == null) { // If the image has not been loaded
-            this.realImage = new RealImage(src); // Load the image
+        if(imageIcon == null) { // If the image has not been loaded
+            this.imageIcon = AssetRegistry.image(src); // Load the image, or share the one already loaded
         }
-        return this.realImage.loadImage();
+        return this.imageIcon;
     }
 }
 
@@ -317,10 +548,33 @@ abstract class GameObject {
     protected double dx, dy;
     protected int width, height;
     protected Image image;
+    private BufferedImage sprite; // The image scaled to the current size, taken from the sprite cache
+    private Image spriteSource; // The image the sprite was made from
+    protected int prevX, prevY; // Position before the last tick, used to draw between ticks
 
     public GameObject(int x, int y) {
         this.x = x;
         this.y = y;
+        savePosition();
+    }
+
+    // Take over the position, speed, size and image of another object
+    public void copyFrom(GameObject other) {
+        this.x = other.x;
+        this.y = other.y;
+        this.dx = other.dx;
+        this.dy = other.dy;
+        this.width = other.width;
+        this.height = other.height;
+        this.image = other.image;
+        this.prevX = other.prevX;
+        this.prevY = other.prevY;
+    }
+
+    // Remember the current position as the one before the next tick
+    public void savePosition() {
+        this.prevX = x;
+        this.prevY = y;
     }
 
     public int getX() {
@@ -331,6 +585,14 @@ abstract class GameObject {
         return y;
     }
 
+    public int getPrevX() {
+        return prevX;
+    }
+
+    public int getPrevY() {
+        return prevY;
+    }
+
     public double getDx() {
         return dx;
     }
@@ -379,227 +641,584 @@ abstract class GameObject {
         this.image = image;
     }
 
+    // The image scaled to the current size. The cache is only asked again when the image or the size
+    // changes, so drawing a frame does no lookups
+    protected Image getSprite() {
+        return getSprite(1.0);
+    }
+
+    // The image scaled to the current size times the given scale, for frames drawn below the screen resolution
+    protected Image getSprite(double scale) {
+        if (image == null) {
+            return null;
+        }
+        int spriteWidth = Math.max(1, (int) Math.round(width * scale));
+        int spriteHeight = Math.max(1, (int) Math.round(height * scale));
+        if (sprite == null || spriteSource != image
+                || sprite.getWidth() != spriteWidth || sprite.getHeight() != spriteHeight) {
+            sprite = SpriteCache.getShared().get(image, spriteWidth, spriteHeight);
+            spriteSource = image;
+        }
+        return sprite;
+    }
+
+    // Same test as Rectangle.intersects on the two bounds, without allocating the rectangles
+    public boolean intersects(GameObject other) {
+        if (width <= 0 || height <= 0 || other.width <= 0 || other.height <= 0) {
+            return false;
+        }
+        return x < other.x + other.width && other.x < x + width
+                && y < other.y + other.height && other.y < y + height;
+    }
+
     public abstract void tick();
     public abstract void render(Graphics2D g, ImageObserver obs);
+
+    // Draw the object the given fraction (0 to 1) of the way from where it was before the last tick
+    // to where it is now, so frames drawn between ticks still move smoothly
+    public void render(Graphics2D g, ImageObserver obs, double alpha) {
+        render(g, obs, alpha, 1.0);
+    }
+
+    // Same, into a frame drawn at the given fraction of the screen resolution: the sprite is cached at that size
+    // and drawn at the scaled position, so nothing is resampled while drawing
+    public void render(Graphics2D g, ImageObserver obs, double alpha, double scale) {
+        double drawX = prevX + (x - prevX) * alpha;
+        double drawY = prevY + (y - prevY) * alpha;
+        g.drawImage(getSprite(scale), (int) Math.round(drawX * scale), (int) Math.round(drawY * scale), obs);
+    }
 }
 
 // this class is used to create the walls for the game
 class Tube extends GameObject {
-    private ProxyImage proxyImage;
-    private int originalWidth;
 
-    public Tube(int x, int y) {
+    // The tube image is stretched to whatever size is given, so none is needed to simulate it
+    public Tube(int x, int y, int width, int height) {
         super(x, y);
-        if (proxyImage == null) { // If the image has not been loaded
-            proxyImage = new ProxyImage("TubeBody.png"); // Load the image
-        }
-        this.image = proxyImage.loadImage().getImage(); // Get the image
-        this.originalWidth = image.getWidth(null); // save original width
-        this.width = originalWidth; // set the width of the image
-        this.height = image.getHeight(null); // set the height of the image
-    }
-
-    // Method to scale tube width while preserving aspect ratio
-    public void scaleWidth(int newWidth) {
-        if (originalWidth == 0) return;
-
-        double scaleFactor = (double)newWidth / originalWidth;
-        this.width = newWidth;
-        // Note: We don't scale height here anymore as we'll set it directly
+        this.width = width; // set the width of the tube
+        this.height = height; // set the height of the tube
     }
 
     @Override
     public void tick() {
+        savePosition(); // Remember where the tube was, to draw it between ticks
         this.x -= (int)dx; // Convert double dx to int for movement
     }
 
     @Override
     public void render(Graphics2D g, ImageObserver obs) {
-        // Draw tube image, scaled to the specified width and height
-        g.drawImage(image, x, y, width, height, obs);
-    }
-
-    public Rectangle getBounds() {
-        return new Rectangle(x, y, width, height);
+        // Draw tube image, already scaled to the specified width and height
+        g.drawImage(getSprite(), x, y, obs);
     }
 }
 
 // this class is used to create the background for the game
 class Game extends JPanel implements ActionListener {
+    static final String[] ASSETS = {"background.jpg", "TubeBody.png", "bird.png", "bird2.png", "chirp.wav", "dang.wav"};
+
     private boolean isRunning = false; // Variable used to check if the game is running
     private boolean isInMenu = true; // Added to track whether player is in menu or game
     private ProxyImage proxyImage; // Variable used to load the image
     private Image background; // Variable used to store the image
-    private Bird bird; // Variable used to store the bird object
-    private TubeColumn tubeColumn; // Variable used to store the wall object
-    private int score;
+    private final Compositor compositor = new Compositor(); // Draws the background from video memory
+    private Image tubeImage; // Image used to draw the tubes
+    private World world; // Headless simulation of the current game
+    private Simulation simulation; // Advances the world on a fixed timestep
+    private final Timer timer; // Swing timer that drives the simulation and repaints
+    private final KeyListener keyAdapter; // Handles the keyboard, also used by the active renderer's canvas
+    private final Metrics metrics = new Metrics(); // Phase timings, shown with F3
+    private final Framebuffer framebuffer = new Framebuffer(); // Draws below the screen resolution when too slow
+    private final QualityGovernor governor = new QualityGovernor(framebuffer, metrics, 1000 / World.TICK_MILLIS);
+    private String replayDirectory; // Every run is recorded into this directory when set
+    private InputRecorder recorder; // Records the current run, null when not recording
+    private final Controller keyboard = new Controller(); // Queues the space bar's jumps
+    private IStrategy strategy = keyboard; // Steers the bird, the keyboard unless a bot was chosen
+    private int columns = 1; // Tube columns on screen at once
+    private boolean dailyCourse; // Every run is on the day's course instead of a new one
     private int highScore;
-    private Clip collisionSound; // Sound for collision with tubes
-    private double difficultyFactor; // Global difficulty factor that increases over time
-    private long gameStartTime; // Time when the game started
-    private final long DIFFICULTY_INCREASE_INTERVAL = 10000; // Increase difficulty every 10 seconds
+    private ScoreStore scores; // Logs every finished run, null when scores are not kept
+    private RollbackClient online; // Plays on a multiplayer server instead when set
+    private int shownRound = -1; // Round the cached round text was made for
+    private String roundText;
+    private final AudioMixer audio; // Mixes all sounds on its own thread
+    private final int collisionSound; // Id of the sound for collision with tubes
+    private final int chirpSound; // Id of the sound for bird chirping
 
     // Add variables for bird selection
-    private String selectedBirdImage = "bird.png"; // Default bird
     private boolean inBirdSelection = false; // Whether in bird selection screen
     private String[] availableBirds = {"bird.png", "bird2.png"}; // Available bird options
     private int selectedBirdIndex = 0; // Current selected bird index
+    private Image[] birdImages; // Images of the available birds, loaded once
+
+    // Fonts, stroke and HUD texts are made once and reused, so painting a frame allocates nothing
+    private static final BasicStroke SELECTION_STROKE = new BasicStroke(3);
+    private final Font titleFont = new Font("MV Boli", Font.BOLD, Window.HEIGHT / 12);
+    private final Font textFont = new Font("MV Boli", Font.BOLD, Window.HEIGHT / 20);
+    private int shownPoints = -1; // Score the cached score text was made for
+    private String scoreText;
+    private double shownSpeed = -1; // Speed the cached speed text was made for
+    private String speedText;
+    private int shownHighScore = -1; // High score the cached high score text was made for
+    private String highScoreText;
+
+    // Every text is drawn from an image made when it changes, instead of rasterizing the glyphs on every frame
+    private final TextLayer scoreLayer = new TextLayer(textFont, Color.black);
+    private final TextLayer speedLayer = new TextLayer(textFont, Color.black);
+    private final TextLayer highScoreLayer = new TextLayer(textFont, Color.black);
+    private final TextLayer startLayer = new TextLayer(titleFont, Color.black);
+    private final TextLayer selectBirdLayer = new TextLayer(textFont, Color.black);
+    private final TextLayer selectionTitleLayer = new TextLayer(titleFont, Color.black);
+    private final TextLayer instructionsLayer = new TextLayer(textFont, Color.black);
+
+    // What the last frame showed, so the menu screens only repaint the parts that changed since
+    private static final int SCREEN_PLAYING = 0;
+    private static final int SCREEN_MENU = 1;
+    private static final int SCREEN_SELECTION = 2;
+    private final DirtyRegion dirty = new DirtyRegion();
+    private int paintedScreen = -1; // -1 before the first frame
+    private int paintedWidth;
+    private int paintedHeight;
+    private int paintedBirdIndex;
+    private int paintedHighScore;
+    private boolean paintedOverlay;
 
     public Game() {
         proxyImage = new ProxyImage("background.jpg"); // Load the image
         background = proxyImage.loadImage().getImage(); // Get the image
+        tubeImage = new ProxyImage("TubeBody.png").loadImage().getImage();
+        birdImages = new Image[availableBirds.length];
+        for (int i = 0; i < availableBirds.length; i++) {
+            birdImages[i] = new ProxyImage(availableBirds[i]).loadImage().getImage();
+        }
         setFocusable(true);
         setDoubleBuffered(false);
-        addKeyListener(new GameKeyAdapter());
-        Timer timer = new Timer(15, this);
+        keyAdapter = new GameKeyAdapter();
+        addKeyListener(keyAdapter);
+        timer = new Timer(World.TICK_MILLIS, this);
         timer.start();
-        difficultyFactor = 1.0;
 
-        // Load collision sound - direct file access
-        try {
-            File soundFile = new File("dang.wav");
-            AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(soundFile);
-            collisionSound = AudioSystem.getClip();
-            collisionSound.open(audioInputStream);
-        } catch (Exception e) {
-            System.out.println("Error loading collision sound: " + e.getMessage());
-            createSilentClip();
-        }
+        // Load sounds once into the mixer, which keeps one line open for the whole game
+        audio = AudioMixer.open();
+        collisionSound = audio.load("dang.wav");
+        chirpSound = audio.load("chirp.wav");
+        audio.start();
     }
 
-    // Method to create a silent clip if sound loading fails
-    private void createSilentClip() {
-        try {
-            // Create a 0.1-second silent audio format
-            AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
-            byte[] silentData = new byte[4410]; // 0.1 second of silence
-            AudioInputStream ais = new AudioInputStream(
-                    new java.io.ByteArrayInputStream(silentData),
-                    format, silentData.length);
+    AudioMixer getAudio() {
+        return audio;
+    }
 
-            collisionSound = AudioSystem.getClip();
-            collisionSound.open(ais);
-        } catch (Exception e) {
-            System.out.println("Failed to create silent clip: " + e.getMessage());
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        Toolkit.getDefaultToolkit().sync(); // Synchronize the display on some systems
+        update();
+        DirtyRegion changed = findChanges();
+        if (!changed.isEmpty()) { // Nothing to paint while a menu just sits there
+            repaint(changed.getX(), changed.getY(), changed.getWidth(), changed.getHeight());
         }
     }
 
-    // Update difficulty based on elapsed time
-    private void updateDifficulty() {
-        long elapsedTime = System.currentTimeMillis() - gameStartTime;
-        difficultyFactor = 1.0 + (elapsedTime / DIFFICULTY_INCREASE_INTERVAL) * 0.1;
-
-        // Cap difficulty factor to prevent game from becoming impossible
-        if (difficultyFactor > 1.7) {
-            difficultyFactor = 1.7;
+    private int currentScreen() {
+        if (isRunning || online != null) {
+            return SCREEN_PLAYING;
         }
+        return inBirdSelection ? SCREEN_SELECTION : SCREEN_MENU;
+    }
 
-        // Update difficulty for bird and tube columns
-        if (bird != null) {
-            bird.setDifficultyFactor(difficultyFactor);
+    // Work out which part of the screen differs from the last frame drawn. During a game that is all of it; on
+    // the menu screens only the selection box, the high score and the metrics overlay ever change
+    synchronized DirtyRegion findChanges() {
+        dirty.clear();
+        int screen = currentScreen();
+        if (screen == SCREEN_PLAYING || screen != paintedScreen
+                || paintedWidth != Window.WIDTH || paintedHeight != Window.HEIGHT) {
+            dirty.add(0, 0, Window.WIDTH, Window.HEIGHT);
+            return dirty;
         }
-
-        if (tubeColumn != null) {
-            tubeColumn.setDifficultyFactor(difficultyFactor);
+        if (screen == SCREEN_SELECTION && selectedBirdIndex != paintedBirdIndex) {
+            addSelectionBox(paintedBirdIndex);
+            addSelectionBox(selectedBirdIndex);
+        }
+        if (highScore != paintedHighScore) { // The new text may be longer, so take the whole corner
+            dirty.add(Window.WIDTH - Window.WIDTH / 4, 0, Window.WIDTH / 4, 50 + textFont.getSize());
         }
+        if (metrics.isOverlayVisible() || paintedOverlay) { // Its numbers change while it is shown
+            int top = metrics.getOverlayTop(Window.HEIGHT);
+            dirty.add(0, top, Metrics.OVERLAY_RIGHT, Window.HEIGHT - top);
+        }
+        return dirty;
     }
 
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        Toolkit.getDefaultToolkit().sync(); // Synchronize the display on some systems
-        if (isRunning) {
-            updateDifficulty(); // Update game difficulty
-            bird.tick(); // Update the bird
-            tubeColumn.tick(); // Update the wall
-            checkColision(); // Check if the bird has collided with the wall
-            score++; // Increase the score by 1
+    // Area of the bird with the given index on the selection screen, with its selection box and the stroke around
+    private void addSelectionBox(int index) {
+        Image img = birdImages[index];
+        dirty.add(selectionImageX(index) - 12, selectionImageY(index) - 12,
+                img.getWidth(null) + 24, img.getHeight(null) + 24);
+    }
+
+    // Left edge of the bird with the given index on the selection screen, centered on its slot
+    private int selectionImageX(int index) {
+        return Window.WIDTH / 3 + index * (Window.WIDTH / 6) - birdImages[index].getWidth(null) / 2;
+    }
+
+    private int selectionImageY(int index) {
+        return Window.HEIGHT / 2 - birdImages[index].getHeight(null) / 2;
+    }
+
+    // Run every simulation tick that is due by now. Called from the Swing timer, or from the simulation
+    // thread when rendering actively, so it locks the game against the render and input threads
+    synchronized void update() {
+        if (online != null) {
+            pollServer();
+        } else if (isRunning) {
+            long start = System.nanoTime();
+            simulation.advance(); // Run every tick that is due since the last update
+            metrics.record(Metrics.Phase.UPDATE, System.nanoTime() - start);
+            if (world.isGameOver()) { // If the bird has collided with the wall
+                endGame(); // End the game
+            }
         }
-        repaint();
     }
 
     @Override
     public void paint(Graphics g) {
-        Graphics2D g2 = (Graphics2D) g;
-        // Scale background to fill screen
-        g2.drawImage(background, 0, 0, Window.WIDTH, Window.HEIGHT, null);
+        long start = System.nanoTime();
+        renderFrame((Graphics2D) g, 1.0); // Swing paints right after the tick, so draw the latest state
+        metrics.record(Metrics.Phase.PAINT, System.nanoTime() - start);
+        metrics.frameShown();
+        g.dispose();
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    // How far the current moment is between the last simulation tick and the next one, from 0 to 1
+    synchronized double getInterpolation() {
+        return isRunning ? simulation.getAlpha() : 1.0;
+    }
 
-        if (isRunning) {
+    // Draw a whole frame, with moving objects the given fraction of the way between the last two ticks.
+    // The frame is drawn at the render quality's resolution and stretched to the screen, then the metrics overlay
+    // goes on top at full resolution so it stays readable
+    synchronized void renderFrame(Graphics2D screen, double alpha) {
+        long start = System.nanoTime();
+        boolean playing = currentScreen() == SCREEN_PLAYING;
+        Graphics2D g2 = framebuffer.begin(screen, Window.WIDTH, Window.HEIGHT);
+        try {
+            // Draw the background, scaled to fill the frame once and then kept in video memory
+            compositor.drawBackground(g2, background, framebuffer.getWidth(), framebuffer.getHeight());
+            drawScene(g2, alpha, framebuffer.getScale());
+        } finally {
+            framebuffer.end(screen, Window.WIDTH, Window.HEIGHT);
+        }
+
+        metrics.renderOverlay(screen, Window.HEIGHT);
+        metrics.frameDrawn(); // Jumps applied by now are on this frame
+
+        paintedScreen = currentScreen();
+        paintedWidth = Window.WIDTH;
+        paintedHeight = Window.HEIGHT;
+        paintedBirdIndex = selectedBirdIndex;
+        paintedHighScore = highScore;
+        paintedOverlay = metrics.isOverlayVisible();
+        if (playing) {
+            governor.frameDrawn(start, System.nanoTime() - start);
+        } else {
+            governor.skipped();
+        }
+    }
+
+    // Everything in a frame above the background. Positions are in screen coordinates, multiplied by the scale
+    // of the frame, and every image is drawn at that scale from the caches without a transform
+    private void drawScene(Graphics2D g2, double alpha, double scale) {
+        if (online != null && online.getNet().hasRound()) {
+            renderNetwork(g2, scale);
+        } else if (isRunning) {
             // Game is running - draw game elements
-            this.bird.render(g2, this);
-            this.tubeColumn.render(g2, this);
-            g2.setColor(Color.black);
-            // Scale font sizes based on screen dimensions
-            g.setFont(new Font("MV Boli", 1, Window.HEIGHT / 20));
-            g2.drawString("Current score: " + this.tubeColumn.getPoints(), 10, 50);
+            this.world.getBird().render(g2, this, alpha, scale);
+            this.world.getTubeColumn().render(g2, this, alpha, scale);
+            scoreLayer.draw(g2, getScoreText(world.getTubeColumn().getPoints()), 10, 50, scale);
 
             // Display current speed/difficulty
-            String speedText = String.format("Speed: %.1f", this.tubeColumn.getSpeed());
-            g2.drawString(speedText, 10, 100);
+            speedLayer.draw(g2, getSpeedText(), 10, 100, scale);
         } else if (inBirdSelection) {
             // Bird selection screen
-            g2.setColor(Color.black);
-            g.setFont(new Font("MV Boli", 1, Window.HEIGHT / 12));
-            g2.drawString("Select Bird", Window.WIDTH / 2 - Window.WIDTH / 6, Window.HEIGHT / 4);
+            selectionTitleLayer.draw(g2, "Select Bird", Window.WIDTH / 2 - Window.WIDTH / 6, Window.HEIGHT / 4, scale);
 
             // Draw bird options
-            int startX = Window.WIDTH / 3;
-            int startY = Window.HEIGHT / 2;
-            int spacing = Window.WIDTH / 6;
-
             for (int i = 0; i < availableBirds.length; i++) {
-                // Load and draw bird image
-                ProxyImage birdImg = new ProxyImage(availableBirds[i]);
-                Image img = birdImg.loadImage().getImage();
-
-                // Calculate position to center the bird image
-                int imgX = startX + (i * spacing) - img.getWidth(null) / 2;
-                int imgY = startY - img.getHeight(null) / 2;
+                Image img = birdImages[i];
+                int imgX = selectionImageX(i);
+                int imgY = selectionImageY(i);
 
                 // Draw the bird image
-                g2.drawImage(img, imgX, imgY, null);
+                if (scale == 1.0) {
+                    g2.drawImage(img, imgX, imgY, null);
+                } else {
+                    g2.drawImage(SpriteCache.getShared().get(img, scaled(img.getWidth(null), scale),
+                            scaled(img.getHeight(null), scale)), scaled(imgX, scale), scaled(imgY, scale), null);
+                }
 
                 // Draw selection box around currently selected bird
                 if (i == selectedBirdIndex) {
                     g2.setColor(Color.BLUE);
-                    g2.setStroke(new BasicStroke(3));
-                    g2.drawRect(imgX - 10, imgY - 10,
-                            img.getWidth(null) + 20, img.getHeight(null) + 20);
+                    g2.setStroke(scale == 1.0 ? SELECTION_STROKE : new BasicStroke((float) (3 * scale)));
+                    g2.drawRect(scaled(imgX - 10, scale), scaled(imgY - 10, scale),
+                            scaled(img.getWidth(null) + 20, scale), scaled(img.getHeight(null) + 20, scale));
                 }
             }
 
             // Draw instructions
-            g2.setColor(Color.black);
-            g.setFont(new Font("MV Boli", 1, Window.HEIGHT / 20));
-            g2.drawString("← → to select    ENTER to confirm",
-                    Window.WIDTH / 3, Window.HEIGHT * 3 / 4);
+            instructionsLayer.draw(g2, "← → to select    ENTER to confirm", Window.WIDTH / 3, Window.HEIGHT * 3 / 4,
+                    scale);
         } else {
             // Main menu
-            g2.setColor(Color.black);
-            // Scale font sizes based on screen dimensions
-            g.setFont(new Font("MV Boli", 1, Window.HEIGHT / 12));
-            g2.drawString("Press Enter to Start Game", Window.WIDTH / 2 - Window.WIDTH / 5, Window.HEIGHT / 2);
+            startLayer.draw(g2, "Press Enter to Start Game", Window.WIDTH / 2 - Window.WIDTH / 5, Window.HEIGHT / 2,
+                    scale);
+            selectBirdLayer.draw(g2, "Press S to Select Bird", Window.WIDTH / 2 - Window.WIDTH / 7,
+                    Window.HEIGHT / 2 + 60, scale);
+        }
+
+        highScoreLayer.draw(g2, getHighScoreText(), Window.WIDTH - Window.WIDTH / 4, 50, scale);
+    }
 
-            g.setFont(new Font("MV Boli", 1, Window.HEIGHT / 20));
-            g2.drawString("Press S to Select Bird", Window.WIDTH / 2 - Window.WIDTH / 7, Window.HEIGHT / 2 + 60);
+    // A length or position in screen pixels, in the pixels of a frame drawn at the given scale
+    private static int scaled(int value, double scale) {
+        return (int) Math.round(value * scale);
+    }
+
+    // Draw the multiplayer round: our bird and the course where the prediction has them, or as the last snapshot
+    // has them while only watching, and the neighbours still flying where the last snapshot has them
+    private void renderNetwork(Graphics2D g2, double scale) {
+        NetClient net = online.getNet();
+        World predicted = online.getWorld();
+        if (online.isPredicting()) {
+            predicted.getTubeColumn().render(g2, this, 1.0, scale); // Drawn where they are, not between ticks
+        } else {
+            net.getCourse().render(g2, this, 1.0, scale);
+        }
+        for (int i = 0; i < net.getNeighbours(); i++) {
+            if (net.isNeighbourAlive(i)) {
+                net.getNeighbourBird(i).render(g2, this, 1.0, scale);
+            }
+        }
+        if (online.isPredicting()) {
+            predicted.getBird().render(g2, this, 1.0, scale);
+        } else {
+            net.getBird().render(g2, this, 1.0, scale);
         }
+        scoreLayer.draw(g2, getScoreText(online.isPredicting() ? predicted.getTubeColumn().getPoints() : net.getScore()),
+                10, 50, scale);
+        speedLayer.draw(g2, getRoundText(net), 10, 100, scale);
+    }
 
-        g2.setColor(Color.black);
-        g.setFont(new Font("MV Boli", 1, Window.HEIGHT / 20));
-        g2.drawString("High Score: " + highScore, Window.WIDTH - Window.WIDTH / 4, 50);
+    // Round text, only rebuilt when the round changes or the bird crashes
+    private String getRoundText(NetClient net) {
+        int state = net.getRound() * 2 + (net.isAlive() ? 1 : 0);
+        if (state != shownRound) {
+            shownRound = state;
+            roundText = "Round " + net.getRound() + (net.isAlive() ? "" : " - watching until the next round");
+        }
+        return roundText;
+    }
 
-        g.dispose();
+    // Take in the server's snapshots; when the server goes away the game goes back to playing alone
+    private void pollServer() {
+        InputQueue jumps = keyboard.getJumps();
+        while (!jumps.isEmpty()) { // The client picks the tick for a jump itself, from when it learns of it
+            long eventNanos = jumps.poll();
+            if (online.isPredicting() && !online.getWorld().isGameOver()) {
+                online.jump();
+                audio.play(chirpSound); // The predicted world plays no sounds, it may play a tick twice
+                metrics.inputApplied(eventNanos, System.nanoTime());
+            }
+        }
+        try {
+            online.update(System.nanoTime());
+            if (!online.getNet().isClosed()) {
+                return;
+            }
+            System.out.println("The server closed the connection");
+        } catch (IOException e) {
+            System.out.println("Lost the server: " + e.getMessage());
+        }
+        leaveServer();
+    }
+
+    private void leaveServer() {
+        try {
+            online.close();
+        } catch (IOException e) {
+            // Gone anyway
+        }
+        online = null;
+    }
+
+    // Score text, only rebuilt when the score changes
+    private String getScoreText(int points) {
+        if (points != shownPoints) {
+            shownPoints = points;
+            scoreText = "Current score: " + points;
+        }
+        return scoreText;
+    }
+
+    // Speed text, only rebuilt when the speed changes
+    private String getSpeedText() {
+        double speed = this.world.getTubeColumn().getSpeed();
+        if (speed != shownSpeed) {
+            shownSpeed = speed;
+            speedText = String.format("Speed: %.1f", speed);
+        }
+        return speedText;
+    }
+
+    // High score text, only rebuilt when the high score changes
+    private String getHighScoreText() {
+        if (highScore != shownHighScore) {
+            shownHighScore = highScore;
+            highScoreText = "High Score: " + highScore;
+        }
+        return highScoreText;
+    }
+
+    // Stop the Swing timer, so that something else (e.g. a benchmark) drives the game
+    void stopTimer() {
+        timer.stop();
+    }
+
+    KeyListener getKeyAdapter() {
+        return keyAdapter;
+    }
+
+    // Play the following runs with up to the given number of tube columns on screen
+    synchronized void setColumns(int columns) {
+        this.columns = columns;
+    }
+
+    // Play every run on the daily challenge course, the same for everybody on the same day.
+    // Its first chunks are made in the background right away, so the first run starts without waiting
+    synchronized void setDailyCourse(boolean dailyCourse) {
+        this.dailyCourse = dailyCourse;
+        if (dailyCourse) {
+            Image birdImage = birdImages[selectedBirdIndex];
+            CourseGenerator course = CourseGenerator.forWorld(Window.WIDTH, Window.HEIGHT,
+                    birdImage.getWidth(null), birdImage.getHeight(null), columns);
+            long seed = CourseGenerator.dailySeed(LocalDate.now(ZoneOffset.UTC));
+            course.prefetch(seed, 0);
+            course.prefetch(seed, 1);
+        }
+    }
+
+    // Play on the multiplayer server at the given address instead of alone. Our bird is predicted, so jumps show
+    // straight away, and corrected from the server's snapshots
+    synchronized void connect(String host, int port) throws IOException {
+        online = RollbackClient.connect(host, port);
+        online.setImages(birdImages[selectedBirdIndex], birdImages[(selectedBirdIndex + 1) % birdImages.length],
+                tubeImage);
+    }
+
+    // Jump when the space bar goes down (the default) or when it comes back up
+    void setJumpTrigger(JumpTrigger trigger) {
+        keyboard.setTrigger(trigger);
+    }
+
+    // Frame rate the render quality is adjusted to hold
+    synchronized void setTargetFps(int targetFps) {
+        governor.setTargetFps(targetFps);
+    }
+
+    // Draw at the given quality from now on, instead of letting the governor adjust it
+    synchronized void setRenderQuality(RenderQuality quality) {
+        governor.fix(quality);
+    }
+
+    // Let the given strategy play from the next run on, e.g. one of the Bots
+    synchronized void setStrategy(IStrategy strategy) {
+        this.strategy = strategy;
     }
 
-    private void restartGame() {
+    // Log every finished run to the given store and take the high score from it
+    synchronized void setScoreStore(ScoreStore scores) {
+        this.scores = scores;
+        this.highScore = Math.max(highScore, scores.getBest());
+    }
+
+    // Write the runs still queued for the score store, when the game is closed
+    synchronized void closeScores() {
+        if (scores != null) {
+            try {
+                scores.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the score store: " + e.getMessage());
+            }
+            scores = null;
+        }
+    }
+
+    // Record every following run into the given directory, one replay file per run
+    synchronized void setReplayDirectory(String replayDirectory) {
+        this.replayDirectory = replayDirectory;
+    }
+
+    // Start recording the new world, if recording is switched on
+    private void startRecording() {
+        if (replayDirectory == null) {
+            return;
+        }
+        String file = new File(replayDirectory, "run-" + System.currentTimeMillis() + ".fbr").getPath();
+        try {
+            this.recorder = InputRecorder.toFile(file, world);
+            this.world.setRecorder(recorder);
+        } catch (IOException e) {
+            System.out.println("Could not record to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Write the end of the current recording, also used when the game is closed mid-run
+    synchronized void stopRecording() {
+        if (recorder != null) {
+            recorder.finish(world);
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the recording: " + e.getMessage());
+            }
+            world.setRecorder(null);
+            recorder = null;
+        }
+    }
+
+    void restartGame() {
         if (!isRunning) {
+            long start = System.nanoTime();
             this.isRunning = true;
             this.isInMenu = false;
             this.inBirdSelection = false;
-            this.difficultyFactor = 1.0; // Reset difficulty
-            this.gameStartTime = System.currentTimeMillis(); // Record start time
-            // Create bird with selected bird image
-            this.bird = new Bird(Window.WIDTH / 2, Window.HEIGHT / 2, selectedBirdImage);
-            this.tubeColumn = new TubeColumn(); // Create the wall object
+            // Start the last world over when it fits the selected bird image, so its bird and tubes are reused;
+            // only a new size, bird or column count needs a fresh world
+            Image birdImage = birdImages[selectedBirdIndex];
+            int birdWidth = birdImage.getWidth(null);
+            int birdHeight = birdImage.getHeight(null);
+            long seed = dailyCourse ? CourseGenerator.dailySeed(LocalDate.now(ZoneOffset.UTC)) : System.nanoTime();
+            if (world != null && world.hasSize(Window.WIDTH, Window.HEIGHT, birdWidth, birdHeight, columns)) {
+                world.reset(seed);
+            } else {
+                this.world = new World(Window.WIDTH, Window.HEIGHT, birdWidth, birdHeight, seed, columns);
+            }
+            this.world.getBird().setImage(birdImage);
+            this.world.getBird().setChirpSound(audio, chirpSound);
+            this.world.getTubeColumn().setTubeImage(tubeImage);
+            this.world.setMetrics(metrics);
+            startRecording();
+            this.simulation = new Simulation(world, Clock.SYSTEM); // Start the fixed timestep from now
+            this.simulation.setPolicy(strategy);
+            keyboard.getJumps().clear(); // Presses from the menu are not for this run
+            if (strategy == keyboard) {
+                this.simulation.setInput(keyboard.getJumps(), metrics);
+            }
+            metrics.record(Metrics.Phase.RESTART, System.nanoTime() - start);
         }
     }
 
@@ -608,15 +1227,21 @@ class Game extends JPanel implements ActionListener {
         this.isInMenu = true;
         // Play collision sound when game ends
         playCollisionSound();
+        stopRecording(); // Before the score is cleared, so the recording ends with it
 
-        if (this.tubeColumn.getPoints() > highScore) { // If the current score is higher than the high score
-            this.highScore = this.tubeColumn.getPoints(); // Set the high score to the current score
+        TubeColumn tubeColumn = this.world.getTubeColumn();
+        if (scores != null) { // Only queued, the store's own thread writes it
+            scores.submit(new ScoreRecord(world.getSeed(), selectedBirdIndex, tubeColumn.getPoints(),
+                    world.getTicks(), System.currentTimeMillis()));
         }
-        this.tubeColumn.setPoints(0); // Set the current score to 0
+        if (tubeColumn.getPoints() > highScore) { // If the current score is higher than the high score
+            this.highScore = tubeColumn.getPoints(); // Set the high score to the current score
+        }
+        tubeColumn.setPoints(0); // Set the current score to 0
     }
 
     // Show the bird selection screen
-    private void showBirdSelection() {
+    void showBirdSelection() {
         this.isInMenu = false;
         this.isRunning = false;
         this.inBirdSelection = true;
@@ -628,16 +1253,14 @@ class Game extends JPanel implements ActionListener {
         if (selectedBirdIndex < 0) {
             selectedBirdIndex = availableBirds.length - 1;
         }
-        selectedBirdImage = availableBirds[selectedBirdIndex];
     }
 
     // Select next bird
-    private void selectNextBird() {
+    void selectNextBird() {
         selectedBirdIndex++;
         if (selectedBirdIndex >= availableBirds.length) {
             selectedBirdIndex = 0;
         }
-        selectedBirdImage = availableBirds[selectedBirdIndex];
     }
 
     // Confirm bird selection and return to main menu
@@ -648,41 +1271,30 @@ class Game extends JPanel implements ActionListener {
 
     // Method to play the collision sound
     private void playCollisionSound() {
-        if (collisionSound != null) {
-            if (collisionSound.isRunning()) {
-                collisionSound.stop();
-            }
-            collisionSound.setFramePosition(0);
-            collisionSound.start();
-        }
-    }
-
-    private void checkColision() {
-        Rectangle rectBird = this.bird.getBounds(); // Get the bounds of the bird
-        Rectangle rectTube; // Create a variable to store the bounds of the wall
-
-        for (int i = 0; i < this.tubeColumn.getTubes().size(); i++) { // Loop through all the walls
-            Tube tempTube = this.tubeColumn.getTubes().get(i); // Get the current wall
-            rectTube = tempTube.getBounds(); // Get the bounds of the current wall
-            if (rectBird.intersects(rectTube)) { // If the bird has collided with the wall
-                endGame(); // End the game
-            }
-        }
+        audio.play(collisionSound);
     }
 
     class GameKeyAdapter extends KeyAdapter {
-        private final Controller controller;
-
-        public GameKeyAdapter() {
-            controller = new Controller();
-        }
-
         @Override
         public void keyPressed(KeyEvent e) {
+            if (e.getKeyCode() == KeyEvent.VK_SPACE) { // Timed before anything can hold the event thread up
+                keyboard.keyPressed(System.nanoTime());
+                return;
+            }
             // Add escape key to exit fullscreen
             if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
                 System.exit(0);
             }
+            synchronized (Game.this) { // The simulation and render threads may be using the game
+                handleKeyPressed(e);
+            }
+        }
+
+        private void handleKeyPressed(KeyEvent e) {
+            // F3 shows or hides the metrics overlay on any screen
+            if (e.getKeyCode() == KeyEvent.VK_F3) {
+                metrics.toggleOverlay();
+            }
             // Handle Enter key based on current screen
             else if (e.getKeyCode() == KeyEvent.VK_ENTER) {
                 if (inBirdSelection) {
@@ -707,21 +1319,45 @@ class Game extends JPanel implements ActionListener {
 
         @Override
         public void keyReleased(KeyEvent e) {
-            if (isRunning) {
-                controller.controllerReleased(bird, e);
+            if (e.getKeyCode() == KeyEvent.VK_SPACE) {
+                keyboard.keyReleased(System.nanoTime());
             }
         }
     }
 }
 
+// Splash class is what the window shows while the game loads: plain text on the sky colour, drawn without
+// any image so it can be on screen before a single asset is decoded
+class Splash extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private final Font font = new Font("MV Boli", Font.BOLD, Math.max(12, Window.HEIGHT / 20));
+
+    public Splash() {
+        setBackground(new Color(112, 197, 206));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        g.setColor(Color.white);
+        g.setFont(font);
+        FontMetrics fm = g.getFontMetrics();
+        String text = "Loading...";
+        g.drawString(text, (getWidth() - fm.stringWidth(text)) / 2, getHeight() / 2);
+    }
+}
+
 class Window {
     // Width and height will be set to screen dimensions
     public static int WIDTH;
     public static int HEIGHT;
 
-    public Window(int width, int height, String title, Game game) {
-        JFrame frame = new JFrame();
-        frame.add(game);
+    private final JFrame frame;
+
+    // The view is the Game panel itself, the canvas of an ActiveRenderer, or a splash shown until the game is ready
+    public Window(int width, int height, String title, Component view) {
+        frame = new JFrame();
+        frame.add(view);
         frame.setTitle(title);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Close the window when the user clicks the close button
 
@@ -737,22 +1373,164 @@ class Window {
         HEIGHT = screenSize.height;
     }
 
-    // Run the application from here
+    // Show another view in place of the current one, e.g. the game once it has loaded behind the splash
+    public void setView(Component view) {
+        frame.getContentPane().removeAll();
+        frame.add(view);
+        frame.validate();
+        view.requestFocusInWindow();
+    }
+
+    // Make the game on the event thread, like every Swing component, once the asset threads have loaded what it
+    // needs, so the event thread never waits for the disk and the splash keeps painting meanwhile
+    private static Game createGame(CompletableFuture<Void> assets) {
+        assets.join();
+        Game[] game = new Game[1];
+        try {
+            java.awt.EventQueue.invokeAndWait(() -> game[0] = new Game());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while starting the game", e);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            throw new IllegalStateException("Could not start the game", e.getCause());
+        }
+        return game[0];
+    }
+
+    // Run the application from here.
+    // Options: --active to render on a dedicated thread, --fps=N to cap it at N frames per second (0 = uncapped),
+    // --metrics=NAME to write the session's metrics to NAME.csv and NAME.json on exit,
+    // --record=DIR to record every run into DIR (play them back with java Replay),
+    // --bot=NAME to let a bot play (gap, lookahead, planner or learned),
+    // --columns=N to have up to N tube columns on screen at once, --daily to play the daily challenge course,
+    // --scores=DIR to keep the scores in DIR instead of .flappybird in the home directory, --scores=off to not keep them,
+    // --connect=HOST:PORT to play on a multiplayer server (start one with java MultiplayerServer serve),
+    // --jump-on=release to jump when the space bar comes back up, like the original game, instead of when it goes down
+    // --quality=LEVEL to always draw at native, high, medium, low or lowest resolution instead of adjusting it to
+    // hold the frame rate (auto, the default)
     public static void main(String[] args) {
+        boolean active = false;
+        int targetFps = 60;
+        String metricsFile = null;
+        String replayDirectory = null;
+        String bot = null;
+        int columns = 1;
+        boolean daily = false;
+        String scoreDirectory = new File(System.getProperty("user.home"), ".flappybird").getPath();
+        String server = null;
+        JumpTrigger jumpTrigger = JumpTrigger.PRESS;
+        RenderQuality quality = null; // Adjusted to hold the frame rate unless given
+        for (String arg : args) {
+            if (arg.equals("--active")) {
+                active = true;
+            } else if (arg.startsWith("--fps=")) {
+                targetFps = Integer.parseInt(arg.substring("--fps=".length()));
+            } else if (arg.startsWith("--metrics=")) {
+                metricsFile = arg.substring("--metrics=".length());
+            } else if (arg.startsWith("--record=")) {
+                replayDirectory = arg.substring("--record=".length());
+            } else if (arg.startsWith("--bot=")) {
+                bot = arg.substring("--bot=".length());
+            } else if (arg.startsWith("--columns=")) {
+                columns = Integer.parseInt(arg.substring("--columns=".length()));
+            } else if (arg.equals("--daily")) {
+                daily = true;
+            } else if (arg.startsWith("--scores=")) {
+                scoreDirectory = arg.substring("--scores=".length());
+            } else if (arg.startsWith("--connect=")) {
+                server = arg.substring("--connect=".length());
+            } else if (arg.startsWith("--jump-on=")) {
+                jumpTrigger = JumpTrigger.valueOf(arg.substring("--jump-on=".length()).toUpperCase(Locale.ROOT));
+            } else if (arg.startsWith("--quality=")) {
+                String name = arg.substring("--quality=".length()).toUpperCase(Locale.ROOT);
+                quality = name.equals("AUTO") ? null : RenderQuality.valueOf(name);
+            }
+        }
+
         // Set initial size to screen size
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
         WIDTH = screenSize.width;
         HEIGHT = screenSize.height;
 
-        Game game = new Game();
+        // The look and feel is set before any component exists, so all of them get it
         try {
             javax.swing.UIManager.setLookAndFeel(javax.swing.UIManager.getSystemLookAndFeelClassName());
         } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | javax.swing.UnsupportedLookAndFeelException ex) {
             java.util.logging.Logger.getLogger(Window.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
         }
 
-        java.awt.EventQueue.invokeLater(() -> {
-            Window window = new Window(WIDTH, HEIGHT, "Flappy Bird", game);
-        });
+        // Put the window up with a splash straight away, then decode every image and sound in parallel behind it
+        // and scale the background for the screen, so the first game frame neither waits for the disk nor rescales
+        Window[] window = new Window[1];
+        java.awt.EventQueue.invokeLater(() -> window[0] = new Window(WIDTH, HEIGHT, "Flappy Bird", new Splash()));
+        CompletableFuture<Void> assets = AssetRegistry.preloadAsync(Game.ASSETS);
+        AssetRegistry.prescaleAsync("background.jpg", WIDTH, HEIGHT, Transparency.OPAQUE);
+        Game game = createGame(assets);
+        if (replayDirectory != null) {
+            new File(replayDirectory).mkdirs();
+            game.setReplayDirectory(replayDirectory);
+        }
+        if (bot != null) {
+            game.setStrategy(Bots.create(bot));
+        }
+        game.setColumns(columns);
+        game.setDailyCourse(daily);
+        game.setJumpTrigger(jumpTrigger);
+        game.setTargetFps(active ? targetFps : 1000 / World.TICK_MILLIS); // The Swing timer paints once per tick
+        if (quality != null) {
+            game.setRenderQuality(quality);
+        }
+        if (server != null) {
+            int colon = server.lastIndexOf(':');
+            String host = colon < 0 ? server : server.substring(0, colon);
+            int port = colon < 0 ? NetProtocol.DEFAULT_PORT : Integer.parseInt(server.substring(colon + 1));
+            try {
+                game.connect(host, port);
+            } catch (IOException e) {
+                System.out.println("Playing alone, could not connect to " + server + ": " + e.getMessage());
+            }
+        }
+        if (!scoreDirectory.equals("off")) {
+            try {
+                game.setScoreStore(ScoreStore.open(Paths.get(scoreDirectory)));
+            } catch (IOException e) {
+                System.out.println("Playing without keeping scores: " + e.getMessage());
+            }
+        }
+
+        // Print the frame time percentiles when the game exits, and write the metrics files if asked to
+        String metricsName = metricsFile;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            game.stopRecording(); // Keep the run that was cut short
+            game.closeScores();
+            Metrics metrics = game.getMetrics();
+            System.out.println("Frame times: " + metrics.get(Metrics.Phase.FRAME).summary());
+            System.out.println("First frame " + metrics.getFirstFrameMillis() + " ms after launch, restarts: "
+                    + metrics.get(Metrics.Phase.RESTART).summary());
+            AudioMixer audio = game.getAudio();
+            if (audio.isAvailable()) {
+                System.out.println("Sound latency: " + audio.getLatency().summary()
+                        + ", underruns: " + audio.getUnderruns());
+            }
+            if (metricsName != null) {
+                try {
+                    metrics.writeCsv(metricsName + ".csv");
+                    metrics.writeJson(metricsName + ".json");
+                } catch (IOException e) {
+                    System.out.println("Could not write metrics: " + e.getMessage());
+                }
+            }
+        }));
+
+        // Runs after the splash window was made, events are handled in order
+        if (active) {
+            ActiveRenderer renderer = new ActiveRenderer(game, targetFps);
+            java.awt.EventQueue.invokeLater(() -> {
+                window[0].setView(renderer.getCanvas());
+                renderer.start();
+            });
+        } else {
+            java.awt.EventQueue.invokeLater(() -> window[0].setView(game));
+        }
     }
 }
@@ -0,0 +1,274 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Locale;
+
+// RenderQuality enum lists the levels a frame can be drawn at, best first: the fraction of the screen resolution
+// frames are drawn at, and how they are stretched back up to the screen. Every level draws no more pixels than the
+// one before it; whether that makes it cheaper depends on how cheaply the pipeline stretches, which QualityGovernor
+// measures. Bilinear looks smoother than nearest neighbour, which is cheaper to stretch
+enum RenderQuality {
+    NATIVE(1.0, true),          // Drawn straight onto the screen, no buffer
+    HIGH(0.85, true),
+    MEDIUM(0.7, true),
+    LOW(0.5, true),
+    LOWEST(0.5, false);
+
+    final double scale;
+    final boolean bilinear;
+
+    RenderQuality(double scale, boolean bilinear) {
+        this.scale = scale;
+        this.bilinear = bilinear;
+    }
+
+    RenderQuality lower() {
+        return this == LOWEST ? this : values()[ordinal() + 1];
+    }
+
+    RenderQuality higher() {
+        return this == NATIVE ? this : values()[ordinal() - 1];
+    }
+
+    @Override
+    public String toString() {
+        if (this == NATIVE) {
+            return "native";
+        }
+        return String.format(Locale.ROOT, "%d%% %s", Math.round(scale * 100), bilinear ? "bilinear" : "nearest");
+    }
+}
+
+// Framebuffer class draws frames at an internal resolution below the screen's and stretches them to the screen
+// with a single drawImage, so a large screen on a slow machine only costs as many pixels as the scale allows.
+// Nothing else is resampled: the game multiplies its screen positions by getScale and draws sprites cached at that
+// scale. On a real screen the buffer is a VolatileImage, so drawing into it and stretching it stay on the card
+class Framebuffer {
+    private RenderQuality quality = RenderQuality.NATIVE;
+    private Image buffer; // VolatileImage on a screen, BufferedImage otherwise; null at native resolution
+    private int bufferWidth;
+    private int bufferHeight;
+    private Graphics2D bufferGraphics; // Between begin and end, when drawing into the buffer
+
+    public void setQuality(RenderQuality quality) {
+        this.quality = quality;
+    }
+
+    public RenderQuality getQuality() {
+        return quality;
+    }
+
+    // Graphics to draw a frame of the given screen size into: the screen itself at native resolution, otherwise
+    // the buffer, in its own pixels
+    public Graphics2D begin(Graphics2D screen, int width, int height) {
+        if (quality == RenderQuality.NATIVE) {
+            bufferWidth = width;
+            bufferHeight = height;
+            return screen;
+        }
+        bufferWidth = Math.max(1, (int) Math.round(width * quality.scale));
+        bufferHeight = Math.max(1, (int) Math.round(height * quality.scale));
+        GraphicsConfiguration config = screen.getDeviceConfiguration();
+        if (config != null && config.getDevice().getType() == GraphicsDevice.TYPE_RASTER_SCREEN
+                && !GraphicsEnvironment.isHeadless()) {
+            VolatileImage image = buffer instanceof VolatileImage ? (VolatileImage) buffer : null;
+            if (image == null || image.getWidth() != bufferWidth || image.getHeight() != bufferHeight
+                    || image.validate(config) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                buffer = config.createCompatibleVolatileImage(bufferWidth, bufferHeight, Transparency.OPAQUE);
+            } // A restored image is drawn over whole, it needs nothing else
+            bufferGraphics = ((VolatileImage) buffer).createGraphics();
+        } else {
+            if (!(buffer instanceof BufferedImage)
+                    || buffer.getWidth(null) != bufferWidth || buffer.getHeight(null) != bufferHeight) {
+                buffer = new BufferedImage(bufferWidth, bufferHeight, BufferedImage.TYPE_INT_RGB);
+            }
+            bufferGraphics = ((BufferedImage) buffer).createGraphics();
+        }
+        Rectangle clip = screen.getClipBounds();
+        if (clip != null) { // Only part of the screen is painted, draw only the buffer pixels that cover it
+            int x = (int) Math.floor(clip.x * quality.scale);
+            int y = (int) Math.floor(clip.y * quality.scale);
+            bufferGraphics.clipRect(x, y, (int) Math.ceil((clip.x + clip.width) * quality.scale) - x + 1,
+                    (int) Math.ceil((clip.y + clip.height) * quality.scale) - y + 1);
+        }
+        return bufferGraphics;
+    }
+
+    // Size of what begin returned, in its own pixels
+    public int getWidth() {
+        return bufferWidth;
+    }
+
+    public int getHeight() {
+        return bufferHeight;
+    }
+
+    // Fraction of the screen resolution the frame from begin is drawn at
+    public double getScale() {
+        return quality.scale;
+    }
+
+    // Stretch the frame drawn since begin over the screen
+    public void end(Graphics2D screen, int width, int height) {
+        if (bufferGraphics == null) {
+            return;
+        }
+        bufferGraphics.dispose();
+        bufferGraphics = null;
+        Object hint = screen.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        screen.setRenderingHint(RenderingHints.KEY_INTERPOLATION, quality.bilinear
+                ? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        screen.drawImage(buffer, 0, 0, width, height, 0, 0, bufferWidth, bufferHeight, null);
+        if (hint != null) {
+            screen.setRenderingHint(RenderingHints.KEY_INTERPOLATION, hint);
+        }
+    }
+}
+
+// QualityGovernor class picks the render quality that holds the target frame rate. It collects the time between
+// frames and the time spent drawing them over a window of frames, then looks at the 95th percentiles: drawing that
+// eats most of the frame budget, or late frames with drawing a real part of them, lower the quality one level, and
+// several windows in a row with plenty of budget left raise it one level again.
+// Whether a lower level is cheaper depends on the pipeline: on a graphics card stretching the buffer is almost free,
+// in software a bilinear stretch of a whole frame can cost more than drawing it at full size. So the cost of every
+// level is measured, and a level that turns out no cheaper than the one above it is put back and skipped from then on.
+// Only frames of a game being played count, menus are only drawn when something changes
+class QualityGovernor {
+    private static final int WINDOW_FRAMES = 90; // Frames per decision, about 1.5 s at 60 FPS
+    private static final long WINDOW_NANOS = 1_000_000_000L; // Decide after this long even with fewer frames
+    private static final int MIN_FRAMES = 5; // But not on fewer frames than this
+    private static final int PROBE_FRAMES = 3; // Frames to tell whether a level just lowered to is any cheaper
+    private static final int WINDOWS_TO_RAISE = 3; // Good windows in a row needed to raise the quality
+    private static final double LATE = 1.2; // Frame times above this many frame periods are late
+    private static final double BUSY = 0.8; // Drawing taking more than this part of a frame period is too slow
+    private static final double IDLE = 0.4; // Drawing taking less than this part leaves room for a better level
+    private static final double GAIN = 0.9; // A lower level has to draw in this part of the time of the one above
+
+    private final Framebuffer framebuffer;
+    private final Metrics metrics;
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram drawTimes = new LatencyHistogram();
+    private final long[] costs = new long[RenderQuality.values().length]; // p95 draw time last measured per level
+    private final boolean[] skipped = new boolean[RenderQuality.values().length]; // Levels that saved nothing
+    private long periodNanos;
+    private boolean enabled = true;
+    private long lastFrame; // Start of the last frame counted, 0 when the next one starts a new run of frames
+    private long windowStart;
+    private int goodWindows;
+    private RenderQuality lowered; // Level the quality was just lowered from, to check the new one is cheaper
+    private boolean settling; // The first frame at a new level fills the sprite cache at its scale, not counted
+
+    public QualityGovernor(Framebuffer framebuffer, Metrics metrics, int targetFps) {
+        this.framebuffer = framebuffer;
+        this.metrics = metrics;
+        setTargetFps(targetFps);
+    }
+
+    public void setTargetFps(int targetFps) {
+        this.periodNanos = 1_000_000_000L / (targetFps > 0 ? targetFps : 60); // Uncapped still aims for 60
+    }
+
+    // Keep the given quality from now on instead of adjusting it
+    public void fix(RenderQuality quality) {
+        enabled = false;
+        framebuffer.setQuality(quality);
+        metrics.renderQualityChanged(quality.toString(), "fixed");
+    }
+
+    // A full game frame started at the given time and took the given time to draw
+    public void frameDrawn(long start, long drawNanos) {
+        if (!enabled) {
+            return;
+        }
+        if (settling) {
+            settling = false;
+            lastFrame = start;
+            return;
+        }
+        if (lastFrame != 0) {
+            frameTimes.record(start - lastFrame);
+        }
+        if (drawTimes.getCount() == 0) {
+            windowStart = start;
+        }
+        drawTimes.record(drawNanos);
+        lastFrame = start;
+        long frames = drawTimes.getCount();
+        if (frames >= WINDOW_FRAMES || (frames >= MIN_FRAMES && start - windowStart >= WINDOW_NANOS)
+                || (lowered != null && frames >= PROBE_FRAMES)) { // A level slower than the last is not kept long
+            decide();
+        }
+    }
+
+    // A frame that is not part of a game, the next game frame cannot be timed from the last one
+    public void skipped() {
+        lastFrame = 0;
+    }
+
+    private void decide() {
+        long frame = frameTimes.getValueAtPercentile(95);
+        long draw = drawTimes.getValueAtPercentile(95);
+        frameTimes.reset();
+        drawTimes.reset();
+        RenderQuality current = framebuffer.getQuality();
+        costs[current.ordinal()] = draw;
+
+        if (lowered != null) {
+            RenderQuality above = lowered;
+            lowered = null;
+            if (draw > costs[above.ordinal()] * GAIN) {
+                skipped[current.ordinal()] = true;
+                goodWindows = 0;
+                change(above, String.format(Locale.ROOT, "%s no cheaper than %s (%s), skipped from now on",
+                        current, above, measured(frame, draw)));
+                return;
+            }
+        }
+        if (draw > periodNanos * BUSY || (frame > periodNanos * LATE && draw > periodNanos * IDLE)) {
+            goodWindows = 0;
+            RenderQuality next = next(current, true);
+            if (next != current) {
+                lowered = current;
+                change(next, "lowered, " + measured(frame, draw));
+            }
+        } else if (draw < periodNanos * IDLE && next(current, false) != current) {
+            if (++goodWindows >= WINDOWS_TO_RAISE) {
+                goodWindows = 0;
+                change(next(current, false), "raised, " + measured(frame, draw));
+            }
+        } else {
+            goodWindows = 0;
+        }
+    }
+
+    // Only formatted when the quality changes, deciding to keep it allocates nothing
+    private static String measured(long frame, long draw) {
+        return String.format(Locale.ROOT, "p95 frame %.1f ms draw %.1f ms", frame / 1e6, draw / 1e6);
+    }
+
+    // The next level down or up that was not found to save nothing, or the same level if there is none
+    private RenderQuality next(RenderQuality quality, boolean lower) {
+        RenderQuality next = quality;
+        do {
+            RenderQuality step = lower ? next.lower() : next.higher();
+            if (step == next) {
+                return quality;
+            }
+            next = step;
+        } while (skipped[next.ordinal()]);
+        return next;
+    }
+
+    private void change(RenderQuality quality, String reason) {
+        framebuffer.setQuality(quality);
+        settling = true;
+        metrics.renderQualityChanged(quality.toString(), reason);
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// JumpTrigger enum says which edge of the jump key makes the bird jump
+enum JumpTrigger {
+    PRESS,  // As soon as the key goes down, the default
+    RELEASE // When the key comes back up, as the original game did; every jump is late by as long as it is held
+}
+
+// InputQueue class hands the times (System.nanoTime) of input events from one thread to another without locks:
+// a ring of longs with a write position only the producer moves and a read position only the consumer moves,
+// so neither ever waits for the other and nothing is allocated. Meant for one producer and one consumer at a time
+// (the consumer may change threads when they hand over under a lock). When the ring is full, events are dropped
+class InputQueue {
+    private final long[] events;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // Next event to read, only moved by the consumer
+    private final AtomicLong tail = new AtomicLong(); // Next slot to write, only moved by the producer
+    private long dropped; // Written by the producer only
+
+    // The capacity is rounded up to a power of two
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.events = new long[size];
+        this.mask = size - 1;
+    }
+
+    // Add an event, false when the queue is full and it was dropped. Producer only
+    public boolean offer(long nanos) {
+        long t = tail.get();
+        if (t - head.get() == events.length) {
+            dropped++;
+            return false;
+        }
+        events[(int) t & mask] = nanos;
+        tail.lazySet(t + 1); // Publishes the event written above
+        return true;
+    }
+
+    // Consumer only
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    // Time of the oldest event without taking it; only valid when the queue is not empty. Consumer only
+    public long peek() {
+        return events[(int) head.get() & mask];
+    }
+
+    // Take the oldest event; only valid when the queue is not empty. Consumer only
+    public long poll() {
+        long h = head.get();
+        long nanos = events[(int) h & mask];
+        head.lazySet(h + 1);
+        return nanos;
+    }
+
+    // Forget every event queued so far. Consumer only
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+}
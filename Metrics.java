@@ -0,0 +1,274 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+// Metrics class times the phases of the game loop in latency histograms, samples GC and allocation once per
+// second, draws the numbers as an on-screen overlay and writes them to CSV and JSON files at the end.
+// Every phase has a single writer thread: the simulation thread times the tick phases and input reaching the
+// simulation, the render thread (or the Swing event thread) times painting, frames and input reaching the screen
+class Metrics {
+    // Phase enum lists what is timed
+    enum Phase {
+        UPDATE,     // Game.update: all ticks due for one timer event
+        BIRD_TICK,  // Bird.tick
+        TUBE_TICK,  // TubeColumn.tick
+        COLLISION,  // World.checkCollision
+        PAINT,      // Drawing one frame
+        FRAME,      // Time between two frames reaching the screen
+        INPUT_TO_SIM,   // From a jump key event to the simulation applying the jump
+        INPUT_TO_FRAME, // From a jump key event to the first frame showing its tick reaching the screen
+        RESTART     // Game.restartGame: from asking for a new game to it being ready to play
+    }
+
+    private static final long SAMPLE_PERIOD_NANOS = 1_000_000_000L;
+    static final int OVERLAY_RIGHT = 525; // Right edge of the overlay box
+
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final long startGcCount;
+    private final long startGcMillis;
+    private long lastFrame; // When the last frame reached the screen
+    private final InputQueue appliedInputs = new InputQueue(64); // Event times of jumps applied, not yet drawn
+    private final long[] drawnInputs = new long[64]; // Event times of jumps on the frame being shown
+    private int drawnInputCount;
+    private long firstFrameMillis = -1; // Time from the start of the JVM to the first game frame on screen
+    private String renderQuality = RenderQuality.NATIVE.toString(); // Resolution and scaling frames are drawn with
+    private String renderDecision = "none yet"; // Why the render quality was last changed
+    private int renderQualityChanges;
+
+    // Rates over the last sample period, kept with the overlay text they were last formatted into
+    private long sampleStart;
+    private long sampleFrames;
+    private long sampleGcCount;
+    private long sampleGcMillis;
+    private long sampleAllocated;
+    private double fps;
+    private double gcPausesPerSecond;
+    private double gcMillisPerSecond;
+    private double allocatedMegabytesPerSecond;
+    private String[] overlayLines = {"Collecting metrics..."};
+    private final Font overlayFont = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+    private boolean overlayVisible;
+
+    public Metrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+        startGcCount = gcCount();
+        startGcMillis = gcMillis();
+        sampleStart = System.nanoTime();
+        sampleGcCount = startGcCount;
+        sampleGcMillis = startGcMillis;
+        sampleAllocated = allocatedBytes();
+    }
+
+    public void record(Phase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram get(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    // Call from the simulation when it applied a jump for the input event at the given time
+    public void inputApplied(long eventNanos, long now) {
+        record(Phase.INPUT_TO_SIM, now - eventNanos);
+        appliedInputs.offer(eventNanos);
+    }
+
+    // Call from the render thread when a frame is drawn, with the game locked so every tick applied so far
+    // is on the frame. The jumps applied by then count as shown with this frame
+    public void frameDrawn() {
+        while (!appliedInputs.isEmpty()) {
+            long eventNanos = appliedInputs.poll();
+            if (drawnInputCount < drawnInputs.length) {
+                drawnInputs[drawnInputCount++] = eventNanos;
+            }
+        }
+    }
+
+    // Call when a frame has reached the screen
+    public void frameShown() {
+        long now = System.nanoTime();
+        if (lastFrame != 0) {
+            record(Phase.FRAME, now - lastFrame);
+        } else {
+            firstFrameMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+        for (int i = 0; i < drawnInputCount; i++) {
+            record(Phase.INPUT_TO_FRAME, now - drawnInputs[i]);
+        }
+        drawnInputCount = 0;
+        lastFrame = now;
+        sampleFrames++;
+        if (now - sampleStart >= SAMPLE_PERIOD_NANOS) {
+            sample(now);
+        }
+    }
+
+    // Call from the render thread when the render quality was changed, by the quality governor or by hand
+    public void renderQualityChanged(String quality, String reason) {
+        renderQuality = quality;
+        renderDecision = reason;
+        renderQualityChanges++;
+    }
+
+    // Work out the rates over the last period and format the overlay text, about once per second
+    private void sample(long now) {
+        double seconds = (now - sampleStart) / 1e9;
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocated = allocatedBytes();
+
+        fps = sampleFrames / seconds;
+        gcPausesPerSecond = (gcCount - sampleGcCount) / seconds;
+        gcMillisPerSecond = (gcMillis - sampleGcMillis) / seconds;
+        allocatedMegabytesPerSecond = (allocated - sampleAllocated) / seconds / (1 << 20);
+
+        sampleStart = now;
+        sampleFrames = 0;
+        sampleGcCount = gcCount;
+        sampleGcMillis = gcMillis;
+        sampleAllocated = allocated;
+
+        LatencyHistogram frame = get(Phase.FRAME);
+        overlayLines = new String[] {
+                String.format("FPS %.1f  frame p50 %.2f ms  p99 %.2f ms  max %.2f ms", fps,
+                        frame.getValueAtPercentile(50) / 1e6, frame.getValueAtPercentile(99) / 1e6, frame.getMax() / 1e6),
+                phaseLine(Phase.UPDATE), phaseLine(Phase.BIRD_TICK), phaseLine(Phase.TUBE_TICK),
+                phaseLine(Phase.COLLISION), phaseLine(Phase.PAINT), phaseLine(Phase.RESTART),
+                inputLine(Phase.INPUT_TO_SIM), inputLine(Phase.INPUT_TO_FRAME),
+                String.format("First frame %d ms after launch", firstFrameMillis),
+                String.format("Render %s, %d changes, last %s", renderQuality, renderQualityChanges, renderDecision),
+                String.format("GC %.1f pauses/s  %.1f ms/s   alloc %.2f MB/s",
+                        gcPausesPerSecond, gcMillisPerSecond, allocatedMegabytesPerSecond)
+        };
+    }
+
+    private String phaseLine(Phase phase) {
+        LatencyHistogram histogram = get(phase);
+        return String.format("%-9s p50 %8.1f us  p99 %8.1f us", phase,
+                histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3);
+    }
+
+    // Input latencies are milliseconds, too long for the microsecond columns
+    private String inputLine(Phase phase) {
+        LatencyHistogram histogram = get(phase);
+        return String.format("%-14s p50 %6.2f ms  p99 %6.2f ms  (%d)", phase, histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6, histogram.getCount());
+    }
+
+    // Milliseconds from the start of the JVM to the first frame on screen, -1 before it
+    public long getFirstFrameMillis() {
+        return firstFrameMillis;
+    }
+
+    public void toggleOverlay() {
+        overlayVisible = !overlayVisible;
+    }
+
+    public boolean isOverlayVisible() {
+        return overlayVisible;
+    }
+
+    // Top edge of the overlay box on a screen of the given height; it spans from there to the bottom
+    public int getOverlayTop(int screenHeight) {
+        int lineHeight = overlayFont.getSize() + 4;
+        return screenHeight - (overlayLines.length + 1) * lineHeight - 20;
+    }
+
+    // Draw the overlay in the bottom left corner, if it is switched on
+    public void renderOverlay(Graphics2D g, int screenHeight) {
+        if (!overlayVisible) {
+            return;
+        }
+        String[] lines = overlayLines;
+        int lineHeight = overlayFont.getSize() + 4;
+        int top = screenHeight - lines.length * lineHeight - 20;
+        g.setColor(Color.black);
+        g.fillRect(5, top - lineHeight, OVERLAY_RIGHT - 5, lines.length * lineHeight + 15);
+        g.setColor(Color.green);
+        g.setFont(overlayFont);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 10, top + i * lineHeight);
+        }
+    }
+
+    private long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // Bytes allocated by every live thread in the process
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    // Write one row per phase (all times in nanoseconds), plus the GC totals of the session
+    public void writeCsv(String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.println("phase,count,mean,p50,p90,p99,p999,max");
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram h = get(phase);
+                out.printf(Locale.ROOT, "%s,%d,%.1f,%d,%d,%d,%d,%d%n", phase, h.getCount(), h.getMean(),
+                        h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99),
+                        h.getValueAtPercentile(99.9), h.getMax());
+            }
+            out.printf(Locale.ROOT, "GC,%d,%d,,,,,%n", gcCount() - startGcCount, gcMillis() - startGcMillis);
+            out.printf(Locale.ROOT, "FIRST_FRAME_MS,%d,,,,,,%n", firstFrameMillis);
+            out.printf(Locale.ROOT, "RENDER_QUALITY,%d,%s,,,,,%n", renderQualityChanges, renderQuality);
+        }
+    }
+
+    // Same numbers as the CSV file, as JSON
+    public void writeJson(String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.println("{");
+            out.println("  \"unit\": \"ns\",");
+            out.println("  \"phases\": {");
+            Phase[] all = Phase.values();
+            for (int i = 0; i < all.length; i++) {
+                LatencyHistogram h = get(all[i]);
+                out.printf(Locale.ROOT, "    \"%s\": {\"count\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, "
+                                + "\"p99\": %d, \"p999\": %d, \"max\": %d}%s%n", all[i], h.getCount(), h.getMean(),
+                        h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99),
+                        h.getValueAtPercentile(99.9), h.getMax(), i < all.length - 1 ? "," : "");
+            }
+            out.println("  },");
+            out.printf(Locale.ROOT, "  \"gc\": {\"collections\": %d, \"millis\": %d},%n",
+                    gcCount() - startGcCount, gcMillis() - startGcMillis);
+            out.printf(Locale.ROOT, "  \"firstFrameMillis\": %d,%n", firstFrameMillis);
+            out.printf(Locale.ROOT, "  \"render\": {\"quality\": \"%s\", \"changes\": %d, \"lastDecision\": \"%s\"}%n",
+                    renderQuality, renderQualityChanges, renderDecision);
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,696 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// NetProtocol class holds the messages spoken between MultiplayerServer and NetClient over TCP.
+// A message is a type byte and its fields, mostly varints so small numbers take one byte. A snapshot only
+// carries what changed since the last snapshot sent to the same client, as zigzag varints of the differences;
+// TCP keeps them in order, so both ends always agree on what the last one was.
+//
+// Server to client:
+//   ROUND    slot, capacity, seed (8 bytes), width, height, bird width, bird height, round, tick.
+//            Starts a round (or joins it at the given tick): the client makes the same course from the seed,
+//            so no tube is ever sent, and every bird it tracks starts from the bird's start position
+//   SNAPSHOT ticks since the last snapshot, alive bits (own bird, then every neighbour), then the changes of
+//            own y, own dy (fixed point) and own score, and the change of every neighbour's y
+//   PONG     the client's 8 byte time stamp, then the tick, y, dy and score of the last snapshot sent to it and
+//            the sum of its neighbours' y, so a client can check that it decoded every snapshot right
+// Client to server:
+//   JUMP     jump on the next tick
+//   PING     8 byte time stamp, answered with a PONG
+//   JUMP_AT  4 byte tick: jump before that tick, the way World.step would. A client predicting its own bird
+//            (RollbackClient) stamps its jumps with the tick it played them on; one that arrives too late
+//            jumps on the next tick, and the snapshots show the client where its prediction went wrong
+final class NetProtocol {
+    static final int DEFAULT_PORT = 7345;
+    static final byte ROUND = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte PONG = 3;
+    static final byte JUMP = 1;
+    static final byte PING = 2;
+    static final byte JUMP_AT = 3;
+    static final int NEIGHBOURS = 8; // Other birds every client is told about, the ones in the next slots
+    static final double DY_SCALE = 65536; // Falling speed is sent as a fixed point number with 16 fraction bits
+    static final int DY_TOLERANCE = 64; // BirdSwarm adds up rounded gravity, a World bird's speed can be this far off
+
+    private NetProtocol() {
+    }
+
+    // Number of neighbours every client of a server with the given capacity sees
+    static int neighbours(int capacity) {
+        return Math.min(NEIGHBOURS, capacity - 1);
+    }
+
+    // Slot of the given neighbour of a slot
+    static int neighbour(int slot, int index, int capacity) {
+        return (slot + 1 + index) % capacity;
+    }
+
+    static int quantizeDy(double dy) {
+        return (int) Math.round(dy * DY_SCALE);
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Reads a varint, throws BufferUnderflowException when the buffer ends in the middle of it
+    static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint longer than 10 bytes");
+    }
+
+    // Differences go through zigzag encoding, so small negative numbers stay small too
+    static void putSigned(ByteBuffer buffer, long value) {
+        putVarint(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getSigned(ByteBuffer buffer) {
+        long value = getVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
+
+// MultiplayerServer class runs the authoritative game for many players on one course: one BirdSwarm with a slot
+// per player, ticked on the fixed timestep by a single thread that also does all the networking with non-blocking
+// NIO sockets. Between two ticks it reads whatever the clients sent, so all jumps that came in are applied together
+// on the next tick; after the tick clients get their snapshot in one write. Sending is what costs (a system call
+// per client), so every client gets a snapshot every few ticks, covering all of them, and each tick sends to its
+// share of the clients so the work is spread evenly. How many ticks a snapshot covers follows the load: when the
+// server is busy for most of the tick it sends less often, when it idles it sends more often again. A client whose
+// socket cannot keep up has snapshots skipped instead of queued, so one slow client never holds up the others.
+// A round ends a while after the last bird crashed and the next one starts on a new seed with everybody
+// connected; players who join in the middle of a round watch until then
+class MultiplayerServer implements Closeable, Runnable {
+    private static final long TICK_NANOS = World.TICK_MILLIS * 1_000_000L;
+    private static final int MAX_CATCH_UP_TICKS = 10; // Ticks run at most in one go before the backlog is dropped
+    private static final int ROUND_PAUSE_TICKS = 100; // Ticks between the last crash and the next round
+    private static final int OUT_BUFFER_SIZE = 1024;
+    private static final int BACKLOG_LIMIT = 512; // Unsent bytes a client may have before its snapshots are skipped
+    private static final int ACCEPT_BACKLOG = 4096;
+    private static final int ACCEPT_BATCH = 64; // Connections taken per wakeup, the rest wait in the backlog
+    private static final int MAX_SNAPSHOT_EVERY = 32; // At least two snapshots a second however busy
+    private static final int GOVERNOR_TICKS = 66; // Ticks between two looks at the load, about a second
+    private static final double BUSY_HIGH = 0.6; // Share of the time busy above which snapshots are sent less often
+    private static final double BUSY_LOW = 0.3; // and below which they are sent more often again
+    private static final int JUMP_QUEUE = 4; // Stamped jumps waiting for their tick per player, more are applied at once
+
+    // Connection class is one connected client: its socket and buffers, and the slot its bird has
+    private static final class Connection {
+        final SocketChannel channel;
+        final int slot;
+        final ByteBuffer in = ByteBuffer.allocate(64);
+        final ByteBuffer out = ByteBuffer.allocate(OUT_BUFFER_SIZE);
+        SelectionKey key;
+        boolean roundPending; // A new round started, told with the next snapshot
+
+        Connection(SocketChannel channel, int slot) {
+            this.channel = channel;
+            this.slot = slot;
+        }
+    }
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final int capacity;
+    private final int width;
+    private final int height;
+    private final int birdWidth;
+    private final int birdHeight;
+    private final long baseSeed;
+    private final int minSnapshotEvery; // Ticks between two snapshots when the server is not busy
+    private int snapshotEvery; // Ticks between two snapshots now
+    private int mostSnapshotEvery;
+    private final int neighbours;
+    private final Connection[] players; // Connection of every slot, null when the slot is free
+    private final int[] freeSlots; // Stack of the free slots, lowest on top
+    private int freeCount;
+
+    // What the last snapshot sent to every slot said, the base of the next one
+    private final long[] sentTick;
+    private final int[] sentY;
+    private final int[] sentDy;
+    private final int[] sentScore;
+    private final int[] sentNeighbourY; // neighbours entries per slot
+
+    // Stamped jumps that came in before their tick, JUMP_QUEUE entries per slot in the order they came
+    private final long[] jumpTicks;
+    private final int[] queuedJumps;
+    private int totalQueuedJumps;
+
+    private BirdSwarm swarm;
+    private long seed;
+    private int round;
+    private long roundOverTick = -1; // Tick the last bird crashed, -1 while some are still flying
+    private volatile boolean running = true;
+
+    private final LatencyHistogram tickTimes = new LatencyHistogram(); // Tick plus sending the snapshots
+    private long ticks;
+    private long lateTicks; // Ticks dropped because the server fell behind
+    private long snapshotsSent;
+    private long snapshotBytes;
+    private long snapshotsSkipped;
+    private long bytesSent;
+    private long jumpsReceived;
+    private long lateJumps; // Stamped jumps that came in after their tick
+    private long connectionsAccepted;
+    private volatile int connected;
+    private int mostConnected;
+
+    public MultiplayerServer(int port, int capacity, int width, int height, int birdWidth, int birdHeight,
+                             long seed, int snapshotEvery) throws IOException {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("A server needs room for at least 2 players, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.width = width;
+        this.height = height;
+        this.birdWidth = birdWidth;
+        this.birdHeight = birdHeight;
+        this.baseSeed = seed;
+        this.minSnapshotEvery = Math.max(1, snapshotEvery);
+        this.snapshotEvery = minSnapshotEvery;
+        this.mostSnapshotEvery = minSnapshotEvery;
+        this.neighbours = NetProtocol.neighbours(capacity);
+        this.players = new Connection[capacity];
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+        this.sentTick = new long[capacity];
+        this.sentY = new int[capacity];
+        this.sentDy = new int[capacity];
+        this.sentScore = new int[capacity];
+        this.sentNeighbourY = new int[capacity * neighbours];
+        this.jumpTicks = new long[capacity * JUMP_QUEUE];
+        this.queuedJumps = new int[capacity];
+
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        startRound();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // Serve on the calling thread until closed
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime() + TICK_NANOS;
+        long governed = System.nanoTime(); // Start of the period the load is measured over
+        long idle = 0; // Time spent waiting in it
+        try {
+            while (running) {
+                long waitStart = System.nanoTime();
+                long wait = nextTick - waitStart;
+                if (wait >= 1_000_000) {
+                    selector.select(wait / 1_000_000);
+                } else {
+                    selector.selectNow();
+                }
+                long waitEnd = System.nanoTime();
+                idle += waitEnd - waitStart;
+                handleEvents();
+
+                if (waitEnd - governed >= GOVERNOR_TICKS * TICK_NANOS) {
+                    governSnapshots(1.0 - (double) idle / (waitEnd - governed));
+                    governed = waitEnd;
+                    idle = 0;
+                }
+
+                long now = System.nanoTime();
+                int steps = 0;
+                while (now >= nextTick && running) {
+                    tick();
+                    nextTick += TICK_NANOS;
+                    if (++steps == MAX_CATCH_UP_TICKS) { // Fell far behind, skip ahead instead of spiralling
+                        long behind = (System.nanoTime() - nextTick) / TICK_NANOS;
+                        if (behind > 0) {
+                            lateTicks += behind;
+                            nextTick += behind * TICK_NANOS;
+                        }
+                        break;
+                    }
+                    now = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Server stopped: " + e.getMessage());
+        } finally {
+            closeChannels();
+        }
+    }
+
+    // Stop serving, run() returns and closes every connection
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void handleEvents() throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                acceptAll();
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    read(connection);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(connection);
+                }
+            } catch (IOException e) { // Reset by the client, treated like a normal disconnect
+                disconnect(connection);
+            }
+        }
+    }
+
+    // Take the waiting connections, a batch at a time so a crowd joining at once does not hold up the ticks
+    private void acceptAll() throws IOException {
+        SocketChannel channel;
+        for (int accepted = 0; accepted < ACCEPT_BATCH && (channel = serverChannel.accept()) != null; accepted++) {
+            if (freeCount == 0) { // Full, the client sees the connection closed
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // Snapshots are small and late is useless
+            Connection connection = new Connection(channel, freeSlots[--freeCount]);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            players[connection.slot] = connection;
+            connectionsAccepted++;
+            connected++;
+            mostConnected = Math.max(mostConnected, connected);
+
+            // The slot's bird was killed when it was left or the round started without it, so a new player
+            // watches the rest of the round
+            swarm.kill(connection.slot);
+            sendRound(connection);
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                disconnect(connection);
+            }
+        }
+    }
+
+    // Take in everything the client sent: jumps are only flagged, the next tick applies all of them
+    private void read(Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        int read = connection.channel.read(in);
+        if (read < 0) {
+            disconnect(connection);
+            return;
+        }
+        in.flip();
+        while (in.hasRemaining()) {
+            byte type = in.get(in.position());
+            if (type == NetProtocol.JUMP) {
+                in.get();
+                swarm.jump(connection.slot);
+                jumpsReceived++;
+            } else if (type == NetProtocol.JUMP_AT) {
+                if (in.remaining() < 5) {
+                    break;
+                }
+                in.get();
+                queueJump(connection.slot, in.getInt());
+                jumpsReceived++;
+            } else if (type == NetProtocol.PING) {
+                if (in.remaining() < 9) {
+                    break;
+                }
+                in.get();
+                sendPong(connection, in.getLong());
+            } else {
+                System.out.println("Unknown message " + type + " from slot " + connection.slot);
+                disconnect(connection);
+                return;
+            }
+        }
+        in.compact();
+        if (connection.out.position() > 0) {
+            flush(connection);
+        }
+    }
+
+    private void disconnect(Connection connection) {
+        if (players[connection.slot] != connection) {
+            return; // Already gone
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        players[connection.slot] = null;
+        totalQueuedJumps -= queuedJumps[connection.slot];
+        queuedJumps[connection.slot] = 0;
+        swarm.kill(connection.slot);
+        freeSlots[freeCount++] = connection.slot;
+        connected--;
+    }
+
+    // Write as much of the client's queued messages as its socket takes, and wait for it to take the rest
+    private void flush(Connection connection) throws IOException {
+        ByteBuffer out = connection.out;
+        out.flip();
+        bytesSent += connection.channel.write(out);
+        out.compact();
+        int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (connection.key.interestOps() != ops) {
+            connection.key.interestOps(ops);
+        }
+    }
+
+    // Send less often when the server was busy for most of the last period, and more often again when it idled.
+    // Backing off doubles, coming back is one tick at a time, so it does not swing between the two
+    private void governSnapshots(double busy) {
+        if (busy > BUSY_HIGH && snapshotEvery < MAX_SNAPSHOT_EVERY) {
+            snapshotEvery = Math.min(MAX_SNAPSHOT_EVERY, snapshotEvery * 2);
+        } else if (busy < BUSY_LOW && snapshotEvery > minSnapshotEvery) {
+            snapshotEvery--;
+        }
+        mostSnapshotEvery = Math.max(mostSnapshotEvery, snapshotEvery);
+    }
+
+    // Keep a stamped jump for its tick; one for a tick already gone, or one that does not fit, jumps right away
+    private void queueJump(int slot, long tick) {
+        if (tick < swarm.getTicks()) {
+            lateJumps++;
+            swarm.jump(slot);
+            return;
+        }
+        int base = slot * JUMP_QUEUE;
+        if (queuedJumps[slot] == JUMP_QUEUE) { // Make room by jumping for the oldest now
+            swarm.jump(slot);
+            System.arraycopy(jumpTicks, base + 1, jumpTicks, base, JUMP_QUEUE - 1);
+            queuedJumps[slot]--;
+            totalQueuedJumps--;
+        }
+        jumpTicks[base + queuedJumps[slot]++] = tick;
+        totalQueuedJumps++;
+    }
+
+    // Hand the swarm every stamped jump whose tick has come
+    private void applyQueuedJumps() {
+        long tick = swarm.getTicks();
+        for (int slot = 0; slot < capacity && totalQueuedJumps > 0; slot++) {
+            int base = slot * JUMP_QUEUE;
+            int due = 0;
+            while (due < queuedJumps[slot] && jumpTicks[base + due] <= tick) {
+                due++;
+            }
+            if (due > 0) {
+                swarm.jump(slot);
+                System.arraycopy(jumpTicks, base + due, jumpTicks, base, queuedJumps[slot] - due);
+                queuedJumps[slot] -= due;
+                totalQueuedJumps -= due;
+            }
+        }
+    }
+
+    // One tick of the game, then the snapshots of this tick's share of the clients
+    private void tick() {
+        long start = System.nanoTime();
+        if (totalQueuedJumps > 0) {
+            applyQueuedJumps();
+        }
+        swarm.tick();
+        ticks++;
+        long tick = swarm.getTicks();
+        if (swarm.getAliveCount() == 0) {
+            if (roundOverTick < 0) {
+                roundOverTick = tick;
+            } else if (tick - roundOverTick >= ROUND_PAUSE_TICKS && connected > 0) {
+                startRound();
+            }
+        }
+        for (int slot = (int) (ticks % snapshotEvery); slot < capacity; slot += snapshotEvery) {
+            Connection connection = players[slot];
+            if (connection == null) {
+                continue;
+            }
+            if (connection.roundPending) {
+                sendRound(connection);
+            }
+            writeSnapshot(connection);
+            if (players[slot] == connection) { // Not dropped for falling too far behind
+                try {
+                    flush(connection);
+                } catch (IOException e) {
+                    disconnect(connection);
+                }
+            }
+        }
+        tickTimes.record(System.nanoTime() - start);
+    }
+
+    // A new course with a bird for every connected player, who are told with their next snapshot
+    private void startRound() {
+        round++;
+        seed = baseSeed + round;
+        swarm = new BirdSwarm(capacity, width, height, birdWidth, birdHeight, seed);
+        Arrays.fill(queuedJumps, 0); // Stamped with ticks of the last round
+        totalQueuedJumps = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (players[slot] == null) {
+                swarm.kill(slot);
+            } else {
+                players[slot].roundPending = true;
+            }
+        }
+        roundOverTick = -1;
+    }
+
+    // Tell a client about the round, and start its snapshots over from the start position
+    private void sendRound(Connection connection) {
+        ByteBuffer out = connection.out;
+        if (out.remaining() < 64) { // Too far behind to ever catch up
+            disconnect(connection);
+            return;
+        }
+        connection.roundPending = false;
+        int slot = connection.slot;
+        long tick = swarm.getTicks();
+        out.put(NetProtocol.ROUND);
+        NetProtocol.putVarint(out, slot);
+        NetProtocol.putVarint(out, capacity);
+        out.putLong(seed);
+        NetProtocol.putVarint(out, width);
+        NetProtocol.putVarint(out, height);
+        NetProtocol.putVarint(out, birdWidth);
+        NetProtocol.putVarint(out, birdHeight);
+        NetProtocol.putVarint(out, round);
+        NetProtocol.putVarint(out, tick);
+
+        int startY = height / 2 - birdHeight;
+        sentTick[slot] = tick;
+        sentY[slot] = startY;
+        sentDy[slot] = NetProtocol.quantizeDy(1);
+        sentScore[slot] = 0;
+        for (int j = 0; j < neighbours; j++) {
+            sentNeighbourY[slot * neighbours + j] = startY;
+        }
+    }
+
+    // The state of the client's bird and its neighbours, as changes since the last snapshot it was sent.
+    // Skipped when the client has not taken the earlier ones yet; the next snapshot is then based on the last
+    // one that was queued, so nothing is lost, it just covers more ticks
+    private void writeSnapshot(Connection connection) {
+        ByteBuffer out = connection.out;
+        if (out.position() > BACKLOG_LIMIT || players[connection.slot] != connection) {
+            snapshotsSkipped++;
+            return;
+        }
+        int slot = connection.slot;
+        long tick = swarm.getTicks();
+        int y = swarm.getY(slot);
+        int dy = NetProtocol.quantizeDy(swarm.getDy(slot));
+        int score = swarm.getScore(slot);
+        long alive = swarm.isAlive(slot) ? 1 : 0;
+        for (int j = 0; j < neighbours; j++) {
+            if (swarm.isAlive(NetProtocol.neighbour(slot, j, capacity))) {
+                alive |= 2L << j;
+            }
+        }
+
+        int start = out.position();
+        out.put(NetProtocol.SNAPSHOT);
+        NetProtocol.putVarint(out, tick - sentTick[slot]);
+        NetProtocol.putVarint(out, alive);
+        NetProtocol.putSigned(out, y - sentY[slot]);
+        NetProtocol.putSigned(out, dy - sentDy[slot]);
+        NetProtocol.putSigned(out, score - sentScore[slot]);
+        int base = slot * neighbours;
+        for (int j = 0; j < neighbours; j++) {
+            int neighbourY = swarm.getY(NetProtocol.neighbour(slot, j, capacity));
+            NetProtocol.putSigned(out, neighbourY - sentNeighbourY[base + j]);
+            sentNeighbourY[base + j] = neighbourY;
+        }
+        sentTick[slot] = tick;
+        sentY[slot] = y;
+        sentDy[slot] = dy;
+        sentScore[slot] = score;
+        snapshotsSent++;
+        snapshotBytes += out.position() - start;
+    }
+
+    private void sendPong(Connection connection, long timeStamp) {
+        ByteBuffer out = connection.out;
+        if (out.remaining() < 64) {
+            return; // The client is not reading, it gets no answer
+        }
+        int slot = connection.slot;
+        long neighbourSum = 0;
+        for (int j = 0; j < neighbours; j++) {
+            neighbourSum += sentNeighbourY[slot * neighbours + j];
+        }
+        out.put(NetProtocol.PONG);
+        out.putLong(timeStamp);
+        NetProtocol.putVarint(out, sentTick[slot]);
+        NetProtocol.putSigned(out, sentY[slot]);
+        NetProtocol.putSigned(out, sentDy[slot]);
+        NetProtocol.putVarint(out, sentScore[slot]);
+        NetProtocol.putVarint(out, neighbourSum);
+    }
+
+    private void closeChannels() {
+        for (Connection connection : players) {
+            if (connection != null) {
+                disconnect(connection);
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the server socket: " + e.getMessage());
+        }
+    }
+
+    public int getConnected() {
+        return connected;
+    }
+
+    // Summary of the server's work so far, read it after run() returned
+    public String summary() {
+        return String.format("%d ticks (%d dropped), %d clients at most, %d connections, %d jumps (%d late)%n"
+                        + "Tick + send: %s%n"
+                        + "%d snapshots sent (%.1f bytes each), %d skipped for slow clients, %.1f MB sent, "
+                        + "a snapshot every %d ticks now and every %d at most",
+                ticks, lateTicks, mostConnected, connectionsAccepted, jumpsReceived, lateJumps,
+                tickTimes.summary(),
+                snapshotsSent, snapshotsSent == 0 ? 0.0 : (double) snapshotBytes / snapshotsSent,
+                snapshotsSkipped, bytesSent / 1e6, snapshotEvery, mostSnapshotEvery);
+    }
+
+    public LatencyHistogram getTickTimes() {
+        return tickTimes;
+    }
+
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getJumpsReceived() {
+        return jumpsReceived;
+    }
+
+    public long getLateJumps() {
+        return lateJumps;
+    }
+
+    // java MultiplayerServer serve [port] [capacity] [snapshot every N ticks at most] serves until killed.
+    // Without arguments it tests itself over loopback: a server here and a LoadGenerator in a second process
+    // (every process may only have so many sockets open) with [clients] [seconds] clients for so long
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("serve")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : NetProtocol.DEFAULT_PORT;
+            int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 16384;
+            int snapshotEvery = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            MultiplayerServer server = new MultiplayerServer(port, capacity, 1920, 1080,
+                    World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, System.nanoTime(), snapshotEvery);
+            System.out.println("Serving " + capacity + " players on port " + server.getPort());
+            server.run();
+            return;
+        }
+
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        MultiplayerServer server = new MultiplayerServer(0, clients + 16, 1920, 1080,
+                World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, 42, 1);
+        Thread serverThread = new Thread(server, "Multiplayer server");
+        serverThread.start();
+
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "LoadGenerator", "localhost",
+                Integer.toString(server.getPort()), Integer.toString(clients), Integer.toString(seconds))
+                .inheritIO().start();
+        int exitCode = process.waitFor();
+        server.close();
+        serverThread.join();
+
+        System.out.println("Server: " + server.summary());
+        int failures = exitCode == 0 ? 0 : 1;
+        // The server's own work has to fit in a tick. Slow ticks and dropped ticks also count the time the load
+        // generator took the core away, so they are only held to a bound when both sides have cores of their own
+        long medianTick = server.getTickTimes().getValueAtPercentile(50);
+        if (medianTick > TICK_NANOS) {
+            System.out.printf("The median tick took %.1f ms, over the %d ms budget%n", medianTick / 1e6,
+                    World.TICK_MILLIS);
+            failures++;
+        }
+        double dropped = (double) server.getLateTicks() / (server.getTicks() + server.getLateTicks());
+        if (dropped > 0.02) { // A few are lost while everybody connects at once
+            if (Runtime.getRuntime().availableProcessors() > 2) {
+                System.out.printf("The server dropped %.1f%% of its ticks%n", dropped * 100);
+                failures++;
+            } else {
+                System.out.printf("The server dropped %.1f%% of its ticks, not counted with the clients on the "
+                        + "same processors%n", dropped * 100);
+            }
+        }
+        System.out.println(failures == 0 ? "All multiplayer checks passed" : failures + " multiplayer checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,562 @@
+import java.awt.Image;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+// NetClient class is one player of a MultiplayerServer. It sends the player's jumps and rebuilds the state from the
+// server's snapshots: its own bird and its neighbours, and when following the course also the tubes, which it makes
+// itself from the round's seed with the same generator the server uses. It never blocks, poll() takes in whatever
+// has arrived, so the game can call it every frame
+class NetClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer in;
+    private final ByteBuffer out = ByteBuffer.allocate(256);
+    private final boolean followCourse; // Make the course and the birds to draw, the load generator does without
+    private final int[] neighbourChanges = new int[NetProtocol.NEIGHBOURS]; // Read before a snapshot is applied
+
+    // The round
+    private int slot = -1; // -1 until the first round message came in
+    private int capacity;
+    private int neighbours;
+    private long seed;
+    private int round;
+    private long roundStartTick; // Tick of the round when we were told about it, 0 unless we joined late
+    private int width;
+    private int height;
+    private int birdWidth;
+    private int birdHeight;
+
+    // The last snapshot
+    private long tick;
+    private int y;
+    private int dy; // Fixed point, see NetProtocol.DY_SCALE
+    private int score;
+    private long alive; // Bit 0 for the own bird, then one bit per neighbour
+    private final int[] neighbourY = new int[NetProtocol.NEIGHBOURS];
+
+    // What is drawn, only made when following the course
+    private TubeColumn course;
+    private long courseTick; // Ticks the course has been moved on
+    private Bird bird;
+    private final Bird[] neighbourBirds = new Bird[NetProtocol.NEIGHBOURS];
+    private Image birdImage;
+    private Image neighbourImage;
+    private Image tubeImage;
+
+    private boolean closed;
+    private long rounds;
+    private long snapshots;
+    private long pongs;
+    private long mismatches; // Pongs that did not agree with the decoded snapshots
+    private long bytesRead;
+    private long lastRoundTrip = -1;
+
+    public NetClient(SocketChannel channel, int bufferSize, boolean followCourse) throws IOException {
+        this.channel = channel;
+        this.in = ByteBuffer.allocate(bufferSize);
+        this.followCourse = followCourse;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // A jump should not wait for the next one
+    }
+
+    // Connect to a server, e.g. to play on it from the game
+    public static NetClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        return new NetClient(channel, 64 * 1024, true);
+    }
+
+    // Draw the own bird, the other birds and the tubes with these images
+    public void setImages(Image birdImage, Image neighbourImage, Image tubeImage) {
+        this.birdImage = birdImage;
+        this.neighbourImage = neighbourImage;
+        this.tubeImage = tubeImage;
+        if (course != null) {
+            applyImages();
+        }
+    }
+
+    // Ask for a jump on the server's next tick
+    public void jump() throws IOException {
+        if (out.remaining() >= 1) {
+            out.put(NetProtocol.JUMP);
+        }
+        send();
+    }
+
+    // Ask for a jump before the given tick, for a client that already played it on its own copy of the game
+    public void jumpAt(long tick) throws IOException {
+        if (out.remaining() >= 5) {
+            out.put(NetProtocol.JUMP_AT);
+            out.putInt((int) tick);
+        }
+        send();
+    }
+
+    // Ask for a pong, which measures the round trip and checks the decoded snapshots against the server
+    public void ping() throws IOException {
+        if (out.remaining() >= 9) {
+            out.put(NetProtocol.PING);
+            out.putLong(System.nanoTime());
+        }
+        send();
+    }
+
+    // Write what is queued; a socket that is full takes the rest with the next message
+    private void send() throws IOException {
+        out.flip();
+        channel.write(out);
+        out.compact();
+    }
+
+    // Take in what the server sent since the last call and return how many messages it was
+    public int poll() throws IOException {
+        if (out.position() > 0) {
+            send();
+        }
+        int read = channel.read(in);
+        if (read < 0) {
+            closed = true;
+            return 0;
+        }
+        bytesRead += read;
+        in.flip();
+        int messages = 0;
+        while (in.hasRemaining()) {
+            int start = in.position();
+            try {
+                readMessage();
+                messages++;
+            } catch (BufferUnderflowException e) { // The rest of it is still on its way
+                in.position(start);
+                break;
+            }
+        }
+        in.compact();
+        return messages;
+    }
+
+    // Read one whole message before changing any state, so one cut off in the middle can simply be read again
+    private void readMessage() throws IOException {
+        byte type = in.get();
+        if (type == NetProtocol.SNAPSHOT) {
+            long ticks = NetProtocol.getVarint(in);
+            long newAlive = NetProtocol.getVarint(in);
+            int yChange = (int) NetProtocol.getSigned(in);
+            int dyChange = (int) NetProtocol.getSigned(in);
+            int scoreChange = (int) NetProtocol.getSigned(in);
+            for (int j = 0; j < neighbours; j++) {
+                neighbourChanges[j] = (int) NetProtocol.getSigned(in);
+            }
+            tick += ticks;
+            alive = newAlive;
+            y += yChange;
+            dy += dyChange;
+            score += scoreChange;
+            for (int j = 0; j < neighbours; j++) {
+                neighbourY[j] += neighbourChanges[j];
+            }
+            snapshots++;
+            if (followCourse) {
+                showSnapshot();
+            }
+        } else if (type == NetProtocol.ROUND) {
+            int newSlot = (int) NetProtocol.getVarint(in);
+            int newCapacity = (int) NetProtocol.getVarint(in);
+            long newSeed = in.getLong();
+            int newWidth = (int) NetProtocol.getVarint(in);
+            int newHeight = (int) NetProtocol.getVarint(in);
+            int newBirdWidth = (int) NetProtocol.getVarint(in);
+            int newBirdHeight = (int) NetProtocol.getVarint(in);
+            int newRound = (int) NetProtocol.getVarint(in);
+            long startTick = NetProtocol.getVarint(in);
+            startRound(newSlot, newCapacity, newSeed, newWidth, newHeight, newBirdWidth, newBirdHeight, newRound,
+                    startTick);
+        } else if (type == NetProtocol.PONG) {
+            long timeStamp = in.getLong();
+            long sentTick = NetProtocol.getVarint(in);
+            int sentY = (int) NetProtocol.getSigned(in);
+            int sentDy = (int) NetProtocol.getSigned(in);
+            int sentScore = (int) NetProtocol.getVarint(in);
+            long neighbourSum = NetProtocol.getVarint(in);
+            long sum = 0;
+            for (int j = 0; j < neighbours; j++) {
+                sum += neighbourY[j];
+            }
+            if (sentTick != tick || sentY != y || sentDy != dy || sentScore != score || neighbourSum != sum) {
+                mismatches++;
+            }
+            lastRoundTrip = System.nanoTime() - timeStamp;
+            pongs++;
+        } else {
+            throw new IOException("Unknown message " + type + " from the server");
+        }
+    }
+
+    // Everything starts over from the start position, like the server's record of what it sent us
+    private void startRound(int slot, int capacity, long seed, int width, int height, int birdWidth,
+                            int birdHeight, int round, long startTick) {
+        this.slot = slot;
+        this.capacity = capacity;
+        this.neighbours = NetProtocol.neighbours(capacity);
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.birdWidth = birdWidth;
+        this.birdHeight = birdHeight;
+        this.round = round;
+        this.roundStartTick = startTick;
+        this.tick = startTick;
+        this.y = height / 2 - birdHeight;
+        this.dy = NetProtocol.quantizeDy(1);
+        this.score = 0;
+        this.alive = 0;
+        for (int j = 0; j < neighbours; j++) {
+            neighbourY[j] = y;
+        }
+        rounds++;
+        if (followCourse) {
+            course = new TubeColumn(width, height,
+                    CourseGenerator.forWorld(width, height, birdWidth, birdHeight, 1), seed, 1);
+            courseTick = 0;
+            bird = new Bird(width / 2, height / 2, birdWidth, birdHeight, width, height);
+            for (int j = 0; j < neighbours; j++) {
+                neighbourBirds[j] = new Bird(width / 2, height / 2, birdWidth, birdHeight, width, height);
+            }
+            applyImages();
+            showSnapshot(); // A player joining late sees the course where it is now
+        }
+    }
+
+    // Move the course on to the snapshot's tick the way BirdSwarm does, and put the birds where the server has them
+    private void showSnapshot() {
+        while (courseTick < tick) {
+            course.setDifficultyFactor(World.difficultyAt(courseTick));
+            course.tick();
+            courseTick++;
+        }
+        bird.savePosition();
+        bird.setY(y);
+        bird.setDy(dy / NetProtocol.DY_SCALE);
+        for (int j = 0; j < neighbours; j++) {
+            neighbourBirds[j].savePosition();
+            neighbourBirds[j].setY(neighbourY[j]);
+        }
+    }
+
+    private void applyImages() {
+        course.setTubeImage(tubeImage);
+        bird.setImage(birdImage);
+        for (int j = 0; j < neighbours; j++) {
+            neighbourBirds[j].setImage(neighbourImage);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBirdWidth() {
+        return birdWidth;
+    }
+
+    public int getBirdHeight() {
+        return birdHeight;
+    }
+
+    // Whether the first round message came in, before that there is nothing to show
+    public boolean hasRound() {
+        return slot >= 0;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isAlive() {
+        return (alive & 1) != 0;
+    }
+
+    public boolean isNeighbourAlive(int index) {
+        return (alive & (2L << index)) != 0;
+    }
+
+    public int getNeighbours() {
+        return neighbours;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public long getRoundStartTick() {
+        return roundStartTick;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    // Falling speed of the own bird in the fixed point of NetProtocol.quantizeDy
+    public int getQuantizedDy() {
+        return dy;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getNeighbourY(int index) {
+        return neighbourY[index];
+    }
+
+    public TubeColumn getCourse() {
+        return course;
+    }
+
+    public Bird getBird() {
+        return bird;
+    }
+
+    public Bird getNeighbourBird(int index) {
+        return neighbourBirds[index];
+    }
+
+    public long getRounds() {
+        return rounds;
+    }
+
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    public long getPongs() {
+        return pongs;
+    }
+
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    // Round trip of the last pong in nanoseconds, -1 before the first one
+    public long getLastRoundTrip() {
+        return lastRoundTrip;
+    }
+}
+
+// LoadGenerator class plays a MultiplayerServer with thousands of clients over loopback, all on one thread with one
+// selector. Every client jumps now and then and pings every few seconds, which measures the round trip and checks
+// its decoded snapshots against what the server sent. At the end it prints what the clients got and exits with 1
+// when a client was refused, got nothing, or decoded something the server did not send
+class LoadGenerator {
+    private static final int MAX_PENDING_CONNECTS = 256; // Connects in flight at once, so the accept queue keeps up
+    private static final int JUMP_ONE_IN = 24; // Chance of a client jumping on a tick, when its bird is alive
+    private static final int PING_EVERY_TICKS = 333; // About every 5 seconds
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : NetProtocol.DEFAULT_PORT;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        Selector selector = Selector.open();
+        NetClient[] clients = new NetClient[count];
+
+        // Connect everybody, a few hundred at a time
+        long connectStart = System.nanoTime();
+        int started = 0;
+        int connected = 0;
+        int refused = 0;
+        while (connected + refused < count) {
+            while (started < count && started - connected - refused < MAX_PENDING_CONNECTS) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, started);
+                started++;
+            }
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isConnectable()) { // Already connected, keep up with what the server sends
+                    ((NetClient) key.attachment()).poll();
+                    continue;
+                }
+                int index = (Integer) key.attachment();
+                SocketChannel channel = (SocketChannel) key.channel();
+                try {
+                    channel.finishConnect();
+                    clients[index] = new NetClient(channel, 2048, false);
+                    key.interestOps(SelectionKey.OP_READ);
+                    key.attach(clients[index]);
+                    connected++;
+                } catch (IOException e) {
+                    key.cancel();
+                    channel.close();
+                    refused++;
+                }
+            }
+        }
+        System.out.printf("%d clients connected in %.1f s, %d refused%n",
+                connected, (System.nanoTime() - connectStart) / 1e9, refused);
+
+        // Play until the time is up, then ask everybody for a last pong to check the final state
+        Random random = new Random(7);
+        LatencyHistogram roundTrips = new LatencyHistogram();
+        long tickNanos = World.TICK_MILLIS * 1_000_000L;
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long nextTick = start + tickNanos;
+        long tickCount = 0;
+        long pingsSent = 0;
+        long closedByServer = 0;
+        boolean finalPings = false;
+        long stop = end + 2_000_000_000L;
+        while (System.nanoTime() < stop) {
+            selector.select(Math.max(1, (nextTick - System.nanoTime()) / 1_000_000));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NetClient client = (NetClient) key.attachment();
+                long pongsBefore = client.getPongs();
+                try {
+                    client.poll();
+                } catch (IOException e) {
+                    client.close();
+                }
+                if (client.getPongs() != pongsBefore) {
+                    roundTrips.record(client.getLastRoundTrip());
+                }
+                if (client.isClosed()) {
+                    key.cancel();
+                    closedByServer++;
+                }
+            }
+
+            long now = System.nanoTime();
+            if (now >= nextTick) {
+                nextTick += tickNanos;
+                if (now > nextTick) { // Behind, no point in making up for the lost ticks
+                    nextTick = now + tickNanos;
+                }
+                tickCount++;
+                for (int i = 0; i < count; i++) {
+                    NetClient client = clients[i];
+                    if (client == null || client.isClosed()) {
+                        continue;
+                    }
+                    try {
+                        if (now >= end) {
+                            if (!finalPings) {
+                                client.ping();
+                                pingsSent++;
+                            }
+                        } else {
+                            if (client.isAlive() && random.nextInt(JUMP_ONE_IN) == 0) {
+                                client.jump();
+                            }
+                            if ((tickCount + i) % PING_EVERY_TICKS == 0) {
+                                client.ping();
+                                pingsSent++;
+                            }
+                        }
+                    } catch (IOException e) {
+                        client.close();
+                    }
+                }
+                if (now >= end) {
+                    finalPings = true;
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long snapshots = 0;
+        long pongs = 0;
+        long mismatches = 0;
+        long bytes = 0;
+        long rounds = 0;
+        int starved = 0;
+        long fewest = Long.MAX_VALUE;
+        for (NetClient client : clients) {
+            if (client == null) {
+                continue;
+            }
+            snapshots += client.getSnapshots();
+            pongs += client.getPongs();
+            mismatches += client.getMismatches();
+            bytes += client.getBytesRead();
+            rounds += client.getRounds();
+            fewest = Math.min(fewest, client.getSnapshots());
+            if (client.getSnapshots() == 0) {
+                starved++;
+            }
+            client.close();
+        }
+        selector.close();
+
+        System.out.printf("%d clients for %.1f s: %.1f snapshots per client per second (fewest %d in total), "
+                        + "%.1f rounds each, %.0f kB/s in%n",
+                connected, elapsed, snapshots / (double) Math.max(1, connected) / elapsed, fewest,
+                rounds / (double) Math.max(1, connected), bytes / elapsed / 1e3);
+        System.out.printf("%d pings, %d pongs, %d did not match the snapshots, %d clients closed by the server%n",
+                pingsSent, pongs, mismatches, closedByServer);
+        System.out.println("Round trip: " + roundTrips.summary());
+
+        int failures = 0;
+        if (refused > 0 || closedByServer > 0) {
+            System.out.println("Not every client stayed connected");
+            failures++;
+        }
+        if (starved > 0) {
+            System.out.println(starved + " clients got no snapshot");
+            failures++;
+        }
+        if (mismatches > 0 || pongs < pingsSent * 9 / 10) {
+            System.out.println("Snapshots were lost or decoded wrong");
+            failures++;
+        }
+        System.out.println(failures == 0 ? "All load generator checks passed" : failures + " load generator checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
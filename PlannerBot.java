@@ -0,0 +1,213 @@
+// PlannerBot class searches jump/no-jump sequences several columns ahead on copies of the world, so it sees the
+// real upcoming gaps and plays with exactly the game's physics. It keeps a path of decisions that survives
+// HORIZON_TICKS ahead and plays its first decision; every decision played, the path moves on by one and the search
+// only has to add a decision at the far end, backtracking when that end crashes. The depth first search is spread
+// over the ticks, at most NODES_PER_TICK decisions tried per tick, so no tick pays for a whole search: a new game
+// or a bird somebody else moved starts a path from scratch, and it is played while it is still being deepened.
+// The search allocates nothing once its copies of the world exist
+class PlannerBot implements IStrategy {
+    private static final int STEP_TICKS = 3; // Ticks per decision, the bird can only jump on the first
+    private static final int HORIZON_TICKS = 600; // About three columns at top speed
+    private static final int DEPTH = HORIZON_TICKS / STEP_TICKS;
+    private static final int NODES_PER_TICK = 24; // Decisions tried per tick at most, each copies the world once
+
+    private World[] stack; // stack[d] is the world after the first d decisions of the path, stack[0] the one now
+    private final boolean[] plan = new boolean[DEPTH]; // Decision d of the path, jump or not
+    private final boolean[] first = new boolean[DEPTH]; // Choice tried first at every depth
+    private final byte[] tried = new byte[DEPTH]; // How many of the two choices were tried at every depth
+    private int depth = -1; // Decisions on the path, -1 when there is no path to deepen
+    private long rootTick; // Tick of stack[0]
+    private boolean committed; // plan[0] was played, the search may not take it back
+
+    private long searches;
+    private long nodes; // Decisions tried, i.e. world copies made
+    private long fallbacks; // Decisions made without a path because every branch crashed
+
+    // Forget the last game's path, so one planner, with its copies of the world, can play game after game
+    // without allocating them again
+    public PlannerBot newGame() {
+        depth = -1;
+        return this;
+    }
+
+    @Override
+    public boolean shouldJump(World world) {
+        if (world.isGameOver()) {
+            return false;
+        }
+        ensureStack(world);
+        long offset = world.getTicks() - rootTick;
+        if (committed && offset == STEP_TICKS && depth >= 1) { // The decision played is done, move the path on
+            advance();
+            offset = 0;
+        }
+        if (depth < 0 || offset < 0 || offset >= STEP_TICKS || (offset == 0 && committed)
+                || !sameGame(stack[0], world, offset == 0)) {
+            restart(world); // New game, somebody else moved the bird, or the path ran out
+            offset = 0;
+        }
+        search(NODES_PER_TICK);
+        if (offset != 0) {
+            return false;
+        }
+        if (depth == 0) {
+            search(2); // Both choices of the root need an answer before one is played
+        }
+        if (depth < 1) {
+            fallbacks++;
+            depth = -1;
+            Bird bird = world.getBird();
+            int gapMiddle = (world.getGapTop() + world.getGapBottom()) / 2;
+            return bird.getY() + bird.getHeight() > gapMiddle && bird.getDy() >= 0;
+        }
+        committed = true;
+        return plan[0];
+    }
+
+    private void ensureStack(World world) {
+        if (stack == null || stack[0].getWidth() != world.getWidth() || stack[0].getHeight() != world.getHeight()
+                || stack[0].getBird().getWidth() != world.getBird().getWidth()
+                || stack[0].getBird().getHeight() != world.getBird().getHeight()
+                || stack[0].getColumns() != world.getColumns()) {
+            stack = new World[DEPTH + 1];
+            for (int d = 0; d <= DEPTH; d++) {
+                stack[d] = new World(world.getWidth(), world.getHeight(),
+                        world.getBird().getWidth(), world.getBird().getHeight(), 0, world.getColumns());
+            }
+            depth = -1;
+        }
+    }
+
+    // Whether the world is the game the path was made for; at a decision the bird must be where the path has it
+    private static boolean sameGame(World root, World world, boolean atDecision) {
+        return root.getSeed() == world.getSeed() && (!atDecision || (root.getTicks() == world.getTicks()
+                && root.getBird().getY() == world.getBird().getY()
+                && root.getBird().getDy() == world.getBird().getDy()));
+    }
+
+    // Start a new path from the world as it is now
+    private void restart(World world) {
+        searches++;
+        stack[0].copyFrom(world);
+        rootTick = world.getTicks();
+        depth = 0;
+        tried[0] = 0;
+        first[0] = prefersJump(world);
+        committed = false;
+    }
+
+    // Drop the decision that was played: the world after it becomes the root, the path is one decision shorter
+    private void advance() {
+        World played = stack[0];
+        System.arraycopy(stack, 1, stack, 0, DEPTH);
+        stack[DEPTH] = played;
+        System.arraycopy(plan, 1, plan, 0, DEPTH - 1);
+        System.arraycopy(first, 1, first, 0, DEPTH - 1);
+        System.arraycopy(tried, 1, tried, 0, DEPTH - 1);
+        if (depth == DEPTH) { // The last world of the path is now the end to deepen from
+            tried[DEPTH - 1] = 0;
+            first[DEPTH - 1] = prefersJump(stack[DEPTH - 1]);
+        }
+        depth--;
+        rootTick += STEP_TICKS;
+        committed = false;
+    }
+
+    // Depth first search for a path that survives to the horizon, trying at most the given number of decisions.
+    // It stops where it is and goes on from there next time. It never backtracks past a decision that was played:
+    // when everything after it crashes, the path is left at the root and the next decision starts over.
+    // With nothing played, a root whose choices both crash leaves depth at -1
+    private void search(int budget) {
+        int floor = committed ? 1 : 0;
+        while (budget > 0 && depth >= floor && depth < DEPTH) {
+            if (tried[depth] == 2) { // Both choices from here crash before the horizon, try the parent's other one
+                depth--;
+                continue;
+            }
+            boolean jump = tried[depth]++ == 0 ? first[depth] : !first[depth];
+            World child = stack[depth + 1];
+            child.copyFrom(stack[depth]);
+            nodes++;
+            budget--;
+            child.step(jump);
+            for (int t = 1; t < STEP_TICKS && !child.isGameOver(); t++) {
+                child.step(false);
+            }
+            if (!child.isGameOver()) {
+                plan[depth] = jump;
+                depth++;
+                if (depth < DEPTH) {
+                    tried[depth] = 0;
+                    first[depth] = prefersJump(child);
+                }
+            }
+        }
+    }
+
+    // Try the gap follower's choice first, it is right most of the time
+    private static boolean prefersJump(World world) {
+        Bird bird = world.getBird();
+        int gapMiddle = (world.getGapTop() + world.getGapBottom()) / 2;
+        return bird.getY() + bird.getHeight() > gapMiddle && bird.getDy() >= 0;
+    }
+
+    public long getSearches() {
+        return searches;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    // Play games with the planner and print the score and how long its decisions take: games, max ticks, seed.
+    // Exits with 1 when the 99th percentile of the time a tick spends in the planner is over 50 us
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        long maxTicks = args.length > 1 ? Long.parseLong(args[1]) : 40_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        LatencyHistogram decisions = new LatencyHistogram();
+        LatencyHistogram topSpeedDecisions = new LatencyHistogram(); // With the tubes at their 6.5 speed cap
+        PlannerBot bot = new PlannerBot();
+        long totalScore = 0;
+        int crashes = 0;
+        for (int game = -1; game < games; game++) { // Game -1 warms the JIT up and is not counted
+            World world = new World(1920, 1080, seed + game);
+            bot.newGame();
+            while (!world.isGameOver() && world.getTicks() < maxTicks) {
+                long start = System.nanoTime();
+                boolean jump = bot.shouldJump(world);
+                long nanos = System.nanoTime() - start;
+                if (game >= 0) {
+                    decisions.record(nanos);
+                    if (world.getTubeColumn().getSpeed() >= 6.5) {
+                        topSpeedDecisions.record(nanos);
+                    }
+                }
+                world.step(jump);
+            }
+            if (game >= 0) {
+                totalScore += world.getTubeColumn().getPoints();
+                if (world.isGameOver()) {
+                    crashes++;
+                }
+            }
+        }
+        System.out.printf("%d games of up to %d ticks: mean score %.2f, %d crashed%n",
+                games, maxTicks, (double) totalScore / games, crashes);
+        System.out.println("Decision time:           " + decisions.summary());
+        System.out.println("Decision time top speed: " + topSpeedDecisions.summary());
+        System.out.printf("%d searches started, %.2f world copies per tick, %d fallback decisions%n",
+                bot.getSearches(), (double) bot.getNodes() / Math.max(1, decisions.getCount()), bot.getFallbacks());
+        long p99 = decisions.getValueAtPercentile(99);
+        if (p99 > 50_000) {
+            System.out.printf("The planner took %.1f us in a 99th percentile tick, over the 50 us target%n", p99 / 1e3);
+            System.exit(1);
+        }
+        System.out.println("All planner checks passed");
+    }
+}
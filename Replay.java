@@ -0,0 +1,279 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// InputRecorder class writes a game to a compact binary log while it is played: the seed and sizes of the world,
+// then one record per jump holding only the number of ticks since the previous one, and an end record with the
+// final tick, score and state hash. The log is streamed, so a run of any length is never held in memory.
+//
+// Layout: magic, version, seed, world width and height, bird width and height, columns, then varint records.
+// A record is (tick delta << 1 | type), type 0 is a jump before that tick, type 1 is the end followed by
+// the score as a varint and the state hash as a long
+class InputRecorder implements Closeable {
+    static final int MAGIC = 0x46425250; // "FBRP"
+    static final int VERSION = 4; // 2: collisions are swept, 3: column count in the header, 4: generated courses
+    static final int JUMP = 0;
+    static final int END = 1;
+
+    private final DataOutputStream out;
+    private long lastTick; // Tick of the previous record, records store the distance to it
+    private long jumps;
+    private boolean finished;
+    private IOException error; // First write error, recording stops after it
+
+    public InputRecorder(OutputStream out, World world) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeLong(world.getSeed());
+        this.out.writeInt(world.getWidth());
+        this.out.writeInt(world.getHeight());
+        this.out.writeInt(world.getBird().getWidth());
+        this.out.writeInt(world.getBird().getHeight());
+        this.out.writeInt(world.getColumns());
+        this.lastTick = world.getTicks();
+    }
+
+    // Record a file for the given world, which must not have been stepped yet
+    public static InputRecorder toFile(String file, World world) throws IOException {
+        return new InputRecorder(new FileOutputStream(file), world);
+    }
+
+    // The bird jumps before the given tick is run
+    public void jump(long tick) {
+        write(tick, JUMP);
+        jumps++;
+    }
+
+    // Write the end record with the world's final state and flush the log. Later calls do nothing
+    public void finish(World world) {
+        if (finished) {
+            return;
+        }
+        write(world.getTicks(), END);
+        if (error == null) {
+            try {
+                writeVarint(out, world.getTubeColumn().getPoints());
+                out.writeLong(world.stateHash());
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        finished = true;
+    }
+
+    private void write(long tick, int type) {
+        if (error != null || finished) {
+            return;
+        }
+        try {
+            writeVarint(out, (tick - lastTick) << 1 | type);
+            lastTick = tick;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        error = e;
+        System.out.println("Recording stopped: " + e.getMessage());
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public long getJumps() {
+        return jumps;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    // Write a non-negative number in 7 bit groups, small numbers take one byte
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in replay");
+    }
+}
+
+// ReplayResult class is what a replay ended with, next to what the recording says it should end with
+class ReplayResult {
+    final long seed;
+    final long jumps;
+    final long ticks;
+    final int score;
+    final long stateHash;
+    final boolean complete; // False if the log ends without an end record, e.g. the game was killed
+    final long expectedTicks;
+    final int expectedScore;
+    final long expectedStateHash;
+    final long nanos; // Time spent simulating
+
+    ReplayResult(long seed, long jumps, long ticks, int score, long stateHash, boolean complete,
+                 long expectedTicks, int expectedScore, long expectedStateHash, long nanos) {
+        this.seed = seed;
+        this.jumps = jumps;
+        this.ticks = ticks;
+        this.score = score;
+        this.stateHash = stateHash;
+        this.complete = complete;
+        this.expectedTicks = expectedTicks;
+        this.expectedScore = expectedScore;
+        this.expectedStateHash = expectedStateHash;
+        this.nanos = nanos;
+    }
+
+    // True when the replay reached exactly the recorded end state
+    public boolean matches() {
+        return complete && ticks == expectedTicks && score == expectedScore && stateHash == expectedStateHash;
+    }
+
+    public double getTicksPerSecond() {
+        return nanos == 0 ? 0 : ticks * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        String verdict = !complete ? "INCOMPLETE (no end record)" : matches() ? "OK" : String.format(
+                "MISMATCH (expected ticks %d, score %d, hash %016x)", expectedTicks, expectedScore, expectedStateHash);
+        return String.format("seed %d: %d jumps, %d ticks, score %d, hash %016x, %.0f ticks/s - %s",
+                seed, jumps, ticks, score, stateHash, getTicksPerSecond(), verdict);
+    }
+}
+
+// Replay class re-simulates a recorded game headless as fast as the CPU allows, reading the log as it goes,
+// and checks it ends in the same state as the original run.
+// Run with one or more replay files: java Replay run-1.fbr run-2.fbr
+class Replay {
+    // TickListener interface is told about every tick of a replay right after it was run, e.g. to draw it
+    interface TickListener {
+        public void ticked(World world) throws IOException;
+    }
+
+    private Replay() {
+    }
+
+    public static ReplayResult run(InputStream input) throws IOException {
+        return run(input, null);
+    }
+
+    // Replay the game, calling the listener (when not null) after every tick
+    public static ReplayResult run(InputStream input, TickListener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != InputRecorder.MAGIC) {
+            throw new IOException("Not a replay file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != InputRecorder.VERSION) {
+            throw new IOException("Unsupported replay version " + version);
+        }
+        long seed = in.readLong();
+        int width = in.readInt();
+        int height = in.readInt();
+        int birdWidth = in.readInt();
+        int birdHeight = in.readInt();
+        int columns = in.readInt();
+        World world = new World(width, height, birdWidth, birdHeight, seed, columns);
+
+        long start = System.nanoTime();
+        long tick = 0;
+        long jumps = 0;
+        while (true) {
+            long record;
+            try {
+                record = InputRecorder.readVarint(in);
+            } catch (EOFException e) { // Cut off log, replay what is there
+                return result(world, jumps, false, 0, 0, 0, start);
+            }
+            tick += record >>> 1;
+            runUntil(world, tick, listener);
+            if ((record & 1) == InputRecorder.JUMP) {
+                world.jump();
+                jumps++;
+            } else {
+                int expectedScore = (int) InputRecorder.readVarint(in);
+                long expectedHash = in.readLong();
+                return result(world, jumps, true, tick, expectedScore, expectedHash, start);
+            }
+        }
+    }
+
+    // Width and height of the world a replay file was recorded in
+    public static int[] readSize(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != InputRecorder.MAGIC) {
+                throw new IOException("Not a replay file");
+            }
+            in.readUnsignedByte(); // Version, checked when the replay is run
+            in.readLong(); // Seed
+            return new int[] {in.readInt(), in.readInt()};
+        }
+    }
+
+    public static ReplayResult run(String file) throws IOException {
+        return run(file, null);
+    }
+
+    public static ReplayResult run(String file, TickListener listener) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return run(in, listener);
+        }
+    }
+
+    // Step the world up to the given tick, unless the bird crashes first
+    private static void runUntil(World world, long tick, TickListener listener) throws IOException {
+        while (world.getTicks() < tick && !world.isGameOver()) {
+            world.step(false);
+            if (listener != null) {
+                listener.ticked(world);
+            }
+        }
+    }
+
+    private static ReplayResult result(World world, long jumps, boolean complete, long expectedTicks,
+                                       int expectedScore, long expectedHash, long start) {
+        return new ReplayResult(world.getSeed(), jumps, world.getTicks(), world.getTubeColumn().getPoints(),
+                world.stateHash(), complete, expectedTicks, expectedScore, expectedHash, System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java Replay <replay file>...");
+            return;
+        }
+        boolean allMatch = true;
+        for (String file : args) {
+            ReplayResult result = run(file);
+            System.out.println(file + ": " + result);
+            allMatch &= result.matches();
+        }
+        System.exit(allMatch ? 0 : 1);
+    }
+}
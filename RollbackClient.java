@@ -0,0 +1,529 @@
+import java.awt.Image;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+// RollbackClient class plays on a MultiplayerServer without waiting for it. The player's bird flies in a World of its
+// own, run ahead of the server by about a round trip, so a jump shows on the very tick it is pressed; the jump goes
+// to the server stamped with that tick and, unless it came too late, the server plays it on the same tick.
+// Before every predicted tick the world is copied into a ring of HISTORY_TICKS worlds (World.copyFrom, no
+// allocation). When a snapshot comes in, the prediction for its tick is looked up: if it agrees, nothing happens;
+// if not, the world goes back to that tick, takes over the server's bird and plays the ticks since again with the
+// jumps that were made on them (rollback). Other players' birds are shown where the last snapshot has them
+class RollbackClient implements Closeable {
+    static final int HISTORY_TICKS = 128; // About 2 seconds, more than any round trip worth playing on
+    private static final long TICK_NANOS = World.TICK_MILLIS * 1_000_000L;
+    private static final int MAX_STEPS_PER_UPDATE = 10; // Ticks predicted at most per update, like Simulation
+    private static final long PING_INTERVAL = 1_000_000_000L;
+
+    private final NetClient net;
+    private final World[] history = new World[HISTORY_TICKS]; // The world before every recent tick
+    private final boolean[] jumps = new boolean[HISTORY_TICKS]; // Whether the player jumped on it
+    private World world; // The predicted world, predictedTick ticks into the round (less after a crash)
+    private long predictedTick;
+    private boolean predicting; // Playing this round; players who joined late only watch
+    private boolean jumpRequested;
+    private InputPolicy policy; // A bot playing instead of the keyboard, null for none
+    private Image birdImage;
+    private Image tubeImage;
+
+    private long seenRounds;
+    private long seenSnapshots;
+    private long seenPongs;
+    private long serverOffset; // Server tick time minus our clock for the least delayed snapshot of the round
+    private double smoothedRoundTrip = -1; // Nanoseconds, smoothed like TCP does
+    private double roundTripVariation;
+    private long nextPing;
+
+    private final LatencyHistogram rollbackTimes = new LatencyHistogram(); // Going back and playing the ticks again
+    private long checks; // Snapshots compared with the prediction
+    private long rollbacks;
+    private long resimulatedTicks;
+    private long tooOld; // Snapshots older than the history
+
+    public RollbackClient(NetClient net) {
+        this.net = net;
+    }
+
+    public static RollbackClient connect(String host, int port) throws IOException {
+        return new RollbackClient(NetClient.connect(host, port));
+    }
+
+    // Let a bot decide the jumps, e.g. to test the netcode without a player
+    public void setPolicy(InputPolicy policy) {
+        this.policy = policy;
+    }
+
+    // Draw the own bird and the tubes with these images, the other birds with the neighbour image
+    public void setImages(Image birdImage, Image neighbourImage, Image tubeImage) {
+        this.birdImage = birdImage;
+        this.tubeImage = tubeImage;
+        net.setImages(birdImage, neighbourImage, tubeImage);
+        if (world != null) {
+            applyImages();
+        }
+    }
+
+    // Jump on the next predicted tick
+    public void jump() {
+        jumpRequested = true;
+    }
+
+    // Take in what the server sent, correct the prediction where it was wrong and predict every tick due by now
+    public void update(long now) throws IOException {
+        net.poll();
+        if (net.getRounds() != seenRounds) {
+            seenRounds = net.getRounds();
+            startRound(now);
+        }
+        if (net.getPongs() != seenPongs) {
+            seenPongs = net.getPongs();
+            measureRoundTrip(net.getLastRoundTrip());
+        }
+        if (net.getSnapshots() != seenSnapshots) {
+            seenSnapshots = net.getSnapshots();
+            serverOffset = Math.max(serverOffset, net.getTick() * TICK_NANOS - now);
+            if (predicting) {
+                reconcile(net.getTick(), net.getY(), net.getQuantizedDy(), net.isAlive());
+            }
+        }
+        if (now >= nextPing) {
+            net.ping();
+            nextPing = now + PING_INTERVAL;
+        }
+        if (predicting) {
+            long target = targetTick(now);
+            for (int steps = 0; predictedTick < target && steps < MAX_STEPS_PER_UPDATE; steps++) {
+                predict();
+            }
+        }
+    }
+
+    // A new round: players who were told at its start play it, the others watch
+    private void startRound(long now) {
+        int width = net.getWidth();
+        int height = net.getHeight();
+        int birdWidth = net.getBirdWidth();
+        int birdHeight = net.getBirdHeight();
+        if (world == null || world.getWidth() != width || world.getHeight() != height
+                || world.getBird().getWidth() != birdWidth || world.getBird().getHeight() != birdHeight) {
+            world = new World(width, height, birdWidth, birdHeight, net.getSeed());
+            for (int i = 0; i < HISTORY_TICKS; i++) {
+                history[i] = new World(width, height, birdWidth, birdHeight, net.getSeed());
+            }
+        } else {
+            world.reset(net.getSeed());
+        }
+        applyImages();
+        predictedTick = 0;
+        jumpRequested = false;
+        predicting = net.getRoundStartTick() == 0;
+        serverOffset = net.getRoundStartTick() * TICK_NANOS - now;
+    }
+
+    // The tick to have predicted by now: the server's tick now, plus the time a jump takes to get there
+    // (with some room for jitter), so it arrives before the server plays that tick
+    private long targetTick(long now) {
+        double lead = smoothedRoundTrip < 0 ? 0 : smoothedRoundTrip + 4 * roundTripVariation;
+        return (now + serverOffset) / TICK_NANOS + (long) Math.ceil(lead / TICK_NANOS) + 1;
+    }
+
+    private void measureRoundTrip(long roundTrip) {
+        if (smoothedRoundTrip < 0) {
+            smoothedRoundTrip = roundTrip;
+            roundTripVariation = roundTrip / 2.0;
+        } else {
+            roundTripVariation = 0.75 * roundTripVariation + 0.25 * Math.abs(smoothedRoundTrip - roundTrip);
+            smoothedRoundTrip = 0.875 * smoothedRoundTrip + 0.125 * roundTrip;
+        }
+    }
+
+    // Predict one tick, remembering the world before it and the jump made on it
+    private void predict() throws IOException {
+        int index = (int) (predictedTick % HISTORY_TICKS);
+        boolean jump = !world.isGameOver()
+                && (jumpRequested || (policy != null && policy.shouldJump(world)));
+        jumpRequested = false;
+        history[index].copyFrom(world);
+        jumps[index] = jump;
+        if (jump) {
+            net.jumpAt(predictedTick);
+        }
+        world.step(jump);
+        predictedTick++;
+    }
+
+    // Compare the prediction for the snapshot's tick with it, and play the ticks since again when they differ
+    private void reconcile(long tick, int y, int quantizedDy, boolean alive) throws IOException {
+        checks++;
+        while (predictedTick < tick) { // Behind the server, e.g. right after joining: catch up without jumping
+            int index = (int) (predictedTick % HISTORY_TICKS);
+            history[index].copyFrom(world);
+            jumps[index] = false;
+            world.step(false);
+            predictedTick++;
+        }
+        if (tick <= predictedTick - HISTORY_TICKS) {
+            tooOld++;
+            return;
+        }
+        World predicted = tick == predictedTick ? world : history[(int) (tick % HISTORY_TICKS)];
+        if (agrees(predicted, tick, y, quantizedDy, alive)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        if (predicted != world) {
+            world.copyFrom(predicted);
+        }
+        world.correct(tick, y, quantizedDy / NetProtocol.DY_SCALE, !alive);
+        for (long t = tick; t < predictedTick; t++) {
+            int index = (int) (t % HISTORY_TICKS);
+            history[index].copyFrom(world);
+            world.step(jumps[index]);
+        }
+        rollbacks++;
+        resimulatedTicks += predictedTick - tick;
+        rollbackTimes.record(System.nanoTime() - start);
+    }
+
+    // Whether a predicted world is where the server says the game was. A world that crashed earlier stopped
+    // ticking, it agrees as long as the server has the bird crashed too
+    private static boolean agrees(World predicted, long tick, int y, int quantizedDy, boolean alive) {
+        if (predicted.getTicks() != tick) {
+            return predicted.isGameOver() && !alive;
+        }
+        Bird bird = predicted.getBird();
+        return predicted.isGameOver() == !alive && bird.getY() == y
+                && Math.abs(NetProtocol.quantizeDy(bird.getDy()) - quantizedDy) <= NetProtocol.DY_TOLERANCE;
+    }
+
+    private void applyImages() {
+        world.getBird().setImage(birdImage);
+        world.getTubeColumn().setTubeImage(tubeImage);
+    }
+
+    @Override
+    public void close() throws IOException {
+        net.close();
+    }
+
+    public NetClient getNet() {
+        return net;
+    }
+
+    // The predicted world, null before the first round
+    public World getWorld() {
+        return world;
+    }
+
+    // Whether the player plays this round, if not only the server's snapshots are there to show
+    public boolean isPredicting() {
+        return predicting;
+    }
+
+    public long getPredictedTick() {
+        return predictedTick;
+    }
+
+    // Ticks the prediction runs ahead of the last snapshot
+    public long getLead() {
+        return predictedTick - net.getTick();
+    }
+
+    public double getRoundTrip() {
+        return smoothedRoundTrip;
+    }
+
+    public LatencyHistogram getRollbackTimes() {
+        return rollbackTimes;
+    }
+
+    public long getChecks() {
+        return checks;
+    }
+
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    public long getResimulatedTicks() {
+        return resimulatedTicks;
+    }
+
+    public long getTooOld() {
+        return tooOld;
+    }
+
+    // Play a few bots on a server behind a LatencyProxy for every latency and jitter, and print how often and how
+    // far they rolled back and what that cost: [bots] [seconds per setting]
+    public static void main(String[] args) throws Exception {
+        int bots = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        int[][] settings = {{0, 0}, {25, 5}, {60, 20}, {100, 40}}; // One way latency and jitter in milliseconds
+        int failures = 0;
+
+        // What one tick of history costs
+        World a = new World(1920, 1080, 0);
+        World b = new World(1920, 1080, 0);
+        for (int i = 0; i < 200_000; i++) {
+            b.copyFrom(a);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000_000; i++) {
+            b.copyFrom(a);
+        }
+        System.out.printf("World.copyFrom: %.0f ns%n", (System.nanoTime() - start) / 1e6);
+
+        for (int[] setting : settings) {
+            MultiplayerServer server = new MultiplayerServer(0, Math.max(2, bots), 1920, 1080,
+                    World.DEFAULT_BIRD_SIZE, World.DEFAULT_BIRD_SIZE, 99, 1);
+            Thread serverThread = new Thread(server, "Multiplayer server");
+            serverThread.start();
+            LatencyProxy proxy = new LatencyProxy(new InetSocketAddress("localhost", server.getPort()),
+                    setting[0] * 1_000_000L, setting[1] * 1_000_000L, 5);
+            Thread proxyThread = new Thread(proxy, "Latency proxy");
+            proxyThread.start();
+
+            RollbackClient[] clients = new RollbackClient[bots];
+            for (int i = 0; i < bots; i++) {
+                clients[i] = RollbackClient.connect("localhost", proxy.getPort());
+                clients[i].setPolicy(Bots.create("gap"));
+            }
+            LatencyHistogram rollbackTimes = new LatencyHistogram();
+            LatencyHistogram leads = new LatencyHistogram();
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                for (RollbackClient client : clients) {
+                    client.update(System.nanoTime());
+                    if (client.isPredicting() && client.getNet().getSnapshots() > 0) {
+                        leads.record(client.getLead());
+                    }
+                }
+                Thread.sleep(1);
+            }
+
+            long checks = 0;
+            long rollbacks = 0;
+            long resimulated = 0;
+            long tooOld = 0;
+            long rounds = 0;
+            double roundTrip = 0;
+            for (RollbackClient client : clients) {
+                checks += client.getChecks();
+                rollbacks += client.getRollbacks();
+                resimulated += client.getResimulatedTicks();
+                tooOld += client.getTooOld();
+                rounds += client.getNet().getRounds();
+                roundTrip += client.getRoundTrip() / bots;
+                rollbackTimes.add(client.getRollbackTimes());
+                client.close();
+            }
+            server.close();
+            proxy.close();
+            serverThread.join();
+            proxyThread.join();
+
+            System.out.printf("%d ms +- %d ms one way: round trip %.1f ms, lead %.1f ticks, %d rounds, "
+                            + "%d jumps (%d late)%n", setting[0], setting[1], roundTrip / 1e6, leads.getMean(),
+                    rounds, server.getJumpsReceived(), server.getLateJumps());
+            System.out.printf("  %d snapshots checked, %d rollbacks (%.2f%%), %.1f ticks played again per rollback, "
+                            + "%d too old%n", checks, rollbacks, 100.0 * rollbacks / Math.max(1, checks),
+                    (double) resimulated / Math.max(1, rollbacks), tooOld);
+            System.out.println("  Rollback: " + rollbackTimes.summary());
+
+            if (checks == 0) {
+                System.out.println("  No snapshot was checked");
+                failures++;
+            }
+            if (tooOld > 0) {
+                System.out.println("  Snapshots fell out of the history");
+                failures++;
+            }
+            if (rollbacks > 0 && rollbackTimes.getValueAtPercentile(99) > TICK_NANOS / 4) {
+                System.out.println("  Rolling back took more than a quarter of a tick");
+                failures++;
+            }
+        }
+        System.out.println(failures == 0 ? "All rollback checks passed" : failures + " rollback checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
+
+// LatencyProxy class sits between clients and a server on loopback and holds every chunk of bytes back, both ways,
+// for a latency plus or minus a random jitter, keeping them in order like TCP would. It makes a loopback test see
+// the delays of a real network
+class LatencyProxy implements Closeable, Runnable {
+    // Pipe class is one direction of one connection, with the chunks on their way
+    private static final class Pipe {
+        final SocketChannel from;
+        final SocketChannel to;
+        final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+        final ArrayDeque<Long> due = new ArrayDeque<>(); // When every chunk may be delivered
+        long lastDue;
+        Pipe other;
+
+        Pipe(SocketChannel from, SocketChannel to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final SocketAddress target;
+    private final long latency;
+    private final long jitter;
+    private final Random random;
+    private final List<Pipe> pipes = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private volatile boolean running = true;
+
+    public LatencyProxy(SocketAddress target, long latencyNanos, long jitterNanos, long seed) throws IOException {
+        this.target = target;
+        this.latency = latencyNanos;
+        this.jitter = jitterNanos;
+        this.random = new Random(seed);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(1);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) { // Its connection was closed earlier in this round
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        receive((Pipe) key.attachment());
+                    }
+                }
+                long now = System.nanoTime();
+                for (int i = 0; i < pipes.size(); i++) {
+                    Pipe pipe = pipes.get(i);
+                    if (!deliver(pipe, now)) {
+                        close(pipe);
+                        i = -1; // Two pipes are gone, go over the rest again
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Latency proxy stopped: " + e.getMessage());
+        } finally {
+            try {
+                for (Pipe pipe : pipes) {
+                    pipe.from.close();
+                }
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the latency proxy: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client;
+        while ((client = serverChannel.accept()) != null) {
+            SocketChannel server = SocketChannel.open(target);
+            client.configureBlocking(false);
+            server.configureBlocking(false);
+            Pipe up = new Pipe(client, server);
+            Pipe down = new Pipe(server, client);
+            up.other = down;
+            down.other = up;
+            client.register(selector, SelectionKey.OP_READ, up);
+            server.register(selector, SelectionKey.OP_READ, down);
+            pipes.add(up);
+            pipes.add(down);
+        }
+    }
+
+    // Queue what came in to be delivered after the latency, never before what came in earlier
+    private void receive(Pipe pipe) {
+        buffer.clear();
+        int read;
+        try {
+            read = pipe.from.read(buffer);
+        } catch (IOException e) { // Reset, only this connection is lost
+            read = -1;
+        }
+        if (read < 0) { // Closed on one side, close the other too
+            close(pipe);
+            return;
+        }
+        buffer.flip();
+        ByteBuffer chunk = ByteBuffer.allocate(buffer.remaining());
+        chunk.put(buffer).flip();
+        long delay = latency + (jitter == 0 ? 0 : (long) ((random.nextDouble() * 2 - 1) * jitter));
+        pipe.lastDue = Math.max(pipe.lastDue, System.nanoTime() + delay);
+        pipe.chunks.add(chunk);
+        pipe.due.add(pipe.lastDue);
+    }
+
+    // Write out the chunks that are due; false if the receiving side is gone
+    private boolean deliver(Pipe pipe, long now) {
+        while (!pipe.chunks.isEmpty() && pipe.due.peek() <= now) {
+            ByteBuffer chunk = pipe.chunks.peek();
+            try {
+                pipe.to.write(chunk);
+            } catch (IOException e) {
+                return false;
+            }
+            if (chunk.hasRemaining()) { // The receiver is full, the rest goes out on a later round
+                return true;
+            }
+            pipe.chunks.poll();
+            pipe.due.poll();
+        }
+        return true;
+    }
+
+    // Close both directions of a connection, the proxy keeps serving the others
+    private void close(Pipe pipe) {
+        closeQuietly(pipe.from);
+        closeQuietly(pipe.to);
+        pipes.remove(pipe);
+        pipes.remove(pipe.other);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Could not close a proxied connection: " + e.getMessage());
+        }
+    }
+}
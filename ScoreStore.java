@@ -0,0 +1,1101 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+import java.util.zip.CRC32C;
+
+// ScoreRecord class is one finished run: the course it was played on, the bird skin, the score and how long it lasted
+class ScoreRecord {
+    final long seed;
+    final int skin; // Index of the bird image, or any other number the caller uses for a skin
+    final int score;
+    final long ticks;
+    final long time; // When the run ended, in milliseconds since the epoch
+
+    ScoreRecord(long seed, int skin, int score, long ticks, long time) {
+        this.seed = seed;
+        this.skin = skin;
+        this.score = score;
+        this.ticks = ticks;
+        this.time = time;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("score %d (seed %d, skin %d, %d ticks)", score, seed, skin, ticks);
+    }
+}
+
+// ScoreStore class keeps every finished run on disk.
+//
+// Runs are appended to a log of fixed size records, each with a CRC32C, written through a FileChannel by a
+// background thread, so the game thread only puts a record in a queue and never waits for the disk. A process
+// killed in the middle of a write leaves at most one torn record at the end of the log, which is found by its
+// checksum and cut off when the log is opened again; everything before it is kept.
+//
+// Top-N queries per skin and per seed are answered from an index file that is memory-mapped: the runs sorted
+// by skin and by seed, best score first, so a query is a binary search and a short read. Runs logged since the
+// index was built are kept in memory and merged into the answers until the next rebuild. Every COMPACT_EVERY
+// runs the log is compacted down to the runs that are in some top list, so millions of batch runs on the same
+// courses do not grow it without bound. How long those lists are is given when the store is opened, and a query
+// for more runs than that is refused instead of quietly answered from what is left; a store opened to keep every
+// run of a skin or of a seed keeps every run and never compacts.
+//
+// The log is replaced by writing a new file and renaming it over the old one. Every index goes into a new file,
+// scores.<number>.idx, because the old one may still be mapped and a mapped file cannot be replaced everywhere
+// (Windows refuses). Old index files are deleted once that is possible, at the latest when the store is opened
+// again. Log and index carry a generation number, so an index from before a compaction is never used with the new log
+class ScoreStore implements Closeable {
+    private static final int LOG_MAGIC = 0x46425343; // "FBSC"
+    private static final int INDEX_MAGIC = 0x46425349; // "FBSI"
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER = 16; // Magic, version, generation
+    private static final int INDEX_HEADER = 32; // Magic, version, generation, count, covered log size
+    private static final int RECORD_SIZE = 36; // Seed, ticks, time, score, skin, CRC32C of the other 32 bytes
+    private static final int ENTRY_SIZE = 32; // A record in the index, without the CRC
+
+    private static final int QUEUE_CAPACITY = 1 << 16; // Runs waiting for the writer at most
+    private static final int BATCH_RECORDS = 4096; // Runs written with one call
+    private static final int INDEX_EVERY = 1 << 16; // Runs logged before the index is rebuilt, at least
+    private static final int INDEX_GROWTH = 4; // Or a quarter of the indexed runs, so rebuilds of a big log are rare
+    private static final int COMPACT_EVERY = 1 << 22; // Runs logged before the log is compacted
+    static final int KEEP_PER_SKIN = 1000; // Best runs of every skin a compaction keeps, unless told otherwise
+    static final int KEEP_PER_SEED = 10; // Best runs of every seed a compaction keeps, unless told otherwise
+    static final int KEEP_ALL = Integer.MAX_VALUE;
+
+    private static final ScoreRecord STOP = new ScoreRecord(0, 0, 0, 0, 0); // Tells the writer to finish
+    private static final ScoreRecord COMPACT = new ScoreRecord(0, 0, 0, 0, 0); // Tells the writer to compact now
+
+    private final Path directory;
+    private final Path logFile;
+    private Path indexFile; // Index mapped now, null before the first one
+    private long indexNumber; // Highest number of an index file seen, the next one gets the number after it
+    private final List<Path> staleIndexes = new ArrayList<>(); // Old index files not deleted yet
+    private final boolean sync; // Force every batch to the disk, not just to the OS
+    private final int keepPerSkin;
+    private final int keepPerSeed;
+    private FileChannel log; // Only the writer thread writes to it once the store is open
+    private long generation;
+    private long logSize; // Bytes of valid records, including the header
+    private long recovered; // Bytes of torn or corrupt records cut off when the log was opened
+
+    // Read side, guarded by this
+    private MappedByteBuffer index; // Null until the first index is built
+    private long indexCount;
+    private final List<ScoreRecord> tail = new ArrayList<>(); // Logged runs the index does not cover yet
+
+    // Write side. Submitting takes no lock, so the game thread never waits for the writer
+    private final ConcurrentLinkedQueue<ScoreRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger(); // Runs in the queue, STOP and COMPACT not counted
+    private volatile boolean writerParked; // The writer found the queue empty, whoever adds to it unparks it
+    private final Thread writer;
+    private final AtomicInteger best = new AtomicInteger(); // Best score logged or queued
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong(); // Runs the queue had no room for
+    private volatile boolean failed; // Set with error
+    private long written; // Guarded by this
+    private long sinceIndex; // Runs logged since the index was built, writer thread only
+    private long sinceCompaction;
+    private long compactions;
+    private IOException error; // First write error, the store stops logging after it
+
+    private ScoreStore(Path directory, boolean sync, int keepPerSkin, int keepPerSeed) throws IOException {
+        if (keepPerSkin < 1 || keepPerSeed < 1) {
+            throw new IllegalArgumentException("A store keeps at least one run per skin and per seed, got "
+                    + keepPerSkin + " and " + keepPerSeed);
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.logFile = directory.resolve("scores.log");
+        this.sync = sync;
+        this.keepPerSkin = keepPerSkin;
+        this.keepPerSeed = keepPerSeed;
+        openLog();
+        if (!openIndex() || tail.size() >= Math.max(INDEX_EVERY, indexCount / INDEX_GROWTH)) {
+            rebuild(false);
+        }
+        this.writer = new Thread(this::writeLoop, "Score writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Open the store in the given directory, cutting off a torn record left by a crash.
+    // With sync every batch is forced to the disk, otherwise a crash of the machine can lose the last runs
+    // (a crash of the game cannot, the OS still has them)
+    public static ScoreStore open(Path directory, boolean sync) throws IOException {
+        return open(directory, sync, KEEP_PER_SKIN, KEEP_PER_SEED);
+    }
+
+    // Open the store keeping the best keepPerSkin runs of every skin and keepPerSeed of every seed when it
+    // compacts, KEEP_ALL for either keeps every run
+    public static ScoreStore open(Path directory, boolean sync, int keepPerSkin, int keepPerSeed) throws IOException {
+        return new ScoreStore(directory, sync, keepPerSkin, keepPerSeed);
+    }
+
+    public static ScoreStore open(Path directory) throws IOException {
+        return open(directory, true);
+    }
+
+    // Read the log header and check every record, truncating the log at the first one that does not check out
+    private void openLog() throws IOException {
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() < LOG_HEADER) { // New log, or killed before the header was written
+            writeHeader(log, 0);
+            generation = 0;
+            logSize = LOG_HEADER;
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        readFully(log, header, 0);
+        header.flip();
+        if (header.getInt() != LOG_MAGIC || header.getInt() != VERSION) {
+            throw new IOException(logFile + " is not a score log of version " + VERSION);
+        }
+        generation = header.getLong();
+
+        long size = log.size();
+        long position = LOG_HEADER;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * BATCH_RECORDS);
+        CRC32C crc = new CRC32C();
+        scan:
+        while (position + RECORD_SIZE <= size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), (size - position) / RECORD_SIZE * RECORD_SIZE));
+            readFully(log, buffer, position);
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                if (!checksumMatches(buffer, crc)) {
+                    break scan;
+                }
+                buffer.position(buffer.position() + RECORD_SIZE);
+                position += RECORD_SIZE;
+            }
+        }
+        logSize = position;
+        if (size > logSize) {
+            recovered = size - logSize;
+            log.truncate(logSize);
+            log.force(true);
+            System.out.println("Score log: cut off " + recovered + " bytes of torn or corrupt records");
+        }
+    }
+
+    // Map the newest index that belongs to this log, and load the runs logged after it into the tail.
+    // Every other index file, and any half written one, is left from an earlier session and deleted
+    private boolean openIndex() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "scores*.idx*")) {
+            for (Path file : files) {
+                long number = indexNumber(file);
+                if (number < 0) {
+                    staleIndexes.add(file);
+                } else {
+                    numbers.add(number);
+                }
+            }
+        }
+        numbers.sort(Collections.reverseOrder());
+        boolean opened = false;
+        for (long number : numbers) {
+            indexNumber = Math.max(indexNumber, number);
+            if (!opened && openIndex(indexFile(number))) {
+                indexFile = indexFile(number);
+                opened = true;
+            } else {
+                staleIndexes.add(indexFile(number));
+            }
+        }
+        deleteStaleIndexes();
+        if (!opened) {
+            loadTail(LOG_HEADER);
+        }
+        return opened;
+    }
+
+    private Path indexFile(long number) {
+        return directory.resolve("scores." + number + ".idx");
+    }
+
+    // Number of an index file named scores.<number>.idx, -1 for anything else, e.g. a temporary file
+    private static long indexNumber(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("scores.") || !name.endsWith(".idx")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring("scores.".length(), name.length() - ".idx".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Delete the old index files that can be; one still mapped stays on the list for the next try
+    private void deleteStaleIndexes() {
+        for (int i = staleIndexes.size() - 1; i >= 0; i--) {
+            try {
+                Files.deleteIfExists(staleIndexes.get(i));
+                staleIndexes.remove(i);
+            } catch (IOException e) {
+                // Still mapped on a system that does not allow deleting it, the next rebuild or open tries again
+            }
+        }
+    }
+
+    // Map the given index if it belongs to this log, and load the runs logged after it into the tail
+    private boolean openIndex(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+            if (channel.size() < INDEX_HEADER) {
+                return false;
+            }
+            readFully(channel, header, 0);
+            header.flip();
+            int magic = header.getInt();
+            int version = header.getInt();
+            long indexGeneration = header.getLong();
+            long count = header.getLong();
+            long covered = header.getLong();
+            if (magic != INDEX_MAGIC || version != VERSION || indexGeneration != generation || covered > logSize
+                    || channel.size() != INDEX_HEADER + 2 * count * ENTRY_SIZE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            synchronized (this) {
+                index = mapped;
+                indexCount = count;
+                best.accumulateAndGet(count == 0 ? 0 : bestIn(mapped, count), Math::max);
+            }
+            loadTail(covered);
+            return true;
+        }
+    }
+
+    private void loadTail(long from) throws IOException {
+        List<ScoreRecord> records = new ArrayList<>();
+        forEachRecord(log, from, logSize, records::add);
+        synchronized (this) {
+            tail.clear();
+            tail.addAll(records);
+            for (ScoreRecord record : records) {
+                best.accumulateAndGet(record.score, Math::max);
+            }
+        }
+    }
+
+    // Best score in the index: the first entry of every skin's range
+    private static int bestIn(ByteBuffer index, long count) {
+        int best = 0;
+        for (long i = 0; i < count; i = upperBoundSkin(index, count, skinAt(index, i))) {
+            best = Math.max(best, scoreAt(index, i));
+        }
+        return best;
+    }
+
+    // Log a finished run without waiting. Returns false, and drops the run, if the writer is that far behind
+    public boolean submit(ScoreRecord record) {
+        if (failed || !offer(record)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // Log a finished run, waiting for room in the queue. For batch jobs, never for the game thread
+    public void submitWaiting(ScoreRecord record) throws InterruptedException {
+        while (!failed) {
+            if (offer(record)) {
+                return;
+            }
+            LockSupport.parkNanos(1_000_000L);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    // Queue a run if there is room. Only atomics, so a submit never waits for a lock the writer holds
+    private boolean offer(ScoreRecord record) {
+        if (queued.incrementAndGet() > QUEUE_CAPACITY) {
+            queued.decrementAndGet();
+            return false;
+        }
+        submitted.incrementAndGet();
+        best.accumulateAndGet(record.score, Math::max); // Counts at once, long before it reaches the index
+        enqueue(record);
+        return true;
+    }
+
+    private void enqueue(ScoreRecord record) {
+        queue.offer(record);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // Ask the writer to compact the log after the runs queued so far. awaitWritten() waits for it too
+    public void compact() throws InterruptedException {
+        submitted.incrementAndGet();
+        enqueue(COMPACT);
+    }
+
+    // Wait until every run submitted so far is in the log
+    public synchronized void awaitWritten() throws InterruptedException {
+        while (written < submitted.get() && error == null && writer.isAlive()) {
+            wait(10);
+        }
+    }
+
+    private void writeLoop() {
+        List<ScoreRecord> batch = new ArrayList<>(BATCH_RECORDS);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * BATCH_RECORDS);
+        CRC32C crc = new CRC32C();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                takeBatch(batch);
+                boolean compact = false;
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    if (batch.get(i) == STOP || batch.get(i) == COMPACT) {
+                        stopping |= batch.get(i) == STOP;
+                        compact |= batch.get(i) == COMPACT;
+                        batch.remove(i);
+                    }
+                }
+                queued.addAndGet(-batch.size());
+                if (!batch.isEmpty()) {
+                    writeBatch(batch, buffer, crc);
+                }
+                batch.clear();
+                if (compact || (sinceCompaction >= COMPACT_EVERY && !keepsAll())) {
+                    rebuild(true);
+                } else if (sinceIndex >= Math.max(INDEX_EVERY, indexedRuns() / INDEX_GROWTH)
+                        || (stopping && sinceIndex > 0)) {
+                    rebuild(false);
+                }
+                if (compact) {
+                    synchronized (this) {
+                        written++; // The request counts as written once it is done
+                        notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                    notifyAll();
+                }
+                failed = true;
+                System.out.println("Score log stopped: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // Wait for the queue to have something and take up to a batch of it. The writer says it is about to park
+    // before it looks at the queue a last time, so a run added after that look always unparks it
+    private void takeBatch(List<ScoreRecord> batch) {
+        ScoreRecord record;
+        while ((record = queue.poll()) == null) {
+            writerParked = true;
+            if (queue.isEmpty()) {
+                LockSupport.parkNanos(this, 100_000_000L);
+            }
+            writerParked = false;
+        }
+        do {
+            batch.add(record);
+        } while (batch.size() < BATCH_RECORDS && (record = queue.poll()) != null);
+    }
+
+    private void writeBatch(List<ScoreRecord> batch, ByteBuffer buffer, CRC32C crc) throws IOException {
+        buffer.clear();
+        for (ScoreRecord record : batch) {
+            encode(record, buffer, crc);
+        }
+        buffer.flip();
+        long position = logSize;
+        while (buffer.hasRemaining()) {
+            position += log.write(buffer, position);
+        }
+        if (sync) {
+            log.force(false);
+        }
+        sinceIndex += batch.size();
+        sinceCompaction += batch.size();
+        synchronized (this) {
+            logSize = position;
+            tail.addAll(batch);
+            written += batch.size();
+            notifyAll();
+        }
+    }
+
+    private static void encode(ScoreRecord record, ByteBuffer buffer, CRC32C crc) {
+        int start = buffer.position();
+        buffer.putLong(record.seed);
+        buffer.putLong(record.ticks);
+        buffer.putLong(record.time);
+        buffer.putInt(record.score);
+        buffer.putInt(record.skin);
+        crc.reset();
+        crc.update(buffer.array(), start, ENTRY_SIZE);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, CRC32C crc) {
+        int start = buffer.position();
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, ENTRY_SIZE);
+        return buffer.getInt(start + ENTRY_SIZE) == (int) crc.getValue();
+    }
+
+    // Build a new index from the whole log, after compacting the log if asked to. Runs on the writer thread,
+    // or in the constructor before there is one; readers only wait for the swap at the end
+    private void rebuild(boolean compact) throws IOException {
+        long covered = logSize;
+        Runs runs = Runs.read(log, covered);
+        int[] bySkin = runs.sorted(true);
+        int[] bySeed = runs.sorted(false);
+
+        if (compact) {
+            boolean[] keep = new boolean[runs.count];
+            markBest(runs, bySkin, true, keepPerSkin, keep);
+            markBest(runs, bySeed, false, keepPerSeed, keep);
+            runs = runs.keep(keep);
+            bySkin = runs.sorted(true);
+            bySeed = runs.sorted(false);
+            generation++;
+            Path temporary = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeHeader(out, generation);
+                runs.writeLog(out);
+                out.force(true);
+            }
+            log.close();
+            Files.move(temporary, logFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(logFile);
+            log = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            covered = log.size();
+            sinceCompaction = 0;
+        }
+
+        Path newIndex = indexFile(indexNumber + 1);
+        Path temporary = newIndex.resolveSibling(newIndex.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+            header.putInt(INDEX_MAGIC).putInt(VERSION).putLong(generation).putLong(runs.count).putLong(covered);
+            header.flip();
+            writeFully(out, header, 0);
+            runs.writeEntries(out, INDEX_HEADER, bySkin);
+            runs.writeEntries(out, INDEX_HEADER + (long) runs.count * ENTRY_SIZE, bySeed);
+            out.force(true);
+        }
+        Files.move(temporary, newIndex, StandardCopyOption.ATOMIC_MOVE); // A new name, the mapped index stays
+        syncDirectory(newIndex);
+        indexNumber++;
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(newIndex, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        synchronized (this) {
+            index = mapped;
+            indexCount = runs.count;
+            logSize = covered;
+            // The writer only logs between rebuilds, so every run in the tail is in the new index
+            tail.clear();
+            if (compact) {
+                compactions++;
+            }
+        }
+        if (indexFile != null) {
+            staleIndexes.add(indexFile);
+        }
+        indexFile = newIndex;
+        deleteStaleIndexes();
+        sinceIndex = 0;
+    }
+
+    // Mark the best runs of every skin or seed, walking an order sorted by key and then best score first
+    private static void markBest(Runs runs, int[] order, boolean bySkin, int keep, boolean[] kept) {
+        int taken = 0;
+        for (int k = 0; k < order.length; k++) {
+            int i = order[k];
+            if (k == 0 || (bySkin ? runs.skins[i] != runs.skins[order[k - 1]] : runs.seeds[i] != runs.seeds[order[k - 1]])) {
+                taken = 0;
+            }
+            if (taken++ < keep) {
+                kept[i] = true;
+            }
+        }
+    }
+
+    // A run is kept when it is in the top list of its skin or of its seed, so keeping every run of either
+    // keeps them all
+    private boolean keepsAll() {
+        return keepPerSkin == KEEP_ALL || keepPerSeed == KEEP_ALL;
+    }
+
+    private void checkKept(int n, int keep, String of) {
+        if (n > keep && !keepsAll()) {
+            throw new IllegalArgumentException("The store keeps the best " + keep + " runs of " + of
+                    + ", asked for " + n);
+        }
+    }
+
+    // Best n runs with the given skin, best first. n may not be more than the runs per skin the store keeps
+    public synchronized List<ScoreRecord> topForSkin(int skin, int n) {
+        checkKept(n, keepPerSkin, "a skin");
+        List<ScoreRecord> result = new ArrayList<>();
+        if (index != null) {
+            long from = lowerBoundSkin(index, indexCount, skin);
+            for (long i = from; i < indexCount && i < from + n && skinAt(index, i) == skin; i++) {
+                result.add(entryAt(index, i));
+            }
+        }
+        for (ScoreRecord record : tail) {
+            if (record.skin == skin) {
+                result.add(record);
+            }
+        }
+        return best(result, n);
+    }
+
+    // Best n runs on the course with the given seed, best first. n may not be more than the runs per seed
+    // the store keeps
+    public synchronized List<ScoreRecord> topForSeed(long seed, int n) {
+        checkKept(n, keepPerSeed, "a seed");
+        List<ScoreRecord> result = new ArrayList<>();
+        if (index != null) {
+            long from = lowerBoundSeed(index, indexCount, seed);
+            for (long i = from; i < indexCount && i < from + n && seedAt(index, indexCount + i) == seed; i++) {
+                result.add(entryAt(index, indexCount + i));
+            }
+        }
+        for (ScoreRecord record : tail) {
+            if (record.seed == seed) {
+                result.add(record);
+            }
+        }
+        return best(result, n);
+    }
+
+    private static List<ScoreRecord> best(List<ScoreRecord> records, int n) {
+        records.sort((a, b) -> Integer.compare(b.score, a.score));
+        return records.size() > n ? new ArrayList<>(records.subList(0, n)) : records;
+    }
+
+    // Best score of all runs, including the ones still waiting for the writer
+    public int getBest() {
+        return best.get();
+    }
+
+    private synchronized long indexedRuns() {
+        return indexCount;
+    }
+
+    // Runs in the log, indexed or not
+    public synchronized long getRuns() {
+        return indexCount + tail.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    public long getRecoveredBytes() {
+        return recovered;
+    }
+
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    // Write every queued run, bring the index up to date and close the files. Waits for the writer even when
+    // interrupted, it may still be writing to the log; the interrupt is kept for the caller
+    @Override
+    public void close() throws IOException {
+        enqueue(STOP);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    // Logs millions of batch runs and checks the top-N answers against a brute force one, after a reopen and again
+    // after a compaction, and that a query for more than a compaction keeps is refused unless the store keeps
+    // every run; then that only the newest index file is left, that a torn and a corrupt record at the end
+    // are cut off, and that a writer killed with SIGKILL keeps what it logged. Exits with 1 when any check fails.
+    // Argument: number of runs, 2 million by default
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--write-forever")) { // The process the kill test kills
+            writeForever(Path.of(args[1]));
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path directory = Files.createTempDirectory("scores");
+        int failures = 0;
+
+        // Runs as batch simulations log them: about fifty per course, four skins
+        long[] seeds = new long[runs];
+        int[] skins = new int[runs];
+        int[] scores = new int[runs];
+        Random random = new Random(1);
+        for (int i = 0; i < runs; i++) {
+            seeds[i] = random.nextInt(Math.max(1, runs / 50));
+            skins[i] = random.nextInt(4);
+            scores[i] = (int) (-Math.log(1 - random.nextDouble()) * 20);
+        }
+
+        ScoreStore store = open(directory);
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            store.submitWaiting(new ScoreRecord(seeds[i], skins[i], scores[i], scores[i] * 200L, i));
+        }
+        store.awaitWritten();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Logged %d runs in %.2f s, %.0f runs/s, log %d MB%n", runs, seconds, runs / seconds,
+                Files.size(directory.resolve("scores.log")) >> 20);
+
+        // What the game thread pays to log a run
+        LatencyHistogram submits = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            ScoreRecord record = new ScoreRecord(-1, 0, 0, 0, 0);
+            long before = System.nanoTime();
+            store.submit(record);
+            submits.record(System.nanoTime() - before);
+        }
+        store.awaitWritten();
+        System.out.println("Game thread submit: " + submits.summary());
+        store.close();
+
+        start = System.nanoTime();
+        store = open(directory);
+        System.out.printf("Reopened %d runs in %.1f ms%n", store.getRuns(), (System.nanoTime() - start) / 1e6);
+        if (store.getRuns() != runs + 10_000) {
+            System.out.println("Expected " + (runs + 10_000) + " runs after reopening");
+            failures++;
+        }
+        failures += checkQueries(store, seeds, skins, scores, 200, 10, 10);
+
+        store.compact();
+        store.awaitWritten();
+        System.out.printf("Compacted to %d runs, log %d MB%n", store.getRuns(),
+                Files.size(directory.resolve("scores.log")) >> 20);
+        failures += checkQueries(store, seeds, skins, scores, 200, KEEP_PER_SEED, KEEP_PER_SKIN);
+        try {
+            store.topForSeed(seeds[0], KEEP_PER_SEED + 1);
+            System.out.println("A query for more runs than a compaction keeps was answered");
+            failures++;
+        } catch (IllegalArgumentException expected) {
+            // What it should do, the runs past the kept ones may be gone
+        }
+        long compactedRuns = store.getRuns();
+        store.close();
+
+        // A store told to keep every run still has all of them after a compaction
+        Path everything = Files.createTempDirectory("scores-all");
+        store = open(everything, false, KEEP_ALL, KEEP_PER_SEED);
+        for (int i = 0; i < 5000; i++) {
+            store.submitWaiting(new ScoreRecord(7, 0, i, i, i));
+        }
+        store.compact();
+        store.awaitWritten();
+        if (store.getRuns() != 5000 || store.topForSeed(7, 5000).size() != 5000) {
+            System.out.println("A store keeping every run has " + store.getRuns() + " of 5000 after compacting");
+            failures++;
+        }
+        store.close();
+        deleteDirectory(everything);
+
+        // Every rebuild wrote a new index file, only the last one is left
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "scores*.idx*")) {
+            List<Path> indexes = new ArrayList<>();
+            files.forEach(indexes::add);
+            if (indexes.size() != 1) {
+                System.out.println("Expected one index file after the rebuilds, found " + indexes);
+                failures++;
+            }
+        }
+
+        // A torn record and a corrupt one at the end are cut off, everything before them is kept
+        try (FileChannel channel = FileChannel.open(directory.resolve("scores.log"), StandardOpenOption.WRITE)) {
+            ByteBuffer garbage = ByteBuffer.allocate(RECORD_SIZE + 20);
+            garbage.putLong(7).putLong(7).putLong(7).putInt(7).putInt(7).putInt(12345); // Wrong checksum
+            garbage.putLong(8).putLong(8).putInt(8); // Torn in the middle
+            garbage.flip();
+            writeFully(channel, garbage, channel.size());
+        }
+        store = open(directory);
+        if (store.getRecoveredBytes() != RECORD_SIZE + 20 || store.getRuns() != compactedRuns) {
+            System.out.println("Recovery kept " + store.getRuns() + " runs and cut off " + store.getRecoveredBytes()
+                    + " bytes, expected " + compactedRuns + " runs and " + (RECORD_SIZE + 20) + " bytes");
+            failures++;
+        }
+        store.close();
+
+        // A writer process killed with SIGKILL in the middle of logging
+        Path killed = Files.createTempDirectory("scores-killed");
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "ScoreStore", "--write-forever", killed.toString())
+                .inheritIO().start();
+        Thread.sleep(3000);
+        process.destroyForcibly().waitFor();
+        store = open(killed);
+        List<ScoreRecord> top = store.topForSkin(0, 5);
+        System.out.printf("After SIGKILL: %d runs kept, %d bytes cut off, best %s%n",
+                store.getRuns(), store.getRecoveredBytes(), top.isEmpty() ? "none" : top.get(0));
+        if (store.getRuns() == 0) {
+            System.out.println("Nothing survived the killed writer");
+            failures++;
+        }
+        store.close();
+        deleteDirectory(directory);
+        deleteDirectory(killed);
+
+        System.out.println(failures == 0 ? "All score store checks passed" : failures + " score store checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static void writeForever(Path directory) throws IOException, InterruptedException {
+        ScoreStore store = open(directory, false);
+        Random random = new Random();
+        for (long i = 0; ; i++) {
+            store.submitWaiting(new ScoreRecord(i, (int) (i & 3), random.nextInt(100), i, i));
+        }
+    }
+
+    // Compare the top lists of some seeds and every skin with a brute force answer over the logged runs
+    private static int checkQueries(ScoreStore store, long[] seeds, int[] skins, int[] scores, int queries,
+                                    int perSeed, int perSkin) {
+        int failures = 0;
+        LatencyHistogram latency = new LatencyHistogram();
+        for (int q = 0; q < queries; q++) {
+            long seed = seeds[q * 7919 % seeds.length];
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < seeds.length; i++) {
+                if (seeds[i] == seed) {
+                    expected.add(scores[i]);
+                }
+            }
+            expected.sort((a, b) -> b - a);
+            long before = System.nanoTime();
+            List<ScoreRecord> top = store.topForSeed(seed, perSeed);
+            latency.record(System.nanoTime() - before);
+            failures += compare("seed " + seed, expected.subList(0, Math.min(perSeed, expected.size())), top);
+        }
+        for (int skin = 0; skin < 4; skin++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < skins.length; i++) {
+                if (skins[i] == skin) {
+                    expected.add(scores[i]);
+                }
+            }
+            expected.sort((a, b) -> b - a);
+            long before = System.nanoTime();
+            List<ScoreRecord> top = store.topForSkin(skin, perSkin);
+            latency.record(System.nanoTime() - before);
+            failures += compare("skin " + skin, expected.subList(0, Math.min(perSkin, expected.size())), top);
+        }
+        System.out.println("Top-N queries: " + latency.summary());
+        return failures;
+    }
+
+    private static int compare(String what, List<Integer> expected, List<ScoreRecord> top) {
+        boolean same = expected.size() == top.size();
+        for (int i = 0; same && i < top.size(); i++) {
+            same = expected.get(i) == top.get(i).score;
+        }
+        if (!same) {
+            System.out.println("Top list of " + what + " is wrong");
+            return 1;
+        }
+        return 0;
+    }
+
+    // Index entries: the sections are the runs sorted by skin and by seed, both best score first
+
+    private static long entryOffset(long i) {
+        return INDEX_HEADER + i * ENTRY_SIZE;
+    }
+
+    private static long seedAt(ByteBuffer index, long i) {
+        return index.getLong((int) entryOffset(i));
+    }
+
+    private static int scoreAt(ByteBuffer index, long i) {
+        return index.getInt((int) entryOffset(i) + 24);
+    }
+
+    private static int skinAt(ByteBuffer index, long i) {
+        return index.getInt((int) entryOffset(i) + 28);
+    }
+
+    private static ScoreRecord entryAt(ByteBuffer index, long i) {
+        int offset = (int) entryOffset(i);
+        return new ScoreRecord(index.getLong(offset), index.getInt(offset + 28), index.getInt(offset + 24),
+                index.getLong(offset + 8), index.getLong(offset + 16));
+    }
+
+    // First entry of the skin section with a skin not below the given one
+    private static long lowerBoundSkin(ByteBuffer index, long count, int skin) {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (skinAt(index, middle) < skin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long upperBoundSkin(ByteBuffer index, long count, int skin) {
+        return skin == Integer.MAX_VALUE ? count : lowerBoundSkin(index, count, skin + 1);
+    }
+
+    // First entry of the seed section, counted from its start, with a seed not below the given one
+    private static long lowerBoundSeed(ByteBuffer index, long count, long seed) {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (seedAt(index, count + middle) < seed) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // File helpers
+
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        channel.truncate(0);
+        writeFully(channel, header, 0);
+        channel.force(true);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Make a rename durable. Not every platform can open a directory, there it is left to the file system
+    private static void syncDirectory(Path file) {
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Nothing more to do
+        }
+    }
+
+    // Call the consumer with every record between the two log offsets, which were all checked when opening
+    private static void forEachRecord(FileChannel channel, long from, long to, Consumer<ScoreRecord> consumer)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * BATCH_RECORDS);
+        for (long position = from; position < to; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            readFully(channel, buffer, position);
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                long seed = buffer.getLong();
+                long ticks = buffer.getLong();
+                long time = buffer.getLong();
+                int score = buffer.getInt();
+                int skin = buffer.getInt();
+                buffer.getInt(); // Checksum
+                consumer.accept(new ScoreRecord(seed, skin, score, ticks, time));
+            }
+            position += buffer.limit();
+        }
+    }
+
+    // Runs class holds every run of the log in plain arrays while the index is built, so millions of runs
+    // do not turn into millions of objects
+    private static final class Runs {
+        int count;
+        long[] seeds;
+        long[] ticks;
+        long[] times;
+        int[] scores;
+        int[] skins;
+
+        Runs(int capacity) {
+            seeds = new long[capacity];
+            ticks = new long[capacity];
+            times = new long[capacity];
+            scores = new int[capacity];
+            skins = new int[capacity];
+        }
+
+        static Runs read(FileChannel log, long to) throws IOException {
+            long count = (to - LOG_HEADER) / RECORD_SIZE;
+            if (INDEX_HEADER + 2 * count * ENTRY_SIZE > Integer.MAX_VALUE) { // A mapped buffer holds 2 GB at most
+                throw new IOException("Too many runs for one index: " + count);
+            }
+            Runs runs = new Runs((int) count);
+            forEachRecord(log, LOG_HEADER, to, record -> runs.add(record.seed, record.ticks, record.time,
+                    record.score, record.skin));
+            return runs;
+        }
+
+        void add(long seed, long tick, long time, int score, int skin) {
+            seeds[count] = seed;
+            ticks[count] = tick;
+            times[count] = time;
+            scores[count] = score;
+            skins[count] = skin;
+            count++;
+        }
+
+        // Only the runs that are marked, in the same order
+        Runs keep(boolean[] kept) {
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                n += kept[i] ? 1 : 0;
+            }
+            Runs runs = new Runs(n);
+            for (int i = 0; i < count; i++) {
+                if (kept[i]) {
+                    runs.add(seeds[i], ticks[i], times[i], scores[i], skins[i]);
+                }
+            }
+            return runs;
+        }
+
+        // Run indices sorted by skin or seed, then best score first, then in log order
+        int[] sorted(boolean bySkin) {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            IntBinaryOperator comparator = (a, b) -> {
+                int key = bySkin ? Integer.compare(skins[a], skins[b]) : Long.compare(seeds[a], seeds[b]);
+                if (key != 0) {
+                    return key;
+                }
+                return scores[a] != scores[b] ? Integer.compare(scores[b], scores[a]) : Integer.compare(a, b);
+            };
+            mergeSort(order, new int[count], 0, count, comparator);
+            return order;
+        }
+
+        private static void mergeSort(int[] a, int[] scratch, int from, int to, IntBinaryOperator comparator) {
+            if (to - from < 32) {
+                for (int i = from + 1; i < to; i++) { // Insertion sort for short runs
+                    int value = a[i];
+                    int j = i - 1;
+                    while (j >= from && comparator.applyAsInt(a[j], value) > 0) {
+                        a[j + 1] = a[j];
+                        j--;
+                    }
+                    a[j + 1] = value;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            mergeSort(a, scratch, from, middle, comparator);
+            mergeSort(a, scratch, middle, to, comparator);
+            if (comparator.applyAsInt(a[middle - 1], a[middle]) <= 0) {
+                return; // Already in order, common for logs of one long session
+            }
+            System.arraycopy(a, from, scratch, from, to - from);
+            int i = from;
+            int j = middle;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < middle && comparator.applyAsInt(scratch[i], scratch[j]) <= 0)) {
+                    a[k] = scratch[i++];
+                } else {
+                    a[k] = scratch[j++];
+                }
+            }
+        }
+
+        void writeLog(FileChannel out) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * BATCH_RECORDS);
+            CRC32C crc = new CRC32C();
+            long position = LOG_HEADER;
+            for (int i = 0; i < count; i++) {
+                encode(new ScoreRecord(seeds[i], skins[i], scores[i], ticks[i], times[i]), buffer, crc);
+                if (!buffer.hasRemaining() || i == count - 1) {
+                    buffer.flip();
+                    position += buffer.remaining();
+                    writeFully(out, buffer, position - buffer.remaining());
+                    buffer.clear();
+                }
+            }
+        }
+
+        void writeEntries(FileChannel out, long position, int[] order) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * BATCH_RECORDS);
+            for (int k = 0; k < order.length; k++) {
+                int i = order[k];
+                buffer.putLong(seeds[i]).putLong(ticks[i]).putLong(times[i]).putInt(scores[i]).putInt(skins[i]);
+                if (!buffer.hasRemaining() || k == order.length - 1) {
+                    buffer.flip();
+                    int length = buffer.remaining();
+                    writeFully(out, buffer, position);
+                    position += length;
+                    buffer.clear();
+                }
+            }
+        }
+    }
+}
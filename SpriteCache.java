@@ -0,0 +1,140 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// SpriteCache class keeps copies of images already scaled to the size they are drawn at, in the screen's
+// native pixel format, so drawing them every frame is a plain copy instead of a rescale.
+// Least recently used sprites are dropped once the cache holds more pixels than its memory budget
+class SpriteCache {
+    private static final long DEFAULT_BUDGET_BYTES = 128L << 20; // Room for a few 4K backgrounds
+    private static final SpriteCache SHARED = new SpriteCache(DEFAULT_BUDGET_BYTES);
+
+    // Key class identifies a sprite: the source image and the size it is scaled to
+    private static final class Key {
+        private final Image source;
+        private final int width;
+        private final int height;
+
+        Key(Image source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return source == other.source && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(source) * 31 + width) * 31 + height;
+        }
+    }
+
+    private final long budgetBytes;
+    private final LinkedHashMap<Key, BufferedImage> sprites = new LinkedHashMap<>(16, 0.75f, true); // Access order
+    private long bytesResident;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SpriteCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    // The cache shared by everything drawn on screen
+    public static SpriteCache getShared() {
+        return SHARED;
+    }
+
+    // The source image scaled to the given size, with transparency
+    public BufferedImage get(Image source, int width, int height) {
+        return get(source, width, height, Transparency.TRANSLUCENT);
+    }
+
+    // The source image scaled to the given size, using Transparency.OPAQUE for images without transparent pixels
+    public synchronized BufferedImage get(Image source, int width, int height, int transparency) {
+        Key key = new Key(source, width, height);
+        BufferedImage sprite = sprites.get(key);
+        if (sprite != null) {
+            hits++;
+            return sprite;
+        }
+        misses++;
+        sprite = createSprite(source, Math.max(1, width), Math.max(1, height), transparency);
+        sprites.put(key, sprite);
+        bytesResident += sizeOf(sprite);
+        evictOverBudget(key);
+        return sprite;
+    }
+
+    // Drop least recently used sprites until the cache fits its budget, always keeping the one just added
+    private void evictOverBudget(Key newest) {
+        Iterator<Map.Entry<Key, BufferedImage>> it = sprites.entrySet().iterator();
+        while (bytesResident > budgetBytes && it.hasNext()) {
+            Map.Entry<Key, BufferedImage> eldest = it.next();
+            if (eldest.getKey().equals(newest)) {
+                continue;
+            }
+            bytesResident -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static BufferedImage createSprite(Image source, int width, int height, int transparency) {
+        BufferedImage sprite;
+        if (GraphicsEnvironment.isHeadless()) {
+            sprite = new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        } else {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            sprite = gc.createCompatibleImage(width, height, transparency);
+        }
+        Graphics2D g = sprite.createGraphics();
+        g.drawImage(source, 0, 0, width, height, null); // Same scaling the game used to do every frame
+        g.dispose();
+        return sprite;
+    }
+
+    private static long sizeOf(BufferedImage sprite) {
+        return (long) sprite.getWidth() * sprite.getHeight() * 4;
+    }
+
+    public synchronized void clear() {
+        sprites.clear();
+        bytesResident = 0;
+    }
+
+    public synchronized long getBytesResident() {
+        return bytesResident;
+    }
+
+    public synchronized int getSize() {
+        return sprites.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
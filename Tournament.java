@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongFunction;
+
+// TournamentResult class is how one bot did in a tournament
+class TournamentResult {
+    final String name;
+    final BatchResult games;
+    final long decisions; // Calls of the bot's shouldJump
+    final long decisionNanos; // Time spent in them
+
+    TournamentResult(String name, BatchResult games, long decisions, long decisionNanos) {
+        this.name = name;
+        this.games = games;
+        this.decisions = decisions;
+        this.decisionNanos = decisionNanos;
+    }
+
+    public double getNanosPerDecision() {
+        return decisions == 0 ? 0 : (double) decisionNanos / decisions;
+    }
+
+    // How many ticks per second the decision function alone could keep up with
+    public double getDecisionsPerSecond() {
+        return decisionNanos == 0 ? 0 : decisions * 1e9 / decisionNanos;
+    }
+}
+
+// Tournament class plays every bot on the same seeded courses, in parallel through the BatchSimulator,
+// and ranks them by mean score, with the cost of their decision function as the tie breaker
+class Tournament {
+    // Entry class is a bot taking part, made fresh for every game from the game's seed
+    private static final class Entry {
+        final String name;
+        final LongFunction<? extends IStrategy> bots;
+
+        Entry(String name, LongFunction<? extends IStrategy> bots) {
+            this.name = name;
+            this.bots = bots;
+        }
+    }
+
+    // TimedBot class counts and times the decisions of one bot in one game, so threads share nothing
+    private static final class TimedBot implements InputPolicy {
+        private final IStrategy bot;
+        private long decisions;
+        private long nanos;
+
+        TimedBot(IStrategy bot) {
+            this.bot = bot;
+        }
+
+        @Override
+        public boolean shouldJump(World world) {
+            long start = System.nanoTime();
+            boolean jump = bot.shouldJump(world);
+            nanos += System.nanoTime() - start;
+            decisions++;
+            return jump;
+        }
+    }
+
+    // A planner holds its own copies of the world, every worker thread plays all its games with one
+    private static final ThreadLocal<PlannerBot> PLANNERS = ThreadLocal.withInitial(PlannerBot::new);
+
+    private final BatchSimulator simulator;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public Tournament(int width, int height, int threads, long maxTicks) {
+        this.simulator = new BatchSimulator(width, height, threads, maxTicks);
+    }
+
+    public void add(String name, LongFunction<? extends IStrategy> bots) {
+        entries.add(new Entry(name, bots));
+    }
+
+    // Play the given number of games per bot, game i on the course seeded with baseSeed + i. Best bot first
+    public List<TournamentResult> run(int games, long baseSeed) {
+        List<TournamentResult> results = new ArrayList<>();
+        for (Entry entry : entries) {
+            TimedBot[] timed = new TimedBot[games];
+            BatchResult result = simulator.run(games, baseSeed, gameSeed -> {
+                TimedBot bot = new TimedBot(entry.bots.apply(gameSeed));
+                timed[(int) (gameSeed - baseSeed)] = bot;
+                return bot;
+            });
+            long decisions = 0;
+            long nanos = 0;
+            for (TimedBot bot : timed) {
+                decisions += bot.decisions;
+                nanos += bot.nanos;
+            }
+            results.add(new TournamentResult(entry.name, result, decisions, nanos));
+        }
+        results.sort(Comparator.comparingDouble((TournamentResult r) -> -r.games.getMeanScore())
+                .thenComparingDouble(TournamentResult::getNanosPerDecision));
+        return results;
+    }
+
+    public static String report(List<TournamentResult> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-4s %-10s %10s %8s %8s %12s %14s%n",
+                "Rank", "Bot", "Mean score", "Median", "p90", "ns/decision", "decisions/s"));
+        for (int i = 0; i < results.size(); i++) {
+            TournamentResult r = results.get(i);
+            sb.append(String.format("%-4d %-10s %10.2f %8d %8d %12.1f %14.0f%n", i + 1, r.name,
+                    r.games.getMeanScore(), r.games.getScorePercentile(0.5), r.games.getScorePercentile(0.9),
+                    r.getNanosPerDecision(), r.getDecisionsPerSecond()));
+        }
+        return sb.toString();
+    }
+
+    // Run the built-in bots against each other: games, threads, seed
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        QLearner learner = LearnedBot.train(20_000, seed); // Trained on other courses than the tournament's
+        Tournament tournament = new Tournament(1920, 1080, threads, 40_000);
+        tournament.add("gap", gameSeed -> new GapFollowerBot());
+        tournament.add("lookahead", gameSeed -> new LookaheadBot());
+        tournament.add("planner", gameSeed -> PLANNERS.get().newGame());
+        tournament.add("learned", gameSeed -> new LearnedBot(learner));
+        tournament.add("idle", gameSeed -> new Controller()); // Never jumps, the baseline
+        System.out.print(report(tournament.run(games, seed + (1L << 40))));
+    }
+}
@@ -0,0 +1,273 @@
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// VectorEnv class runs many games side by side behind a Gym-style interface for training agents: reset(seed) and
+// step(actions) fill reusable primitive buffers with one row of observations, one reward and one done flag per game.
+// A game that ends is reset straight away onto its next course, so its row then holds the new game's first observation
+class VectorEnv {
+    public static final int OBS_SIZE = 6; // Floats per observation, see observe()
+    public static final int NOOP = 0;
+    public static final int JUMP = 1;
+    public static final float REWARD_ALIVE = 0.1f; // Every tick survived
+    public static final float REWARD_POINT = 1.0f; // Every column passed
+    public static final float REWARD_DEATH = -1.0f;
+    private static final int CHUNK_SIZE = 1024; // Games per task when stepping in parallel
+
+    private final World[] worlds;
+    private final long maxTicks; // Games are cut off (done) after this many ticks
+    private final ForkJoinPool pool; // Null to step on the calling thread
+    private final float[] observations;
+    private final float[] rewards;
+    private final boolean[] dones;
+    private final int[] finalScores; // Score of the game that just ended, where done is set
+    private final long[] episodes; // Games played per slot, picks the seed of the next one
+    private long seed;
+
+    public VectorEnv(int count, int width, int height, long maxTicks, int threads) {
+        this.worlds = new World[count];
+        this.maxTicks = maxTicks;
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        this.observations = new float[count * OBS_SIZE];
+        this.rewards = new float[count];
+        this.dones = new boolean[count];
+        this.finalScores = new int[count];
+        this.episodes = new long[count];
+        for (int i = 0; i < count; i++) {
+            worlds[i] = new World(width, height, 0);
+        }
+    }
+
+    // Start every game over. Game i plays the courses seed + i, seed + i + count, seed + i + 2 * count, ...
+    public float[] reset(long seed) {
+        this.seed = seed;
+        for (int i = 0; i < worlds.length; i++) {
+            episodes[i] = 0;
+            worlds[i].reset(seedOf(i));
+            observe(worlds[i], observations, i * OBS_SIZE);
+            rewards[i] = 0;
+            dones[i] = false;
+        }
+        return observations;
+    }
+
+    // Apply one action (NOOP or JUMP) to every game and advance them all by one tick
+    public void step(int[] actions) {
+        if (actions.length != worlds.length) {
+            throw new IllegalArgumentException("Expected " + worlds.length + " actions, got " + actions.length);
+        }
+        if (pool == null) {
+            stepRange(actions, 0, worlds.length);
+            return;
+        }
+        int chunks = (worlds.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        try {
+            pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk ->
+                    stepRange(actions, chunk * CHUNK_SIZE, Math.min(worlds.length, (chunk + 1) * CHUNK_SIZE)))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Step interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Step failed", e.getCause());
+        }
+    }
+
+    private void stepRange(int[] actions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            World world = worlds[i];
+            int points = world.getTubeColumn().getPoints();
+            world.step(actions[i] == JUMP);
+            float reward = REWARD_ALIVE + (world.getTubeColumn().getPoints() - points) * REWARD_POINT;
+            boolean done = world.isGameOver() || world.getTicks() >= maxTicks;
+            if (world.isGameOver()) {
+                reward += REWARD_DEATH;
+            }
+            rewards[i] = reward;
+            dones[i] = done;
+            if (done) {
+                finalScores[i] = world.getTubeColumn().getPoints();
+                episodes[i]++;
+                world.reset(seedOf(i));
+            }
+            observe(world, observations, i * OBS_SIZE);
+        }
+    }
+
+    private long seedOf(int i) {
+        return seed + i + episodes[i] * worlds.length;
+    }
+
+    // Write what an agent sees of a world into OBS_SIZE floats, all roughly between -1 and 1:
+    // bird height, vertical speed, distance to the next tubes, room above and below the bird in the gap, difficulty
+    public static void observe(World world, float[] out, int offset) {
+        Bird bird = world.getBird();
+        float height = world.getHeight();
+        out[offset] = bird.getY() / height;
+        out[offset + 1] = (float) (bird.getDy() / 20.0);
+        out[offset + 2] = (world.getTubeX() - bird.getX() - bird.getWidth()) / (float) world.getWidth();
+        out[offset + 3] = (bird.getY() - world.getGapTop()) / height;
+        out[offset + 4] = (world.getGapBottom() - bird.getY() - bird.getHeight()) / height;
+        out[offset + 5] = (float) (world.getDifficultyFactor() - 1.0);
+    }
+
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    public int getCount() {
+        return worlds.length;
+    }
+
+    public float[] getObservations() {
+        return observations;
+    }
+
+    public float[] getRewards() {
+        return rewards;
+    }
+
+    public boolean[] getDones() {
+        return dones;
+    }
+
+    public int[] getFinalScores() {
+        return finalScores;
+    }
+
+    // Step random actions as fast as possible and print the rate: games, threads, seconds
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 3;
+
+        VectorEnv env = new VectorEnv(count, 1920, 1080, 20_000, threads);
+        env.reset(0);
+        int[] actions = new int[count];
+        Random random = new Random(0);
+        long steps = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < count; i++) {
+                actions[i] = random.nextInt(12) == 0 ? JUMP : NOOP;
+            }
+            env.step(actions);
+            steps += count;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        env.close();
+        System.out.printf("%d games on %d threads: %.2fM env-steps/s%n", count, threads, steps / elapsed / 1e6);
+    }
+}
+
+// QLearner class is a small working example of training on VectorEnv: tabular Q-learning over a coarse grid of
+// the bird's distance to the tubes, its height relative to the middle of the gap and its speed
+class QLearner {
+    private static final int DISTANCE_BUCKETS = 12;
+    private static final int HEIGHT_BUCKETS = 24;
+    private static final int SPEED_BUCKETS = 8;
+    static final int STATES = DISTANCE_BUCKETS * HEIGHT_BUCKETS * SPEED_BUCKETS;
+
+    private final float[] q = new float[STATES * 2]; // Value of NOOP and JUMP for every state
+    private final float learningRate;
+    private final float discount;
+    private final Random random;
+
+    public QLearner(float learningRate, float discount, long seed) {
+        this.learningRate = learningRate;
+        this.discount = discount;
+        this.random = new Random(seed);
+    }
+
+    // Grid cell of the observation starting at offset
+    public static int state(float[] obs, int offset) {
+        int distance = bucket(obs[offset + 2], -0.2f, 0.8f, DISTANCE_BUCKETS);
+        float gapMiddle = (obs[offset + 4] - obs[offset + 3]) / 2; // Bird's offset from the middle of the gap
+        int height = bucket(gapMiddle, -0.4f, 0.4f, HEIGHT_BUCKETS);
+        int speed = bucket(obs[offset + 1], -0.8f, 0.4f, SPEED_BUCKETS);
+        return (distance * HEIGHT_BUCKETS + height) * SPEED_BUCKETS + speed;
+    }
+
+    private static int bucket(float value, float min, float max, int buckets) {
+        int bucket = (int) ((value - min) / (max - min) * buckets);
+        return Math.max(0, Math.min(buckets - 1, bucket));
+    }
+
+    // Best known action in the given state
+    public int greedy(int state) {
+        return q[state * 2 + VectorEnv.JUMP] > q[state * 2 + VectorEnv.NOOP] ? VectorEnv.JUMP : VectorEnv.NOOP;
+    }
+
+    // Train for the given number of steps of the whole environment, exploring less as training goes on.
+    // Returns the mean score of the games that ended in the last tenth of training
+    public double train(VectorEnv env, long steps, long seed) {
+        int count = env.getCount();
+        int[] states = new int[count];
+        int[] actions = new int[count];
+        float[] obs = env.reset(seed);
+        for (int i = 0; i < count; i++) {
+            states[i] = state(obs, i * VectorEnv.OBS_SIZE);
+        }
+        long endedGames = 0;
+        long endedScore = 0;
+        for (long step = 0; step < steps; step++) {
+            double epsilon = Math.max(0.001, 0.1 * (1.0 - (double) step / (steps * 0.8)));
+            for (int i = 0; i < count; i++) {
+                // Jumping at random half the time would keep the bird at the ceiling, so explore with rare jumps
+                actions[i] = random.nextDouble() < epsilon
+                        ? (random.nextInt(8) == 0 ? VectorEnv.JUMP : VectorEnv.NOOP) : greedy(states[i]);
+            }
+            env.step(actions);
+            float[] rewards = env.getRewards();
+            boolean[] dones = env.getDones();
+            for (int i = 0; i < count; i++) {
+                int next = state(obs, i * VectorEnv.OBS_SIZE);
+                int index = states[i] * 2 + actions[i];
+                float target = rewards[i];
+                if (!dones[i]) {
+                    target += discount * Math.max(q[next * 2], q[next * 2 + 1]);
+                } else if (step >= steps - steps / 10) {
+                    endedGames++;
+                    endedScore += env.getFinalScores()[i];
+                }
+                q[index] += learningRate * (target - q[index]);
+                states[i] = next;
+            }
+        }
+        return endedGames == 0 ? 0 : (double) endedScore / endedGames;
+    }
+
+    // Play greedily with what has been learned, e.g. in BatchSimulator
+    public InputPolicy policy() {
+        float[] obs = new float[VectorEnv.OBS_SIZE];
+        return world -> {
+            VectorEnv.observe(world, obs, 0);
+            return greedy(state(obs, 0)) == VectorEnv.JUMP;
+        };
+    }
+
+    // Train on 256 games, then compare the learned policy with never jumping: steps, seed
+    public static void main(String[] args) {
+        long steps = args.length > 0 ? Long.parseLong(args[0]) : 20_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+        VectorEnv env = new VectorEnv(256, 1920, 1080, 20_000, 1);
+        QLearner learner = new QLearner(0.1f, 0.99f, seed);
+        long start = System.nanoTime();
+        double trainingScore = learner.train(env, steps, seed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        env.close();
+        System.out.printf("Trained %d env-steps in %.1fs (%.2fM/s), mean score at the end of training %.2f%n",
+                steps * env.getCount(), seconds, steps * env.getCount() / seconds / 1e6, trainingScore);
+
+        BatchSimulator simulator = new BatchSimulator(1920, 1080, Runtime.getRuntime().availableProcessors(), 20_000);
+        // Evaluate on courses the learner never trained on
+        BatchResult learned = simulator.run(1000, 1L << 40, gameSeed -> learner.policy());
+        BatchResult idle = simulator.run(1000, 1L << 40, gameSeed -> world -> false);
+        System.out.printf("Mean score over 1000 new games: learned %.2f, never jumping %.2f%n",
+                learned.getMeanScore(), idle.getMeanScore());
+    }
+}
@@ -0,0 +1,737 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// FramePool class hands out a fixed set of frame images and takes them back once a frame has been encoded.
+// Taking a frame waits while all of them are in use, which is what holds the renderer back when the encoders
+// fall behind, so an export of any length never has more than the pool's frames in memory
+class FramePool {
+    private final BlockingQueue<BufferedImage> free;
+    private final int size;
+
+    public FramePool(int size, int width, int height) {
+        this.size = size;
+        this.free = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            free.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+    }
+
+    public BufferedImage take() throws InterruptedException {
+        return free.take();
+    }
+
+    public void release(BufferedImage frame) {
+        free.add(frame);
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
+
+// FrameChanges class is the part of a frame that differs from the frame before it: the rectangles where something
+// was drawn on that frame or is drawn now, all inside the frame, and their bounds. Every frame gets its own, as
+// the encoders read it while the next frame is already being drawn
+class FrameChanges {
+    final int x; // Bounds of all rectangles
+    final int y;
+    final int width;
+    final int height;
+    private final int[] rects; // x, y, width and height of every rectangle
+    private final int count; // Numbers used in rects
+
+    // Changes covering the whole frame
+    FrameChanges(int frameWidth, int frameHeight) {
+        this(new int[] {0, 0, frameWidth, frameHeight}, 4, frameWidth, frameHeight);
+    }
+
+    // Changes of the given rectangles, cut to the frame. A frame where nothing changed still gets one pixel,
+    // as formats need something to hang the frame's delay on
+    FrameChanges(int[] candidates, int candidateCount, int frameWidth, int frameHeight) {
+        int[] kept = new int[Math.max(4, candidateCount)];
+        int keptCount = 0;
+        int left = frameWidth;
+        int top = frameHeight;
+        int right = 0;
+        int bottom = 0;
+        for (int i = 0; i < candidateCount; i += 4) {
+            int x0 = Math.max(0, candidates[i]);
+            int y0 = Math.max(0, candidates[i + 1]);
+            int x1 = Math.min(frameWidth, candidates[i] + candidates[i + 2]);
+            int y1 = Math.min(frameHeight, candidates[i + 1] + candidates[i + 3]);
+            if (x1 <= x0 || y1 <= y0) {
+                continue;
+            }
+            kept[keptCount++] = x0;
+            kept[keptCount++] = y0;
+            kept[keptCount++] = x1 - x0;
+            kept[keptCount++] = y1 - y0;
+            left = Math.min(left, x0);
+            top = Math.min(top, y0);
+            right = Math.max(right, x1);
+            bottom = Math.max(bottom, y1);
+        }
+        if (keptCount == 0) {
+            kept[keptCount++] = 0;
+            kept[keptCount++] = 0;
+            kept[keptCount++] = 1;
+            kept[keptCount++] = 1;
+            left = 0;
+            top = 0;
+            right = 1;
+            bottom = 1;
+        }
+        this.rects = kept;
+        this.count = keptCount / 4;
+        this.x = left;
+        this.y = top;
+        this.width = right - left;
+        this.height = bottom - top;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getX(int rect) {
+        return rects[rect * 4];
+    }
+
+    public int getY(int rect) {
+        return rects[rect * 4 + 1];
+    }
+
+    public int getWidth(int rect) {
+        return rects[rect * 4 + 2];
+    }
+
+    public int getHeight(int rect) {
+        return rects[rect * 4 + 3];
+    }
+}
+
+// VideoFormat class turns rendered frames into a file format in two steps: encode, which runs for several frames
+// at once on the encoder threads and must not touch shared state, and write, which is called on one thread with
+// the encoded frames in order
+abstract class VideoFormat {
+    // True when a frame can be stored as just the part that changed since the frame before. Only the bounds of
+    // the changes are then drawn, the rest of the pooled image holds whatever frame it was used for last
+    public boolean encodesChanges() {
+        return false;
+    }
+
+    // Encode one frame into the bytes to write for it. The changes cover the whole frame unless the format
+    // encodes changes. The frame goes back to the pool afterwards
+    public abstract byte[] encode(BufferedImage frame, FrameChanges changes) throws IOException;
+
+    // Write the next encoded frame
+    public abstract void write(byte[] encoded) throws IOException;
+
+    // Write whatever comes after the last frame and close the output
+    public abstract void finish() throws IOException;
+}
+
+// PngSequence class writes every frame as its own PNG file, frame-000000.png and so on, which any video tool
+// turns into a clip. The PNG is written straight from the frame's pixels: every row with the Sub filter, which
+// suits the smooth background, and deflate at its fastest level. That is about twice as fast as ImageIO's PNG
+// writer at nearly the same size
+class PngSequence extends VideoFormat {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int FILTER_SUB = 1;
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final File directory;
+    private int frames;
+
+    public PngSequence(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] encode(BufferedImage frame, FrameChanges changes) throws IOException {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int[] rgb = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(width * height / 2);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        try (DeflaterOutputStream zip = new DeflaterOutputStream(compressed, deflater, 1 << 16)) {
+            byte[] row = new byte[1 + width * 3];
+            row[0] = FILTER_SUB;
+            for (int y = 0; y < height; y++) {
+                int last = 0; // Each byte is stored as the difference to the same channel of the pixel on its left
+                for (int x = 0, offset = y * width, i = 1; x < width; x++) {
+                    int pixel = rgb[offset + x];
+                    row[i++] = (byte) ((pixel >>> 16) - (last >>> 16));
+                    row[i++] = (byte) ((pixel >>> 8) - (last >>> 8));
+                    row[i++] = (byte) (pixel - last);
+                    last = pixel;
+                }
+                zip.write(row);
+            }
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream(compressed.size() + 64);
+        png.write(SIGNATURE);
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        header.put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0); // 8 bit RGB, no interlace
+        writeChunk(png, "IHDR", header.array(), header.position());
+        writeChunk(png, "IDAT", compressed.toByteArray(), compressed.size());
+        writeChunk(png, "IEND", new byte[0], 0);
+        return png.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data, int length) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        writeInt(out, length);
+        out.write(typeBytes, 0, typeBytes.length);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    @Override
+    public void write(byte[] encoded) throws IOException {
+        File file = new File(directory, String.format(Locale.ROOT, "frame-%06d.png", frames++));
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(encoded);
+        }
+    }
+
+    @Override
+    public void finish() {
+        // Every frame is a finished file already
+    }
+}
+
+// AnimatedGif class writes the frames as one looping GIF. Every frame is mapped onto a fixed 6x7x6 color cube, so
+// all frames share one palette and can be mapped and LZW compressed on their own, in parallel. The writer only
+// strings the finished image blocks together. A frame after the first is only the bounds of what changed, drawn
+// over the frame before, and inside them the pixels nothing was drawn on are transparent. For a scrolling course
+// that leaves the bird and the tubes, a small part of the screen, and long transparent runs LZW packs tightly.
+// GIF delays are in hundredths of a second, so the frame period is rounded to that
+class AnimatedGif extends VideoFormat {
+    private static final int RED_LEVELS = 6;
+    private static final int GREEN_LEVELS = 7; // The eye tells greens apart best
+    private static final int BLUE_LEVELS = 6;
+    private static final int COLOR_BITS = 8; // 252 colors used out of 256
+    private static final byte TRANSPARENT = (byte) 255; // One of the unused entries
+    private static final ThreadLocal<LzwEncoder> ENCODERS = ThreadLocal.withInitial(LzwEncoder::new);
+    private static final int MAX_CODE = 4095; // Codes are at most 12 bits
+    private static final byte[] RED_INDEX = levelIndex(RED_LEVELS, GREEN_LEVELS * BLUE_LEVELS);
+    private static final byte[] GREEN_INDEX = levelIndex(GREEN_LEVELS, BLUE_LEVELS);
+    private static final byte[] BLUE_INDEX = levelIndex(BLUE_LEVELS, 1);
+
+    private final OutputStream out;
+    private final int delayCentis;
+
+    public AnimatedGif(File file, int width, int height, long framePeriodMillis) throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        this.delayCentis = (int) Math.max(2, Math.round(framePeriodMillis / 10.0)); // Browsers slow down below 2
+        writeHeader(width, height);
+    }
+
+    // Palette index part for every 8 bit channel value, with the value scaled to the nearest of the given levels
+    private static byte[] levelIndex(int levels, int stride) {
+        byte[] index = new byte[256];
+        for (int value = 0; value < 256; value++) {
+            index[value] = (byte) ((value * (levels - 1) + 127) / 255 * stride);
+        }
+        return index;
+    }
+
+    private void writeHeader(int width, int height) throws IOException {
+        out.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0x80 | (COLOR_BITS - 1) << 4 | (COLOR_BITS - 1)); // Global color table of 256 entries
+        out.write(0); // Background color
+        out.write(0); // No aspect ratio
+        for (int i = 0; i < 1 << COLOR_BITS; i++) {
+            int r = i / (GREEN_LEVELS * BLUE_LEVELS);
+            int g = i / BLUE_LEVELS % GREEN_LEVELS;
+            int b = i % BLUE_LEVELS;
+            if (r >= RED_LEVELS) { // The 4 entries past the cube are never used
+                r = g = b = 0;
+            }
+            out.write(r * 255 / (RED_LEVELS - 1));
+            out.write(g * 255 / (GREEN_LEVELS - 1));
+            out.write(b * 255 / (BLUE_LEVELS - 1));
+        }
+        // Netscape extension: loop forever
+        out.write(new byte[] {0x21, (byte) 0xFF, 11});
+        out.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[] {3, 1, 0, 0, 0});
+    }
+
+    @Override
+    public boolean encodesChanges() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(BufferedImage frame, FrameChanges changes) throws IOException {
+        int[] rgb = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        int stride = frame.getWidth();
+        int x = changes.x;
+        int y = changes.y;
+        int width = changes.width;
+        int height = changes.height;
+        byte[] indices = new byte[width * height];
+        Arrays.fill(indices, TRANSPARENT);
+        for (int rect = 0; rect < changes.getCount(); rect++) { // Rectangles may overlap, then they agree
+            int left = changes.getX(rect);
+            int right = left + changes.getWidth(rect);
+            int top = changes.getY(rect);
+            int bottom = top + changes.getHeight(rect);
+            for (int row = top; row < bottom; row++) {
+                int i = (row - y) * width + left - x;
+                for (int offset = row * stride + left, end = row * stride + right; offset < end; offset++) {
+                    int pixel = rgb[offset];
+                    indices[i++] = (byte) (RED_INDEX[pixel >>> 16 & 0xFF] + GREEN_INDEX[pixel >>> 8 & 0xFF]
+                            + BLUE_INDEX[pixel & 0xFF]);
+                }
+            }
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(indices.length / 4);
+        block.write(0x21); // Graphic control extension with the frame's delay
+        block.write(0xF9);
+        block.write(4);
+        block.write(0x05); // Leave the frame in place, has a transparent color
+        writeShort(block, delayCentis);
+        block.write(TRANSPARENT);
+        block.write(0);
+        block.write(0x2C); // Image descriptor of the changed rectangle, global colors
+        writeShort(block, x);
+        writeShort(block, y);
+        writeShort(block, width);
+        writeShort(block, height);
+        block.write(0);
+        block.write(COLOR_BITS);
+        ENCODERS.get().encode(indices, block);
+        return block.toByteArray();
+    }
+
+    @Override
+    public void write(byte[] encoded) throws IOException {
+        out.write(encoded);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.write(0x3B); // Trailer
+        out.close();
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write(value >>> 8 & 0xFF);
+    }
+
+    // LzwEncoder class is the variable-width LZW of GIF, packing codes least significant bit first into
+    // sub-blocks of up to 255 bytes. The dictionary is a table indexed by (prefix code, next index), so extending
+    // a string is one array read. Entries carry the generation they were made in, which makes starting a new
+    // dictionary a counter increment instead of clearing the 4 MB table. One encoder per thread, reused
+    private static final class LzwEncoder {
+        private static final int CODE_BITS = 12;
+        private final int[] children = new int[(MAX_CODE + 1) << COLOR_BITS]; // generation << 12 | code
+        private int generation;
+        private final byte[] subBlock = new byte[255];
+        private ByteArrayOutputStream out;
+        private int subBlockLength;
+        private int bits; // Bits not yet written, lowest first
+        private int bitCount;
+
+        void encode(byte[] indices, ByteArrayOutputStream out) {
+            this.out = out;
+            int clearCode = 1 << COLOR_BITS;
+            int endCode = clearCode + 1;
+            int codeSize = COLOR_BITS + 1;
+            int nextCode = clearCode + 2;
+            newDictionary();
+            writeCode(clearCode, codeSize);
+
+            int stamp = generation << CODE_BITS;
+            int prefix = indices.length == 0 ? 0 : indices[0] & 0xFF;
+            for (int i = 1; i < indices.length; i++) {
+                int next = indices[i] & 0xFF;
+                int slot = prefix << COLOR_BITS | next;
+                int child = children[slot];
+                if ((child & ~MAX_CODE) == stamp) { // Known string, extend it
+                    prefix = child & MAX_CODE;
+                    continue;
+                }
+                writeCode(prefix, codeSize);
+                if (nextCode <= MAX_CODE) {
+                    children[slot] = stamp | nextCode++;
+                    if (nextCode > 1 << codeSize && codeSize < CODE_BITS) { // The code just added no longer fits
+                        codeSize++;
+                    }
+                } else { // Dictionary full, start over
+                    writeCode(clearCode, codeSize);
+                    newDictionary();
+                    stamp = generation << CODE_BITS;
+                    codeSize = COLOR_BITS + 1;
+                    nextCode = clearCode + 2;
+                }
+                prefix = next;
+            }
+            if (indices.length > 0) {
+                writeCode(prefix, codeSize);
+            }
+            writeCode(endCode, codeSize);
+            if (bitCount > 0) {
+                writeByte(bits & 0xFF);
+                bits = 0;
+                bitCount = 0;
+            }
+            flushSubBlock();
+            out.write(0); // Block terminator
+            this.out = null;
+        }
+
+        private void newDictionary() {
+            if (++generation == 1 << (32 - CODE_BITS - 1)) { // Stamps ran out, really clear it once
+                Arrays.fill(children, 0);
+                generation = 1;
+            }
+        }
+
+        private void writeCode(int code, int codeSize) {
+            bits |= code << bitCount;
+            bitCount += codeSize;
+            while (bitCount >= 8) {
+                writeByte(bits & 0xFF);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        private void writeByte(int b) {
+            subBlock[subBlockLength++] = (byte) b;
+            if (subBlockLength == subBlock.length) {
+                flushSubBlock();
+            }
+        }
+
+        private void flushSubBlock() {
+            if (subBlockLength > 0) {
+                out.write(subBlockLength);
+                out.write(subBlock, 0, subBlockLength);
+                subBlockLength = 0;
+            }
+        }
+    }
+}
+
+// VideoExport class turns a recorded run into a clip without a screen. The run is replayed headless and every
+// frame is drawn offscreen with the same render methods the game uses, into images from a FramePool. From there
+// frames go through a pipeline: this thread renders, a pool of encoder threads encodes several frames at once,
+// and one writer thread writes them out in order. The frame pool and the queue in front of the writer are both
+// bounded, so a slow stage holds back the ones before it instead of piling up frames.
+// Usage: java VideoExport <replay file> <output directory for PNGs, or file.gif> [--every=ticks] [--threads=n]
+class VideoExport {
+    private final VideoFormat format;
+    private final int ticksPerFrame; // Only every n-th tick becomes a frame
+    private final FramePool pool;
+    private final ExecutorService encoders;
+    private final BlockingQueue<Future<byte[]>> pending; // Encoded or encoding frames, in order
+    private final Future<byte[]> endOfFrames;
+    private final Thread writer;
+    private volatile IOException error; // First failure of any stage, the export stops at the next frame
+    private final TextLayer scoreLayer;
+    private final BufferedImage backgroundSprite;
+    private final Image birdImage;
+    private final Image tubeImage;
+    private int shownPoints = -1; // Score the cached score text was made for
+    private String scoreText;
+    private int[] drawn = new int[64]; // x, y, width and height of the bird and every tube on the last frame
+    private int drawnCount; // Numbers used in drawn
+    private int[] changed = new int[128]; // Rectangles of the frame being made, as in drawn
+    private int changedCount;
+    private boolean firstFrame = true;
+    private long frames;
+    private long renderNanos;
+    private long writtenFrames;
+    private long writtenBytes;
+
+    public VideoExport(VideoFormat format, int width, int height, int ticksPerFrame, int threads) {
+        this.format = format;
+        this.ticksPerFrame = ticksPerFrame;
+        this.pool = new FramePool(threads * 2 + 2, width, height); // Enough to keep every encoder busy
+        this.encoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new ArrayBlockingQueue<>(pool.getSize());
+        this.endOfFrames = CompletableFuture.completedFuture(null);
+        this.writer = new Thread(this::writeLoop, "writer");
+        this.scoreLayer = new TextLayer(new Font("MV Boli", Font.BOLD, height / 20), Color.black);
+        Image background = new ProxyImage("background.jpg").loadImage().getImage();
+        this.birdImage = new ProxyImage("bird.png").loadImage().getImage();
+        this.tubeImage = new ProxyImage("TubeBody.png").loadImage().getImage();
+        this.backgroundSprite = SpriteCache.getShared().get(background, width, height, Transparency.OPAQUE);
+    }
+
+    // Replay the file and export its frames, returning the replay's result once every frame is written
+    public ReplayResult export(String replayFile) throws IOException {
+        writer.start();
+        ReplayResult result;
+        try {
+            result = Replay.run(replayFile, this::ticked);
+        } finally {
+            try {
+                pending.put(endOfFrames);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while finishing the export", e);
+            } finally {
+                encoders.shutdownNow();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        format.finish();
+        return result;
+    }
+
+    // Render the tick into a pooled frame and hand it to the encoders
+    private void ticked(World world) throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (world.getTicks() % ticksPerFrame != 0 && !world.isGameOver()) {
+            return;
+        }
+        BufferedImage frame;
+        try {
+            frame = pool.take(); // Waits while the encoders are behind
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        }
+        long start = System.nanoTime();
+        FrameChanges changes = findChanges(world, frame.getWidth(), frame.getHeight());
+        render(world, frame, changes);
+        renderNanos += System.nanoTime() - start;
+        frames++;
+        Future<byte[]> encoded = encoders.submit(() -> {
+            try {
+                return format.encode(frame, changes);
+            } finally {
+                pool.release(frame);
+            }
+        });
+        try {
+            pending.put(encoded); // Waits while the writer is behind
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        }
+    }
+
+    // Work out the part of the frame that differs from the last one: where the bird and the tubes were and are now,
+    // and the score when it changed. That is all of it for the first frame and for formats that store whole frames
+    private FrameChanges findChanges(World world, int frameWidth, int frameHeight) {
+        changedCount = 0;
+        for (int i = 0; i < drawnCount; i += 4) {
+            addChange(drawn[i], drawn[i + 1], drawn[i + 2], drawn[i + 3]);
+        }
+        drawnCount = 0;
+        Bird bird = world.getBird();
+        addDrawn(bird.getX(), bird.getY(), bird.getWidth(), bird.getHeight());
+        List<Tube> tubes = world.getTubeColumn().getTubes();
+        for (int i = 0; i < tubes.size(); i++) {
+            Tube tube = tubes.get(i);
+            addDrawn(tube.getX(), tube.getY(), tube.getWidth(), tube.getHeight());
+        }
+        int points = world.getTubeColumn().getPoints();
+        if (points != shownPoints) {
+            addChange(10, 50 - scoreLayer.getAscent(), scoreLayer.getWidth(), scoreLayer.getHeight());
+            shownPoints = points;
+            scoreText = "Current score: " + points;
+            scoreLayer.setText(scoreText);
+            addChange(10, 50 - scoreLayer.getAscent(), scoreLayer.getWidth(), scoreLayer.getHeight());
+        }
+
+        if (firstFrame || !format.encodesChanges()) {
+            firstFrame = false;
+            return new FrameChanges(frameWidth, frameHeight);
+        }
+        return new FrameChanges(changed, changedCount, frameWidth, frameHeight);
+    }
+
+    private void addDrawn(int x, int y, int width, int height) {
+        if (drawnCount + 4 > drawn.length) {
+            drawn = Arrays.copyOf(drawn, drawn.length * 2);
+        }
+        drawn[drawnCount++] = x;
+        drawn[drawnCount++] = y;
+        drawn[drawnCount++] = width;
+        drawn[drawnCount++] = height;
+        addChange(x, y, width, height);
+    }
+
+    private void addChange(int x, int y, int width, int height) {
+        if (changedCount + 4 > changed.length) {
+            changed = Arrays.copyOf(changed, changed.length * 2);
+        }
+        changed[changedCount++] = x;
+        changed[changedCount++] = y;
+        changed[changedCount++] = width;
+        changed[changedCount++] = height;
+    }
+
+    // Draw the given part of the frame like the game draws a running game
+    private void render(World world, BufferedImage frame, FrameChanges changes) {
+        if (world.getBird().getImage() == null) { // The replay made the world, give it the game's images
+            world.getBird().setImage(birdImage);
+        }
+        world.getTubeColumn().setTubeImage(tubeImage); // Also reaches tubes that came out of the pool
+        Graphics2D g = frame.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        g.clipRect(changes.x, changes.y, changes.width, changes.height);
+        g.drawImage(backgroundSprite, 0, 0, null);
+        world.getBird().render(g, null);
+        world.getTubeColumn().render(g, null);
+        scoreLayer.draw(g, scoreText, 10, 50);
+        g.dispose();
+    }
+
+    // Write the encoded frames in the order they were rendered
+    private void writeLoop() {
+        while (true) {
+            Future<byte[]> next;
+            try {
+                next = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == endOfFrames) {
+                return;
+            }
+            if (error != null) { // Keep draining so the renderer is not left waiting on a full queue
+                continue;
+            }
+            try {
+                byte[] encoded = next.get();
+                format.write(encoded);
+                writtenFrames++;
+                writtenBytes += encoded.length;
+            } catch (ExecutionException e) {
+                error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException("Encoding failed", e.getCause());
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    // Only read after export returned
+    public long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String replayFile = null;
+        String output = null;
+        int ticksPerFrame = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            if (arg.startsWith("--every=")) {
+                ticksPerFrame = Integer.parseInt(arg.substring("--every=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (replayFile == null) {
+                replayFile = arg;
+            } else {
+                output = arg;
+            }
+        }
+        if (output == null) {
+            System.out.println("Usage: java VideoExport <replay file> <output directory, or file.gif>"
+                    + " [--every=ticks] [--threads=n]");
+            return;
+        }
+
+        int[] size = Replay.readSize(replayFile);
+        boolean gif = output.toLowerCase(Locale.ROOT).endsWith(".gif");
+        if (ticksPerFrame <= 0) { // Every tick for PNGs; GIF delays are whole hundredths, 2 ticks make 30 ms
+            ticksPerFrame = gif ? 2 : 1;
+        }
+        VideoFormat format = gif
+                ? new AnimatedGif(new File(output), size[0], size[1], (long) ticksPerFrame * World.TICK_MILLIS)
+                : new PngSequence(new File(output));
+        VideoExport export = new VideoExport(format, size[0], size[1], ticksPerFrame, threads);
+
+        long start = System.nanoTime();
+        ReplayResult result = export.export(replayFile);
+        long elapsed = System.nanoTime() - start;
+        double runSeconds = result.ticks * World.TICK_MILLIS / 1000.0;
+        System.out.println(replayFile + ": " + result);
+        System.out.printf(Locale.ROOT, "%d frames (%dx%d, every %d ticks) to %s in %.1f s with %d encoder threads,"
+                        + " %.1f MB%n", export.getWrittenFrames(), size[0], size[1], ticksPerFrame, output,
+                elapsed / 1e9, threads, export.getWrittenBytes() / 1e6);
+        System.out.printf(Locale.ROOT, "%.1f s of play exported %.1fx faster than real time, rendering took %.1f%%%n",
+                runSeconds, runSeconds / (elapsed / 1e9), 100.0 * export.getRenderNanos() / elapsed);
+        System.exit(result.matches() ? 0 : 1);
+    }
+}
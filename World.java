@@ -0,0 +1,410 @@
+import java.util.List;
+import java.util.Random;
+
+// Clock interface is used by the simulation to measure real time, so tests and batch runs can drive time by hand
+interface Clock {
+    Clock SYSTEM = System::nanoTime; // Real time, used by the on-screen game
+
+    public long nanoTime();
+}
+
+// ManualClock class is a clock that only moves when it is told to
+class ManualClock implements Clock {
+    private long now;
+
+    public long nanoTime() {
+        return now;
+    }
+
+    public void advance(long nanos) {
+        now += nanos;
+    }
+}
+
+// CourseRandom class is the generator of java.util.Random (same seeds give the same numbers) with a state
+// that can be copied, so a TubeColumn drawing its gaps from it can be cloned and still see the same tubes coming
+class CourseRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    public CourseRandom(long seed) {
+        super(seed); // Calls setSeed
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK; // Same scrambling as java.util.Random
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    public void copyFrom(CourseRandom other) {
+        this.state = other.state;
+    }
+}
+
+// World class holds the whole state of one game (bird, tubes, difficulty and collision) and moves it one tick at a time.
+// It never touches Swing or the screen, so it runs headless and as fast as the CPU allows
+class World {
+    public static final int TICK_MILLIS = 15; // Length of one tick, the period of the original Swing timer
+    public static final int DEFAULT_BIRD_SIZE = 51; // Size of bird.png, used when no image is loaded
+    private static final long DIFFICULTY_INCREASE_INTERVAL = 10000; // Increase difficulty every 10 seconds
+
+    private final int width; // Width of the world
+    private final int height; // Height of the world
+    private final int birdWidth;
+    private final int birdHeight;
+    private final int columns; // Tube columns on screen at most, 1 in the original game
+    private final CourseGenerator course; // Makes the gaps, shared by every world of this size
+    private Bird bird;
+    private TubeColumn tubeColumn;
+    private long seed; // Seed of the course, the same seed always gives the same tubes
+    private long ticks; // Number of ticks simulated since the last reset
+    private double difficultyFactor; // Difficulty factor that increases over (simulated) time
+    private boolean gameOver;
+    private Metrics metrics; // Times the tick phases when set, null in headless runs
+    private InputRecorder recorder; // Logs every jump when set, null when the game is not recorded
+    private final CollisionSystem collisions = new CollisionSystem();
+
+    public World(int width, int height, long seed) {
+        this(width, height, DEFAULT_BIRD_SIZE, DEFAULT_BIRD_SIZE, seed);
+    }
+
+    public World(int width, int height, int birdWidth, int birdHeight, long seed) {
+        this(width, height, birdWidth, birdHeight, seed, 1);
+    }
+
+    public World(int width, int height, int birdWidth, int birdHeight, long seed, int columns) {
+        this.width = width;
+        this.height = height;
+        this.birdWidth = birdWidth;
+        this.birdHeight = birdHeight;
+        this.columns = columns;
+        this.course = CourseGenerator.forWorld(width, height, birdWidth, birdHeight, columns);
+        reset(seed);
+    }
+
+    // Start a new game on the course given by the seed. The bird and tubes of the last game are reused,
+    // so a restart allocates nothing and keeps the images and sounds they were given
+    public void reset(long seed) {
+        this.seed = seed;
+        this.ticks = 0;
+        this.difficultyFactor = 1.0;
+        this.gameOver = false;
+        if (bird == null) {
+            this.bird = new Bird(width / 2, height / 2, birdWidth, birdHeight, width, height);
+            this.tubeColumn = new TubeColumn(width, height, course, seed, columns);
+        } else {
+            bird.reset();
+            tubeColumn.reset(seed);
+        }
+    }
+
+    // True when this world can be reset for a game of the given size instead of making a new one
+    public boolean hasSize(int width, int height, int birdWidth, int birdHeight, int columns) {
+        return this.width == width && this.height == height && this.birdWidth == birdWidth
+                && this.birdHeight == birdHeight && this.columns == columns;
+    }
+
+    // Advance the game by one tick, jumping first if asked to
+    public void step(boolean jump) {
+        if (gameOver) {
+            return;
+        }
+        if (jump) {
+            jump();
+        }
+        updateDifficulty(); // Update game difficulty
+        if (metrics == null) {
+            bird.tick(); // Update the bird
+            tubeColumn.tick(); // Update the wall
+            checkCollision(); // Check if the bird has collided with the wall
+        } else {
+            long start = System.nanoTime();
+            bird.tick();
+            long birdDone = System.nanoTime();
+            tubeColumn.tick();
+            long tubesDone = System.nanoTime();
+            checkCollision();
+            long end = System.nanoTime();
+            metrics.record(Metrics.Phase.BIRD_TICK, birdDone - start);
+            metrics.record(Metrics.Phase.TUBE_TICK, tubesDone - birdDone);
+            metrics.record(Metrics.Phase.COLLISION, end - tubesDone);
+        }
+        ticks++;
+    }
+
+    // Turn this world into an exact copy of another one of the same size, without allocating.
+    // Recorder and metrics stay as they are, so copies used for searching ahead are never recorded or timed
+    public void copyFrom(World other) {
+        if (other.width != width || other.height != height
+                || other.birdWidth != birdWidth || other.birdHeight != birdHeight || other.columns != columns) {
+            throw new IllegalArgumentException("Worlds of different sizes or column counts cannot be copied");
+        }
+        this.seed = other.seed;
+        this.ticks = other.ticks;
+        this.difficultyFactor = other.difficultyFactor;
+        this.gameOver = other.gameOver;
+        this.bird.copyFrom(other.bird);
+        this.tubeColumn.copyFrom(other.tubeColumn);
+    }
+
+    // Take over the bird of an authoritative copy of this game (e.g. a multiplayer server) after the given tick.
+    // The course does not depend on the bird, so it is moved on alone to that tick, also past a crash here that
+    // the other copy did not have. Used by the rollback client; the tick cannot be before this world's
+    void correct(long tick, int birdY, double birdDy, boolean gameOver) {
+        while (ticks < tick) {
+            updateDifficulty();
+            tubeColumn.tick();
+            ticks++;
+        }
+        bird.setY(birdY);
+        bird.setDy(birdDy);
+        bird.savePosition();
+        this.gameOver = gameOver;
+    }
+
+    // Make the bird jump before the next tick. Jumps between ticks land on the same tick a step(true) would,
+    // so a recorded game plays back exactly
+    public void jump() {
+        if (gameOver) {
+            return;
+        }
+        if (recorder != null) {
+            recorder.jump(ticks);
+        }
+        bird.jump();
+    }
+
+    // Log every jump to the given recorder, or stop recording with null
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Hash of everything that decides how the game goes on. Two runs that end with the same hash ended in the same state
+    public long stateHash() {
+        long hash = mix(0xcbf29ce484222325L, seed);
+        hash = mix(hash, ticks);
+        hash = mix(hash, gameOver ? 1 : 0);
+        hash = mix(hash, bird.getX());
+        hash = mix(hash, bird.getY());
+        hash = mix(hash, Double.doubleToLongBits(bird.getDy()));
+        hash = mix(hash, Double.doubleToLongBits(difficultyFactor));
+        hash = mix(hash, tubeColumn.getPoints());
+        hash = mix(hash, Double.doubleToLongBits(tubeColumn.getSpeed()));
+        for (int i = 0; i < tubeColumn.getTubes().size(); i++) {
+            Tube tube = tubeColumn.getTubes().get(i);
+            hash = mix(hash, tube.getX());
+            hash = mix(hash, tube.getY());
+            hash = mix(hash, tube.getWidth());
+            hash = mix(hash, tube.getHeight());
+            hash = mix(hash, Double.doubleToLongBits(tube.getDx()));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L; // FNV-1a step on a whole long
+    }
+
+    // Time every tick phase into the given metrics, or stop timing with null
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Difficulty factor after the given number of ticks, based on simulated time so it
+    // does not depend on how fast the world is run
+    public static double difficultyAt(long ticks) {
+        long elapsedTime = ticks * TICK_MILLIS;
+        double factor = 1.0 + (elapsedTime / DIFFICULTY_INCREASE_INTERVAL) * 0.1;
+
+        // Cap difficulty factor to prevent game from becoming impossible
+        if (factor > 1.7) {
+            factor = 1.7;
+        }
+        return factor;
+    }
+
+    // Update difficulty for bird and tube column
+    private void updateDifficulty() {
+        difficultyFactor = difficultyAt(ticks);
+        bird.setDifficultyFactor(difficultyFactor);
+        tubeColumn.setDifficultyFactor(difficultyFactor);
+    }
+
+    // Check the bird's whole path of the last tick against the tubes' paths, so it cannot fly through a tube
+    // between two ticks. Package-private so the benchmarks can time it on its own
+    void checkCollision() {
+        collisions.update(tubeColumn.getTubes());
+        if (collisions.collides(bird)) {
+            gameOver = true;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Bird getBird() {
+        return bird;
+    }
+
+    public TubeColumn getTubeColumn() {
+        return tubeColumn;
+    }
+
+    // Index of the top tube of the first column the bird has not flown past yet. With one column on screen
+    // that is always the only column, also after the bird has passed it
+    private int nextColumnIndex() {
+        List<Tube> tubes = tubeColumn.getTubes();
+        int birdX = bird.getX();
+        for (int i = 0; i < tubes.size(); i += 2) {
+            if (tubes.get(i).getX() + tubes.get(i).getWidth() >= birdX) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // Top tube of the column the bird has to fly through next
+    public Tube getNextTube() {
+        return tubeColumn.getTubes().get(nextColumnIndex());
+    }
+
+    // Top edge of the gap the bird has to fly through next
+    public int getGapTop() {
+        Tube topTube = getNextTube();
+        return topTube.getY() + topTube.getHeight();
+    }
+
+    // Bottom edge of the gap the bird has to fly through next
+    public int getGapBottom() {
+        return tubeColumn.getTubes().get(nextColumnIndex() + 1).getY();
+    }
+
+    // Left edge of the next pair of tubes
+    public int getTubeX() {
+        return getNextTube().getX();
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public double getDifficultyFactor() {
+        return difficultyFactor;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
+
+// Simulation class runs a World on a fixed timestep: real time read from the clock is collected
+// and spent in whole ticks, so the physics is the same however often advance() is called.
+// Jumps from an input queue are applied by their time, not by when advance() gets to them: each one right
+// before the first tick that fell due after the key event, which is the tick it would have landed on had the
+// simulation run exactly on time
+class Simulation {
+    private static final int MAX_CATCH_UP_TICKS = 10; // Ticks run at most per call before the backlog is dropped
+
+    private final World world;
+    private final Clock clock;
+    private final long tickNanos;
+    private long lastTime;
+    private long accumulator; // Real time not yet spent on ticks
+    private InputPolicy policy = world -> false; // Asked before every tick whether to jump
+    private InputQueue input; // Times of jump key events, null when nobody plays with the keyboard
+    private Metrics metrics; // Times input latency when set
+
+    public Simulation(World world, Clock clock) {
+        this.world = world;
+        this.clock = clock;
+        this.tickNanos = World.TICK_MILLIS * 1_000_000L;
+        this.lastTime = clock.nanoTime();
+    }
+
+    // Let the given policy decide on every tick whether the bird jumps
+    public void setPolicy(InputPolicy policy) {
+        this.policy = policy;
+    }
+
+    // Take jumps from the given queue, which holds event times from the same clock; null for none.
+    // Input latency is recorded into the metrics when they are not null
+    public void setInput(InputQueue input, Metrics metrics) {
+        this.input = input;
+        this.metrics = metrics;
+    }
+
+    // Run every tick that is due since the last call and return how many were run
+    public int advance() {
+        long now = clock.nanoTime();
+        accumulator += now - lastTime;
+        lastTime = now;
+
+        int steps = 0;
+        while (accumulator >= tickNanos && !world.isGameOver()) {
+            if (input != null) {
+                applyInput(now - accumulator + tickNanos); // When this tick fell due
+            }
+            world.step(policy.shouldJump(world));
+            accumulator -= tickNanos;
+            if (++steps == MAX_CATCH_UP_TICKS) { // After a long stall, skip ahead instead of spiralling
+                accumulator = 0;
+            }
+        }
+        return steps;
+    }
+
+    // Jump for every queued event that happened before the given time, in the order they happened.
+    // Events after it wait in the queue for the tick they fall into
+    private void applyInput(long tickDue) {
+        while (!input.isEmpty() && input.peek() <= tickDue) {
+            long eventNanos = input.poll();
+            world.jump();
+            if (metrics != null) {
+                metrics.inputApplied(eventNanos, clock.nanoTime());
+            }
+        }
+    }
+
+    // Run up to the given number of ticks straight away, ignoring the clock
+    public long runTicks(long count) {
+        long steps = 0;
+        while (steps < count && !world.isGameOver()) {
+            world.step(policy.shouldJump(world));
+            steps++;
+        }
+        return steps;
+    }
+
+    // How far the simulation is between the last tick and the next one right now, from 0 to 1
+    public double getAlpha() {
+        long pending = accumulator + clock.nanoTime() - lastTime;
+        return Math.min(1.0, Math.max(0.0, (double) pending / tickNanos));
+    }
+
+    public World getWorld() {
+        return world;
+    }
+}
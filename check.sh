@@ -0,0 +1,30 @@
+#!/bin/sh
+# Builds the game with plain javac (there is no build file) and runs every self-checking main with
+# arguments small enough for a laptop. Each check exits with status 1 on failure, so this stops at the
+# first one that fails. Pass --bench to run the quick benchmark harness afterwards
+set -e
+cd "$(dirname "$0")"
+
+rm -rf build
+mkdir -p build
+javac -encoding UTF-8 -nowarn -d build *.java # FlappyBird.java has non-ASCII text
+cp *.png *.jpg *.wav build/
+
+run() {
+    echo "== $*"
+    java -cp build "$@"
+}
+
+run CollisionSystem
+run CourseGenerator
+run AllocationCounter
+run ScoreStore 200000
+run PlannerBot
+run RollbackClient 4 15
+run MultiplayerServer 2000 10
+run BirdSwarm 1000000 500 # Reports the tick time against the target, it does not fail on it
+
+if [ "$1" = "--bench" ]; then
+    run Benchmarks --quick --json=build/benchmarks.json
+fi
+echo "All checks passed"